@@ -0,0 +1,4 @@
+package ch.sthomas.hack.start.model.points;
+
+/** An administrative area (district or region) by its p-code and English name. */
+public record AdminArea(String code, String name) {}
@@ -0,0 +1,6 @@
+package ch.sthomas.hack.start.model.points;
+
+import java.util.Map;
+
+/** Statistics of the pixels of one product inside an administrative district, per year. */
+public record DistrictStatData(String code, String name, Map<Integer, TimeStatData> years) {}
@@ -0,0 +1,6 @@
+package ch.sthomas.hack.start.model.points;
+
+import jakarta.annotation.Nullable;
+
+/** The district and region containing a point, {@code null} outside of them. */
+public record PointAdminAreas(@Nullable AdminArea district, @Nullable AdminArea region) {}
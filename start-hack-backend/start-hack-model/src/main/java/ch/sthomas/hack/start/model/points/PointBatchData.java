@@ -0,0 +1,30 @@
+package ch.sthomas.hack.start.model.points;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+import jakarta.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar values of a {@link PointBatchRequest}: {@code values.get(product)[year][point]}, where
+ * {@code year} indexes {@link #years()} and {@code point} the requested points. Values are {@code
+ * null} where a product has no data. {@link #districts()} and {@link #regions()} hold the area of
+ * every point, {@code null} for points outside of all areas.
+ */
+public record PointBatchData(
+        List<Integer> years,
+        Map<ModisProduct, Object[][]> values,
+        @Nullable List<AdminArea> districts,
+        @Nullable List<AdminArea> regions) {
+
+    public PointBatchData(final List<Integer> years, final Map<ModisProduct, Object[][]> values) {
+        this(years, values, null, null);
+    }
+
+    public PointBatchData withAdminAreas(
+            final List<AdminArea> districts, final List<AdminArea> regions) {
+        return new PointBatchData(years, values, districts, regions);
+    }
+}
@@ -0,0 +1,21 @@
+package ch.sthomas.hack.start.model.points;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Points as {@code [x, y]} pairs, optionally restricted to some products and a range of years (both
+ * inclusive).
+ */
+public record PointBatchRequest(
+        @NotEmpty @Size(max = 10_000) List<@NotNull @Size(min = 2, max = 2) double[]> points,
+        @Nullable Set<ModisProduct> products,
+        @Nullable Integer fromYear,
+        @Nullable Integer toYear) {}
@@ -0,0 +1,18 @@
+package ch.sthomas.hack.start.model.points;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The point data of the products that could be evaluated in time. {@link #missing()} lists the
+ * products that did not finish before the deadline or failed, their values are not in {@link
+ * #data()}.
+ */
+public record PointDataResult(List<PointData<Object>> data, Set<ModisProduct> missing) {
+
+    public boolean isPartial() {
+        return !missing.isEmpty();
+    }
+}
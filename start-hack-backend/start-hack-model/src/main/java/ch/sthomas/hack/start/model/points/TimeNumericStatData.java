@@ -1,4 +1,16 @@
 package ch.sthomas.hack.start.model.points;
 
-public record TimeNumericStatData(double max, double min, double avg, long count)
+import java.util.Map;
+
+/**
+ * Statistics of the valid (not no-data) pixels of a numeric raster. The percentiles are keyed
+ * {@code p5}, {@code p25}, {@code p50}, {@code p75} and {@code p95}.
+ */
+public record TimeNumericStatData(
+        double max,
+        double min,
+        double avg,
+        long count,
+        double stddev,
+        Map<String, Double> percentiles)
         implements TimeStatData {}
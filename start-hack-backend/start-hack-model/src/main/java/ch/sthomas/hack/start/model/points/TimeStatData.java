@@ -1,5 +1,12 @@
 package ch.sthomas.hack.start.model.points;
 
-public sealed interface TimeStatData permits TimeNumericStatData, TimeLctStatData{
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
-}
+/** Deserialized by the properties present, the JSON carries no type name. */
+@JsonTypeInfo(use = JsonTypeInfo.Id.DEDUCTION)
+@JsonSubTypes({
+    @JsonSubTypes.Type(TimeNumericStatData.class),
+    @JsonSubTypes.Type(TimeLctStatData.class)
+})
+public sealed interface TimeStatData permits TimeNumericStatData, TimeLctStatData {}
@@ -54,16 +54,16 @@ public enum ModisProduct {
     }
 
     public List<BaseFeature> mapAndFilter(final BaseFeatureCollection features) {
-        return features.getFeatures().stream()
-                .filter(include)
-                .map(
-                        f ->
-                                new BaseFeature()
-                                        .setId(f.getId())
-                                        .setGeometry(f.getGeometry())
-                                        .setType(f.getType())
-                                        .setProperties(properties(f)))
-                .toList();
+        return features.getFeatures().stream().filter(include).map(this::map).toList();
+    }
+
+    /** Replaces the {@code DN} property of a polygonized feature by the product properties. */
+    public BaseFeature map(final BaseFeature feature) {
+        return new BaseFeature()
+                .setId(feature.getId())
+                .setGeometry(feature.getGeometry())
+                .setType(feature.getType())
+                .setProperties(properties(feature));
     }
 
     public static String getLandUseFromKey(final int minElev) {
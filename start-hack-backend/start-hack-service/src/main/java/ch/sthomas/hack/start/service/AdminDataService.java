@@ -1,49 +1,178 @@
 package ch.sthomas.hack.start.service;
 
-import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+import ch.sthomas.hack.start.model.points.AdminArea;
+import ch.sthomas.hack.start.service.geo.fgb.FlatGeobufWriter;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionWriter;
+import ch.sthomas.hack.start.service.layer.AdminAreaLocator;
+import ch.sthomas.hack.start.service.layer.FeatureIndex;
+import ch.sthomas.hack.start.service.layer.FeatureLayerService;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.Tags;
+
+import jakarta.annotation.Nullable;
+
 import org.geotools.api.feature.simple.SimpleFeature;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class AdminDataService {
     private static final Logger logger = LoggerFactory.getLogger(AdminDataService.class);
+    private static final String DISTRICTS = "Assaba_Districts_layer";
+    private static final String REGIONS = "Assaba_Region_layer";
+
+    /** Bump when the written region files change for the same shapefiles. */
+    private static final String REGIONS_VERSION = "1";
+
     private final Path adminFolder;
     private final Path outputFolder;
     private final GeoService geoService;
+    private final IngestManifest ingestManifest;
     private final ObjectMapper objectMapper;
+    private final FeatureLayerService featureLayerService;
+    private final IngestMetrics ingestMetrics;
+
+    /** The features of the datasets, read once and replaced by {@link #loadAndSaveRegions}. */
+    private final Map<String, List<SimpleFeature>> datasets = new ConcurrentHashMap<>();
+
+    private final Map<String, AdminAreaLocator> locators = new ConcurrentHashMap<>();
 
     public AdminDataService(
             @Value("${ch.sthomas.hack.start.service.admin.folder}") final String adminFolder,
             @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
             final GeoService geoService,
-            final ObjectMapper objectMapper) {
+            final IngestManifest ingestManifest,
+            final ObjectMapper objectMapper,
+            final FeatureLayerService featureLayerService,
+            final IngestMetrics ingestMetrics) {
         this.adminFolder = Path.of(adminFolder);
         this.outputFolder = Path.of(outputFolder);
         this.geoService = geoService;
+        this.ingestManifest = ingestManifest;
         this.objectMapper = objectMapper;
+        this.featureLayerService = featureLayerService;
+        this.ingestMetrics = ingestMetrics;
     }
 
     public Collection<SimpleFeature> getDistricts() throws IOException {
-        return geoService.readShape(adminFolder, "Assaba_Districts_layer");
+        return dataset(DISTRICTS);
     }
 
     public Collection<SimpleFeature> getRegions() throws IOException {
-        return geoService.readShape(adminFolder, "Assaba_Region_layer");
+        return dataset(REGIONS);
+    }
+
+    /** The district containing the {@code (lon, lat)} coordinate, {@code null} if there is none. */
+    @Nullable
+    public AdminArea getDistrict(final Coordinate coordinate) throws IOException {
+        return locator(DISTRICTS, "ADM3_PCODE", "ADM3_EN").locate(coordinate);
+    }
+
+    /** The region containing the {@code (lon, lat)} coordinate, {@code null} if there is none. */
+    @Nullable
+    public AdminArea getRegion(final Coordinate coordinate) throws IOException {
+        return locator(REGIONS, "ADM2_PCODE", "ADM2_EN").locate(coordinate);
+    }
+
+    private List<SimpleFeature> dataset(final String datasetName) throws IOException {
+        try {
+            return datasets.computeIfAbsent(
+                    datasetName,
+                    name -> {
+                        try {
+                            return readDataset(name);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private List<SimpleFeature> readDataset(final String datasetName) throws IOException {
+        return List.copyOf(geoService.readShape(adminFolder, datasetName));
+    }
+
+    private AdminAreaLocator locator(
+            final String datasetName, final String codeAttribute, final String nameAttribute)
+            throws IOException {
+        final var locator = locators.get(datasetName);
+        if (locator != null) {
+            return locator;
+        }
+        final var areas = new LinkedHashMap<AdminArea, Geometry>();
+        for (final var feature : dataset(datasetName)) {
+            areas.put(
+                    new AdminArea(
+                            (String) feature.getAttribute(codeAttribute),
+                            (String) feature.getAttribute(nameAttribute)),
+                    (Geometry) feature.getDefaultGeometry());
+        }
+        final var built = new AdminAreaLocator(areas);
+        locators.put(datasetName, built);
+        return built;
+    }
+
+    /** The files of the district shapefile dataset. */
+    public List<Path> getDistrictFiles() throws IOException {
+        return datasetFiles(DISTRICTS);
+    }
+
+    private List<Path> datasetFiles(final String datasetName) throws IOException {
+        try (final var files = Files.list(adminFolder)) {
+            // The same files the shapefile parser picks up (.shp, .dbf, .shx, .prj, ...).
+            return files.filter(f -> f.getFileName().toString().contains(datasetName)).toList();
+        }
     }
 
     public void loadAndSaveRegions() throws IOException {
-        save(getDistricts(), "districts");
-        save(getRegions(), "regions");
+        loadAndSave(DISTRICTS, "districts");
+        loadAndSave(REGIONS, "regions");
+    }
+
+    /**
+     * Converts the shapefile dataset, unless it did not change since it was last converted, and
+     * indexes the converted file as the layer {@code collectionName}.
+     */
+    private void loadAndSave(final String datasetName, final String collectionName)
+            throws IOException {
+        final var features = readDataset(datasetName);
+        datasets.put(datasetName, features);
+        locators.remove(datasetName);
+        ingestMetrics.features(collectionName, Tags.empty(), features.size());
+
+        final var outputFile = outputFolder.resolve(collectionName + ".geojson");
+        final var fgbFile = FlatGeobufWriter.of(outputFile);
+        final var stamp = ingestManifest.stamp(REGIONS_VERSION, datasetFiles(datasetName));
+        if (ingestManifest.isUpToDate(outputFile, stamp)
+                && ingestManifest.isUpToDate(fgbFile, stamp)) {
+            logger.info("{} is up to date", outputFile);
+        } else {
+            save(features, collectionName);
+            ingestManifest.record(outputFile, stamp);
+            ingestManifest.record(fgbFile, stamp);
+            ingestManifest.flush();
+        }
+        featureLayerService.publish(collectionName, FeatureIndex.of(objectMapper, outputFile));
     }
 
     public void save(final Collection<SimpleFeature> simpleFeatures, final String collectionName)
@@ -52,7 +181,17 @@ public class AdminDataService {
         final var outputFile = outputFolder.resolve(collectionName + ".geojson");
         outputFile.toFile().getParentFile().mkdirs();
         logger.info("Saving features to {}", outputFile);
-        objectMapper.writeValue(
-                outputFile.toFile(), new BaseFeatureCollection().setFeatures(features));
+        ingestMetrics.time(
+                "serialize",
+                Tags.empty(),
+                () -> {
+                    try (final var writer = new FeatureCollectionWriter(objectMapper, outputFile)) {
+                        for (final var feature : features) {
+                            writer.write(feature);
+                        }
+                    }
+                    FlatGeobufWriter.write(objectMapper, FlatGeobufWriter.of(outputFile), features);
+                    return null;
+                });
     }
 }
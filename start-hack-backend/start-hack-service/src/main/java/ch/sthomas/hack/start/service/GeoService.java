@@ -6,37 +6,61 @@ import ch.sthomas.hack.start.model.util.MapCollectors;
 import ch.sthomas.hack.start.service.geo.GridCoverageService;
 import ch.sthomas.hack.start.service.geo.shapefile.ShapefileParser;
 import ch.sthomas.hack.start.service.geo.tif.TifParser;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
 import jakarta.annotation.Nullable;
 
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.locationtech.jts.geom.Geometry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import java.awt.image.DataBuffer;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
-public class GeoService {
+public class GeoService implements MeterBinder {
 
     private final ObjectMapper objectMapper;
 
-    private final Map<Path, GridCoverage2D> tifCache;
+    /** Decoded and warped rasters, weighted by their size in KiB. */
+    private final AsyncCache<Path, GridCoverage2D> tifCache;
+
     private final GridCoverageService gridCoverageService;
+    private final IngestMetrics ingestMetrics;
 
     public GeoService(
-            final ObjectMapper objectMapper, final GridCoverageService gridCoverageService) {
+            final ObjectMapper objectMapper,
+            final GridCoverageService gridCoverageService,
+            final IngestMetrics ingestMetrics,
+            @Value("${ch.sthomas.hack.start.service.tif-cache.max-size:2GB}")
+                    final DataSize tifCacheMaxSize) {
         this.objectMapper = objectMapper;
-        this.tifCache = new ConcurrentHashMap<>();
+        this.tifCache =
+                Caffeine.newBuilder()
+                        .maximumWeight(tifCacheMaxSize.toKilobytes())
+                        .weigher((final Path path, final GridCoverage2D tif) -> sizeInKiB(tif))
+                        .recordStats()
+                        .buildAsync();
         this.gridCoverageService = gridCoverageService;
+        this.ingestMetrics = ingestMetrics;
     }
 
     public BaseFeatureCollection getFeatureCollection(final Path path) throws IOException {
@@ -52,19 +76,77 @@ public class GeoService {
         return new TifParser(path).parse();
     }
 
+    /**
+     * Returns the raster warped to WGS84. Concurrent callers for the same path share one load, the
+     * loading caller reads the tif on its own thread.
+     */
     @Nullable
     public GridCoverage2D getTif(final Path path) throws IOException {
-        if (tifCache.containsKey(path)) {
-            return tifCache.get(path);
+        final var load = new CompletableFuture<GridCoverage2D>();
+        final var tif = tifCache.get(path, (p, executor) -> load);
+        if (tif == load) {
+            try {
+                load.complete(loadTif(path));
+            } catch (final IOException | RuntimeException e) {
+                load.completeExceptionally(e);
+            }
+        }
+        try {
+            return tif.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final IOException ioException) {
+                throw ioException;
+            }
+            throw e;
         }
-        return Optional.ofNullable(readTif(path))
-                .map(gridCoverageService::warpToWGS84)
-                .map(
-                        gc -> {
-                            tifCache.put(path, gc);
-                            return gc;
-                        })
-                .orElse(null);
+    }
+
+    /**
+     * Reads the raster and warps it to WGS84 without keeping it in the cache. Both are timed as the
+     * {@code parse} and {@code warp} stages, tagged with the product and year of the file name.
+     */
+    @Nullable
+    public GridCoverage2D loadTif(final Path path) throws IOException {
+        final var tags = ModisDataService.tagsOf(path);
+        final var tif = ingestMetrics.time("parse", tags, () -> readTif(path));
+        return tif == null
+                ? null
+                : ingestMetrics.time("warp", tags, () -> gridCoverageService.warpToWGS84(tif));
+    }
+
+    /** Drops the cached raster of the path, e.g. after the tif changed. */
+    public void invalidate(final Path path) {
+        tifCache.synchronous().invalidate(path);
+    }
+
+    private static int sizeInKiB(final GridCoverage2D tif) {
+        final var image = tif.getRenderedImage();
+        final var sampleModel = image.getSampleModel();
+        final var bytes =
+                (long) image.getWidth()
+                        * image.getHeight()
+                        * sampleModel.getNumBands()
+                        * DataBuffer.getDataTypeSize(sampleModel.getDataType())
+                        / Byte.SIZE;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / 1024));
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, tifCache.synchronous(), "tif");
+        Gauge.builder(
+                        "tif.cache.size",
+                        tifCache,
+                        cache ->
+                                cache.synchronous()
+                                                .policy()
+                                                .eviction()
+                                                .map(e -> e.weightedSize().orElse(0L))
+                                                .orElse(0L)
+                                        * 1024)
+                .description("Decoded raster bytes held by the tif cache")
+                .baseUnit("bytes")
+                .register(registry);
     }
 
     public BaseFeature toFeature(final SimpleFeature feature) {
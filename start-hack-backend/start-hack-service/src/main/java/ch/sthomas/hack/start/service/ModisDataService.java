@@ -6,24 +6,39 @@ import static java.time.ZoneOffset.UTC;
 
 import ch.sthomas.hack.start.model.feature.BaseFeature;
 import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+import ch.sthomas.hack.start.model.points.PointBatchData;
 import ch.sthomas.hack.start.model.points.PointData;
+import ch.sthomas.hack.start.model.points.PointDataResult;
 import ch.sthomas.hack.start.model.points.TimeLctStatData;
 import ch.sthomas.hack.start.model.points.TimeNumericStatData;
 import ch.sthomas.hack.start.model.points.TimeStatData;
 import ch.sthomas.hack.start.model.product.ModisProduct;
 import ch.sthomas.hack.start.model.util.MapCollectors;
 import ch.sthomas.hack.start.service.geo.GridCoverageService;
+import ch.sthomas.hack.start.service.geo.fgb.FlatGeobufWriter;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionReader;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionWriter;
+import ch.sthomas.hack.start.service.geo.stats.RasterStatistics;
+import ch.sthomas.hack.start.service.geo.store.RasterStore;
+import ch.sthomas.hack.start.service.geo.store.TimeCube;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.primitives.*;
+import com.pivovarit.function.ThrowingConsumer;
+import com.pivovarit.function.ThrowingFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
 
-import org.geotools.api.coverage.PointOutsideCoverageException;
-import org.geotools.api.geometry.Position;
-import org.geotools.api.referencing.FactoryException;
-import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.Position2D;
-import org.geotools.referencing.CRS;
+import org.geotools.coverage.util.CoverageUtilities;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
 import org.slf4j.Logger;
@@ -31,17 +46,27 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.awt.image.*;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -49,6 +74,25 @@ import java.util.stream.Stream;
 @Service
 public class ModisDataService {
     private static final Logger logger = LoggerFactory.getLogger(ModisDataService.class);
+
+    /** Bump when the written {@code <product>-<year>.geojson} layers change for the same tifs. */
+    private static final String GRIDS_VERSION = "2";
+
+    /**
+     * The zoom levels there is a simplified layer of every product year for, see {@link
+     * #gridFile(ModisProduct, int, int)}. Finer zoom levels get the full polygons.
+     */
+    public static final List<Integer> DETAIL_ZOOMS = List.of(4, 6, 8);
+
+    /** Bump when the written {@code aggregated-<product>.json} files change for the same tifs. */
+    private static final String AGGREGATED_VERSION = "2";
+
+    private static final Pattern LCT_FILE = Pattern.compile("(\\d{4})LCT\\.tif");
+    private static final Pattern GP_FILE = Pattern.compile("(\\d{4})_GP\\.tif");
+    private static final Pattern POPULATION_DENSITY_FILE =
+            Pattern.compile("Assaba_Pop_(\\d{4})\\.tif");
+    private static final Pattern CLIMATE_PRECIPITATION_FILE = Pattern.compile("(\\d{4})R\\.tif");
+
     private final Path modisLctFolder;
     private final Path modisGPFolder;
     private final Path populationDensityFolder;
@@ -56,8 +100,23 @@ public class ModisDataService {
     private final Path outputFolder;
     private final GeoService geoService;
     private final GridCoverageService gridCoverageService;
+    private final RasterStore rasterStore;
+    private final IngestPipeline ingestPipeline;
+    private final IngestManifest ingestManifest;
+    private final IngestMetrics ingestMetrics;
     private final ObjectMapper objectMapper;
-    private final CoordinateReferenceSystem wgs84;
+    @Nullable private volatile SortedSet<Integer> years;
+    private final AtomicLong yearsVersion = new AtomicLong();
+    private final Duration pointDeadline;
+
+    /** The largest layer the detail levels are simplified from as one coverage. */
+    private final long detailMaxFeatures;
+
+    /** Evaluates the products of a point concurrently, one virtual thread per product. */
+    private final ExecutorService pointExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Map<ModisProduct, Timer> pointTimers = new EnumMap<>(ModisProduct.class);
+    private final Map<ModisProduct, Counter> pointMissing = new EnumMap<>(ModisProduct.class);
 
     public ModisDataService(
             @Value("${ch.sthomas.hack.start.service.modis-lct.folder}") final String modisLctFolder,
@@ -67,10 +126,18 @@ public class ModisDataService {
             @Value("${ch.sthomas.hack.start.service.climate-precipitation.folder}")
                     final String climatePrecipitationFolder,
             @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
+            @Value("${ch.sthomas.hack.start.service.point.deadline:2s}")
+                    final Duration pointDeadline,
+            @Value("${ch.sthomas.hack.start.service.grid-details.max-features:500000}")
+                    final long detailMaxFeatures,
             final GeoService geoService,
             final GridCoverageService gridCoverageService,
-            final ObjectMapper objectMapper)
-            throws FactoryException {
+            final RasterStore rasterStore,
+            final IngestPipeline ingestPipeline,
+            final IngestManifest ingestManifest,
+            final IngestMetrics ingestMetrics,
+            final MeterRegistry meterRegistry,
+            final ObjectMapper objectMapper) {
         this.geoService = geoService;
         this.outputFolder = Paths.get(outputFolder);
         this.modisLctFolder = Path.of(modisLctFolder);
@@ -78,18 +145,82 @@ public class ModisDataService {
         this.populationDensityFolder = Path.of(populationDensityFolder);
         this.climatePrecipitationFolder = Path.of(climatePrecipitationFolder);
         this.gridCoverageService = gridCoverageService;
+        this.rasterStore = rasterStore;
+        this.ingestPipeline = ingestPipeline;
+        this.ingestManifest = ingestManifest;
         this.objectMapper = objectMapper;
-        wgs84 = CRS.decode("EPSG:4326");
+        this.pointDeadline = pointDeadline;
+        this.detailMaxFeatures = detailMaxFeatures;
+        this.ingestMetrics = ingestMetrics;
+        for (final var product : values()) {
+            pointTimers.put(
+                    product,
+                    Timer.builder("point.data.product")
+                            .description("Time to evaluate a product at a point")
+                            .tag("product", product.name())
+                            .publishPercentileHistogram()
+                            .maximumExpectedValue(Duration.ofSeconds(30))
+                            .register(meterRegistry));
+            pointMissing.put(
+                    product,
+                    Counter.builder("point.data.missing")
+                            .description("Point responses without the product")
+                            .tag("product", product.name())
+                            .register(meterRegistry));
+        }
     }
 
-    public void loadAndSaveData() {
-        for (final var value : values()) {
-            logger.info("Loading data for product {}", value);
-            loadAndSaveData(value);
-        }
+    /** Polygonizes and saves every year of every product, the years concurrently. */
+    public IngestPipeline.Report loadAndSaveData() {
+        return saveDataBatch(
+                "MODIS grids", Arrays.stream(values()).flatMap(this::saveDataUnits).toList());
+    }
+
+    /** Runs the units and saves what they recorded in the ingest manifest, once for the batch. */
+    private IngestPipeline.Report saveDataBatch(
+            final String batch, final List<IngestPipeline.Unit> units) {
+        final var report = ingestPipeline.run(batch, units);
+        ingestManifest.flush();
+        return report;
+    }
+
+    private Stream<IngestPipeline.Unit> saveDataUnits(final ModisProduct product) {
+        return existingYearTifs(product).map(e -> saveDataUnit(product, e.getKey(), e.getValue()));
+    }
+
+    private IngestPipeline.Unit saveDataUnit(
+            final ModisProduct product, final int year, final Path tif) {
+        return new IngestPipeline.Unit(
+                product + " " + year,
+                () -> {
+                    final var outputFiles = gridFiles(product, year);
+                    final var stamp = ingestManifest.stamp(GRIDS_VERSION, List.of(tif));
+                    if (isUpToDate(outputFiles, stamp)) {
+                        logger.debug("{} is up to date", outputFiles.getFirst());
+                        return;
+                    }
+                    final var grid =
+                            ingestPipeline.cpu(
+                                    () ->
+                                            ingestMetrics.time(
+                                                    "load",
+                                                    IngestMetrics.tags(product, year),
+                                                    () -> geoService.getTif(tif)));
+                    if (grid != null) {
+                        ingestPipeline.cpu(
+                                () -> {
+                                    saveData(product, year, grid);
+                                    return null;
+                                });
+                        for (final var outputFile : outputFiles) {
+                            ingestManifest.record(outputFile, stamp);
+                        }
+                    }
+                });
     }
 
-    private Path getPath(final ModisProduct product) {
+    /** The folder the tifs of the product are read from. */
+    public Path getPath(final ModisProduct product) {
         return switch (product) {
             case LCT -> modisLctFolder;
             case GP, GP_SIMPLIFIED -> modisGPFolder;
@@ -108,122 +239,544 @@ public class ModisDataService {
                 };
     }
 
+    private static Pattern yearPattern(final ModisProduct product) {
+        return switch (product) {
+            case LCT -> LCT_FILE;
+            case GP, GP_SIMPLIFIED -> GP_FILE;
+            case POPULATION_DENSITY -> POPULATION_DENSITY_FILE;
+            case CLIMATE_PRECIPITATION -> CLIMATE_PRECIPITATION_FILE;
+        };
+    }
+
+    /** The year of a tif of the product, empty if the file name is not one of the product. */
+    public static OptionalInt yearOf(final ModisProduct product, final Path tif) {
+        final var matcher = yearPattern(product).matcher(tif.getFileName().toString());
+        return matcher.matches()
+                ? OptionalInt.of(Integer.parseInt(matcher.group(1)))
+                : OptionalInt.empty();
+    }
+
+    /**
+     * The ingest stage tags of a tif, those of the first product whose file name it has. Empty if
+     * it is not the tif of a product.
+     */
+    public static Tags tagsOf(final Path tif) {
+        for (final var product : values()) {
+            final var year = yearOf(product, tif);
+            if (year.isPresent()) {
+                return IngestMetrics.tags(product, year.getAsInt());
+            }
+        }
+        return Tags.empty();
+    }
+
+    /** The years there is a tif of any product for, as of the last {@link #refreshYears()}. */
     public IntStream dataYearsStream() {
-        return IntStream.range(2000, 2024);
+        final var current = years;
+        return (current == null ? refreshYears() : current).stream().mapToInt(Integer::intValue);
+    }
+
+    /** Scans the product folders for the years there is data for. */
+    public SortedSet<Integer> refreshYears() {
+        final var found = new TreeSet<Integer>();
+        for (final var product : values()) {
+            final var folder = getPath(product);
+            if (!Files.isDirectory(folder)) {
+                continue;
+            }
+            try (final var files = Files.list(folder)) {
+                files.forEach(file -> yearOf(product, file).ifPresent(found::add));
+            } catch (final IOException e) {
+                logger.warn("Could not list {}", folder, e);
+            }
+        }
+        final var result = Collections.unmodifiableSortedSet(found);
+        if (!result.equals(years)) {
+            logger.info("Found data for the years {}", result);
+            yearsVersion.incrementAndGet();
+        }
+        years = result;
+        return result;
     }
 
     public Map<Integer, GridCoverage2D> loadYearsRaster(final ModisProduct product) {
-        final var path = getPath(product);
-        final var productPathFilename = productPathFilename(product);
-        return dataYearsStream()
-                .<Optional<Map.Entry<Integer, GridCoverage2D>>>mapToObj(
-                        year -> {
-                            try {
-                                final var filename = productPathFilename.apply(year);
-                                final var productPath = path.resolve(filename);
-                                return Optional.ofNullable(geoService.getTif(productPath))
-                                        .map(t -> Map.entry(year, t));
-                            } catch (final IOException e) {
-                                return Optional.empty();
-                            }
-                        })
-                .flatMap(Optional::stream)
-                .collect(MapCollectors.entriesToMap());
+        return loadYearsRaster(product, year -> true);
+    }
+
+    /** Loads only the years accepted by the filter. */
+    public Map<Integer, GridCoverage2D> loadYearsRaster(
+            final ModisProduct product, final IntPredicate years) {
+        return mapYears(product, years, grid -> grid);
     }
 
     public Map<Integer, BaseFeatureCollection> loadYears(final ModisProduct product) {
-        final var path = getPath(product);
-        final var productPathFilename = productPathFilename(product);
         final var gdalToFeature = gdalToFeature(product);
-        return dataYearsStream()
-                .<Optional<Map.Entry<Integer, BaseFeatureCollection>>>mapToObj(
-                        year -> {
-                            try {
-                                final var filename = productPathFilename.apply(year);
-                                final var productPath = path.resolve(filename);
-                                return Optional.ofNullable(geoService.getTif(productPath))
-                                        .map(gridCoverageService.simplifyGrid(product))
-                                        .map(gridCoverageService::vectorize)
-                                        .map(gdalToFeature)
-                                        .map(f -> product.invert() ? invertCoords(f) : f)
-                                        .map(features -> Map.entry(year, features));
-                            } catch (final IOException e) {
-                                logger.info("Could not read Tif file and contour", e);
-                                return Optional.empty();
+        return mapYears(
+                product,
+                year -> true,
+                grid ->
+                        Optional.of(grid)
+                                .map(gridCoverageService.simplifyGrid(product))
+                                .map(gridCoverageService::vectorize)
+                                .map(gdalToFeature)
+                                .map(f -> product.invert() ? invertCoords(f) : f)
+                                .orElseThrow());
+    }
+
+    /**
+     * Loads the existing years of the product concurrently and maps them. Years that cannot be read
+     * are reported by the pipeline and left out.
+     */
+    private <T> Map<Integer, T> mapYears(
+            final ModisProduct product,
+            final IntPredicate years,
+            final ThrowingFunction<GridCoverage2D, T, IOException> mapping) {
+        final var results = new ConcurrentHashMap<Integer, T>();
+        ingestPipeline.run(
+                product.name(),
+                existingYearTifs(product)
+                        .filter(e -> years.test(e.getKey()))
+                        .map(e -> mapYearUnit(product, e.getKey(), e.getValue(), mapping, results))
+                        .toList());
+        return Map.copyOf(results);
+    }
+
+    private <T> IngestPipeline.Unit mapYearUnit(
+            final ModisProduct product,
+            final int year,
+            final Path tif,
+            final ThrowingFunction<GridCoverage2D, T, IOException> mapping,
+            final Map<Integer, T> results) {
+        return new IngestPipeline.Unit(
+                product + " " + year,
+                () ->
+                        ingestPipeline.cpu(
+                                () -> {
+                                    final var grid = geoService.getTif(tif);
+                                    return grid == null
+                                            ? null
+                                            : results.put(year, mapping.apply(grid));
+                                }));
+    }
+
+    /**
+     * Polygonizes every year of the product and streams the features through the product mapping
+     * and the axis flip straight into the GeoJSON file, without collecting them first.
+     */
+    public IngestPipeline.Report loadAndSaveData(final ModisProduct product) {
+        return saveDataBatch(product.name(), saveDataUnits(product).toList());
+    }
+
+    /** The polygonized GeoJSON of the product for the year, which may not exist yet. */
+    public Path gridFile(final ModisProduct product, final int year) {
+        return outputFolder.resolve(product.name().toLowerCase() + "-" + year + ".geojson");
+    }
+
+    /**
+     * The polygonized GeoJSON of the product for the year to display at the zoom level: up to the
+     * last of the {@link #DETAIL_ZOOMS} the layer simplified for the next detail zoom, above it the
+     * full polygons of {@link #gridFile(ModisProduct, int)}. None of them may exist yet.
+     */
+    public Path gridFile(final ModisProduct product, final int year, final int zoom) {
+        return DETAIL_ZOOMS.stream()
+                .filter(detailZoom -> zoom <= detailZoom)
+                .findFirst()
+                .map(detailZoom -> detailFile(product, year, detailZoom))
+                .orElseGet(() -> gridFile(product, year));
+    }
+
+    private Path detailFile(final ModisProduct product, final int year, final int zoom) {
+        return outputFolder.resolve(
+                product.name().toLowerCase() + "-" + year + "-z" + zoom + ".geojson");
+    }
+
+    /**
+     * The full layer of the product year followed by its simplified detail levels, each as GeoJSON
+     * and as FlatGeobuf.
+     */
+    private List<Path> gridFiles(final ModisProduct product, final int year) {
+        return Stream.concat(
+                        Stream.of(gridFile(product, year)),
+                        DETAIL_ZOOMS.stream().map(zoom -> detailFile(product, year, zoom)))
+                .flatMap(file -> Stream.of(file, FlatGeobufWriter.of(file)))
+                .toList();
+    }
+
+    private boolean isUpToDate(final List<Path> outputFiles, final IngestManifest.Artifact stamp)
+            throws IOException {
+        for (final var outputFile : outputFiles) {
+            if (!ingestManifest.isUpToDate(outputFile, stamp)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The simplification tolerance in degrees of a zoom level, the width of a pixel of a 256 pixel
+     * web mercator tile at the equator.
+     */
+    static double detailTolerance(final int zoom) {
+        return 360.0 / (256L << zoom);
+    }
+
+    /**
+     * Writes the full layer while it is polygonized, then the detail levels from the finest to the
+     * coarsest, each one simplified from the previous one. The features are not kept while
+     * polygonizing: the finest detail level is simplified from the written layer. Simplifying a
+     * layer as one coverage needs all of its polygons at once, so layers of up to {@link
+     * #detailMaxFeatures} features are read back for it. Larger layers are simplified feature by
+     * feature from file to file, in constant memory but without shared edges kept matching.
+     */
+    private void saveData(final ModisProduct product, final int year, final GridCoverage2D grid)
+            throws IOException {
+        Files.createDirectories(outputFolder);
+        final var tags = IngestMetrics.tags(product, year);
+        final var outputFile = gridFile(product, year);
+        // Polygonizing, flipping and writing are interleaved, the latter two are summed up.
+        final var invertNanos = new long[1];
+        final var serializeNanos = new long[1];
+        final var start = System.nanoTime();
+        final long count;
+        long polygonized;
+        try (final var writer = new FeatureCollectionWriter(objectMapper, outputFile);
+                final var fgb =
+                        new FlatGeobufWriter(objectMapper, FlatGeobufWriter.of(outputFile))) {
+            gridCoverageService.polygons(
+                    gridCoverageService.simplifyGrid(product).apply(grid),
+                    ThrowingConsumer.unchecked(
+                            feature -> {
+                                if (!product.include().test(feature)) {
+                                    return;
+                                }
+                                final var mapped = product.map(feature);
+                                final var invertStart = System.nanoTime();
+                                final var out =
+                                        product.invert()
+                                                ? invertCoordsAndFilterSmall(mapped)
+                                                : mapped;
+                                final var writeStart = System.nanoTime();
+                                invertNanos[0] += writeStart - invertStart;
+                                if (out != null) {
+                                    writer.write(out);
+                                    fgb.write(out);
+                                }
+                                serializeNanos[0] += System.nanoTime() - writeStart;
+                            }));
+            polygonized = System.nanoTime();
+            count = writer.getCount();
+            logger.debug("Saved {} vectors to {}", count, outputFile.toAbsolutePath());
+        }
+        // Closing the writers finishes the files, the FlatGeobuf is only written then.
+        ingestMetrics.record(
+                "serialize", tags, serializeNanos[0] + System.nanoTime() - polygonized);
+        ingestMetrics.record("invert", tags, invertNanos[0]);
+        ingestMetrics.record(
+                "polygonize", tags, polygonized - start - invertNanos[0] - serializeNanos[0]);
+        ingestMetrics.features("grid", tags, count);
+        if (count > detailMaxFeatures) {
+            logger.info(
+                    "{} has {} features, simplifying its detail levels feature by feature",
+                    outputFile.getFileName(),
+                    count);
+            saveDetailsByFeature(product, year, tags);
+        } else {
+            saveDetailsAsCoverage(product, year, tags);
+        }
+    }
+
+    private void saveDetailsAsCoverage(final ModisProduct product, final int year, final Tags tags)
+            throws IOException {
+        final var features = new ArrayList<BaseFeature>();
+        new FeatureCollectionReader(objectMapper, 1).read(gridFile(product, year), features::add);
+        var level = new BaseFeatureCollection().setFeatures(features);
+        for (final var zoom : DETAIL_ZOOMS.reversed()) {
+            final var levelStart = System.nanoTime();
+            final var simplified = level;
+            level =
+                    ingestMetrics.time(
+                            "simplify",
+                            tags,
+                            () -> GridCoverageService.simplify(simplified, detailTolerance(zoom)));
+            final var detailFile = detailFile(product, year, zoom);
+            final var detail = level.getFeatures();
+            ingestMetrics.time(
+                    "serialize",
+                    tags,
+                    () -> {
+                        try (final var writer =
+                                new FeatureCollectionWriter(objectMapper, detailFile)) {
+                            for (final var feature : detail) {
+                                writer.write(feature);
                             }
-                        })
-                .flatMap(Optional::stream)
-                .collect(MapCollectors.entriesToMap());
+                        }
+                        FlatGeobufWriter.write(
+                                objectMapper, FlatGeobufWriter.of(detailFile), detail);
+                        return null;
+                    });
+            ingestMetrics.features("grid-z" + zoom, tags, detail.size());
+            logger.debug(
+                    "Saved {} vectors to {} in {} ms.",
+                    detail.size(),
+                    detailFile.toAbsolutePath(),
+                    (System.nanoTime() - levelStart) / 1_000_000);
+        }
     }
 
-    public void loadAndSaveData(final ModisProduct product) {
-        final var years = loadYears(product);
-        logger.info("Saving data for product {} at years {}", product, years.keySet());
-        years.forEach(
-                (year, vectors) -> {
-                    final var outputFileName =
-                            product.name().toLowerCase() + "-" + year + ".geojson";
-                    final var outputFile = outputFolder.resolve(outputFileName).toFile();
-                    outputFile.getParentFile().mkdirs();
-                    try {
-                        objectMapper.writeValue(outputFile, vectors);
-                        logger.debug("Saved vectors to {}", outputFile.toPath().toAbsolutePath());
-                    } catch (final IOException e) {
-                        logger.info(e.getMessage());
-                    }
-                });
+    private void saveDetailsByFeature(final ModisProduct product, final int year, final Tags tags)
+            throws IOException {
+        final var reader = new FeatureCollectionReader(objectMapper, 1);
+        var source = gridFile(product, year);
+        for (final var zoom : DETAIL_ZOOMS.reversed()) {
+            final var levelStart = System.nanoTime();
+            final var tolerance = detailTolerance(zoom);
+            final var detailFile = detailFile(product, year, zoom);
+            final var simplifyNanos = new long[1];
+            final long count;
+            try (final var writer = new FeatureCollectionWriter(objectMapper, detailFile);
+                    final var fgb =
+                            new FlatGeobufWriter(objectMapper, FlatGeobufWriter.of(detailFile))) {
+                reader.read(
+                        source,
+                        ThrowingConsumer.unchecked(
+                                feature -> {
+                                    final var simplifyStart = System.nanoTime();
+                                    final var simplified =
+                                            GridCoverageService.simplify(feature, tolerance);
+                                    simplifyNanos[0] += System.nanoTime() - simplifyStart;
+                                    if (simplified != null) {
+                                        writer.write(simplified);
+                                        fgb.write(simplified);
+                                    }
+                                }));
+                count = writer.getCount();
+            }
+            final var levelNanos = System.nanoTime() - levelStart;
+            ingestMetrics.record("simplify", tags, simplifyNanos[0]);
+            ingestMetrics.record("serialize", tags, levelNanos - simplifyNanos[0]);
+            ingestMetrics.features("grid-z" + zoom, tags, count);
+            logger.debug(
+                    "Saved {} vectors to {} in {} ms.",
+                    count,
+                    detailFile.toAbsolutePath(),
+                    levelNanos / 1_000_000);
+            source = detailFile;
+        }
+    }
+
+    private String cubeName(final ModisProduct product) {
+        return switch (product) {
+            case GP, GP_SIMPLIFIED -> "gp";
+            default -> product.name().toLowerCase();
+        };
+    }
+
+    private SortedMap<Integer, Path> yearTifs(final ModisProduct product) {
+        return dataYearsStream()
+                .boxed()
+                .collect(
+                        Collectors.toMap(
+                                Function.identity(),
+                                year -> yearTif(product, year),
+                                (a, b) -> a,
+                                TreeMap::new));
+    }
+
+    /** The tif of the product for the year, which may not exist. */
+    public Path yearTif(final ModisProduct product, final int year) {
+        return getPath(product).resolve(productPathFilename(product).apply(year));
+    }
+
+    /** The existing tifs of the product, by year. */
+    public List<Path> tifs(final ModisProduct product) {
+        return existingYearTifs(product).map(Map.Entry::getValue).toList();
+    }
+
+    private Stream<Map.Entry<Integer, Path>> existingYearTifs(final ModisProduct product) {
+        return yearTifs(product).entrySet().stream().filter(e -> Files.exists(e.getValue()));
+    }
+
+    /**
+     * Brings one year of the product up to date after its tif was added, changed or removed: the
+     * cached raster, the time cube, the GeoJSON layer and the aggregated file. Point queries keep
+     * being served from the previous cube until the new one is in place.
+     */
+    public void reingest(final ModisProduct product, final int year) throws IOException {
+        final var tif = yearTif(product, year);
+        geoService.invalidate(tif);
+        refreshYears();
+        rasterStore.updateCube(cubeName(product), yearTifs(product));
+        if (Files.exists(tif)) {
+            saveDataBatch(product + " " + year, List.of(saveDataUnit(product, year, tif)));
+        } else {
+            var removed = false;
+            for (final var file : gridFiles(product, year)) {
+                removed |= Files.deleteIfExists(file);
+            }
+            if (removed) {
+                logger.info("Removed {} of {}, its tif is gone", year, product);
+            }
+        }
+        loadSpacialAggregatedData(product);
+    }
+
+    /**
+     * Converts the tifs of all products and years into the raster store and updates the time cubes
+     * used for points with the years that changed.
+     */
+    public void storeRasters() {
+        for (final var product : values()) {
+            try {
+                rasterStore.updateCube(cubeName(product), yearTifs(product));
+            } catch (final IOException e) {
+                logger.warn("Could not store rasters of {}", product, e);
+            }
+        }
+    }
+
+    /** The time cube of the product, {@code null} if none of its tifs can be read. */
+    @Nullable
+    public TimeCube getCube(final ModisProduct product) {
+        try {
+            return rasterStore.getCube(cubeName(product), yearTifs(product));
+        } catch (final IOException e) {
+            logger.info("Could not load time cube of {}", product, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static int[] toGrid(
+            final TimeCube cube, final ModisProduct product, final Coordinate coordinate) {
+        return product.invert()
+                ? cube.toGrid(coordinate.y, coordinate.x)
+                : cube.toGrid(coordinate.x, coordinate.y);
     }
 
     private Stream<PointData<Object>> getPointData(
-            final ModisProduct product, final Position point) {
-        final var path = getPath(product);
-        final var productPathFilename = productPathFilename(product);
+            final ModisProduct product, final Coordinate coordinate) {
+        final var cube = getCube(product);
+        if (cube == null) {
+            return Stream.empty();
+        }
+        final var pixel = toGrid(cube, product, coordinate);
         return dataYearsStream()
-                .<Optional<PointData<Object>>>mapToObj(
-                        year -> {
-                            try {
-                                final var filename = productPathFilename.apply(year);
-                                final var productPath = path.resolve(filename);
-                                return Optional.ofNullable(geoService.getTif(productPath))
-                                        .map(
-                                                g -> {
-                                                    try {
-                                                        if (product.invert()) {
-                                                            final var tmp = point.getOrdinate(0);
-                                                            point.setOrdinate(
-                                                                    0, point.getOrdinate(1));
-                                                            point.setOrdinate(1, tmp);
-                                                        }
-                                                        final var rawVal =
-                                                                product.mapPointEval()
-                                                                        .apply(g.evaluate(point));
-                                                        if (product == LCT) {
-                                                            if ((int) rawVal > 0) {
-                                                                return getLandUseFromKey(
-                                                                        (int) rawVal);
-                                                            } else {
-                                                                return Optional.empty();
-                                                            }
-                                                        }
-                                                        return rawVal;
-                                                    } catch (
-                                                            final PointOutsideCoverageException e) {
-                                                        logger.trace(
-                                                                "Could not load point {}",
-                                                                point,
-                                                                e);
-                                                        return Optional.empty();
-                                                    }
-                                                })
-                                        .map(
-                                                d ->
-                                                        new PointData<>(
-                                                                instantFromYear(year), product, d));
-                            } catch (IOException e) {
-                                return Optional.empty();
-                            }
-                        })
-                .flatMap(Optional::stream);
+                .filter(cube::hasYear)
+                .mapToObj(
+                        year ->
+                                new PointData<>(
+                                        instantFromYear(year),
+                                        product,
+                                        pointValue(
+                                                product,
+                                                pixel == null
+                                                        ? null
+                                                        : cube.evaluate(
+                                                                pixel[0], pixel[1], year))));
+    }
+
+    /**
+     * Evaluates many points at once, the products concurrently on the point executor. Per product
+     * the points are visited in the memory order of the time cube, and points in the same pixel are
+     * read once.
+     */
+    public PointBatchData getPointData(
+            final List<Coordinate> coordinates,
+            final Set<ModisProduct> products,
+            final int fromYear,
+            final int toYear) {
+        final var years =
+                dataYearsStream().filter(y -> y >= fromYear && y <= toYear).boxed().toList();
+        final var futures = new EnumMap<ModisProduct, Future<Object[][]>>(ModisProduct.class);
+        for (final var product : products) {
+            futures.put(
+                    product, pointExecutor.submit(() -> getPointData(product, coordinates, years)));
+        }
+        final var values = new EnumMap<ModisProduct, Object[][]>(ModisProduct.class);
+        try {
+            for (final var future : futures.entrySet()) {
+                values.put(future.getKey(), future.getValue().get());
+            }
+        } catch (final ExecutionException e) {
+            futures.forEach(this::cancelUnlessBuilding);
+            throw e.getCause() instanceof final RuntimeException runtimeException
+                    ? runtimeException
+                    : new IllegalStateException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(this::cancelUnlessBuilding);
+            throw new IllegalStateException("Interrupted while evaluating points", e);
+        }
+        return new PointBatchData(years, values);
+    }
+
+    private Object[][] getPointData(
+            final ModisProduct product,
+            final List<Coordinate> coordinates,
+            final List<Integer> years) {
+        final var values = new Object[years.size()][coordinates.size()];
+        final var cube = getCube(product);
+        if (cube == null) {
+            return values;
+        }
+        final var pixels =
+                coordinates.stream().map(c -> toGrid(cube, product, c)).toArray(int[][]::new);
+        final var order =
+                IntStream.range(0, pixels.length)
+                        .filter(i -> pixels[i] != null)
+                        .boxed()
+                        .sorted(
+                                Comparator.<Integer>comparingInt(i -> pixels[i][1])
+                                        .thenComparingInt(i -> pixels[i][0]))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+        var previous = -1;
+        for (final var point : order) {
+            if (previous >= 0 && Arrays.equals(pixels[previous], pixels[point])) {
+                for (final var column : values) {
+                    column[point] = column[previous];
+                }
+                continue;
+            }
+            for (var i = 0; i < years.size(); i++) {
+                final int year = years.get(i);
+                if (cube.hasYear(year)) {
+                    values[i][point] =
+                            batchValue(
+                                    product,
+                                    cube.evaluate(pixels[point][0], pixels[point][1], year));
+                }
+            }
+            previous = point;
+        }
+        return values;
+    }
+
+    /** Like {@link #pointValue}, but {@code null} instead of empty and plain numbers. */
+    @Nullable
+    private Object batchValue(final ModisProduct product, final Object value) {
+        return switch (pointValue(product, value)) {
+            case final Optional<?> optional when optional.isEmpty() -> null;
+            case final Optional<?> optional -> optional.get();
+            case final float[] floats -> floats[0];
+            case final double[] doubles -> doubles[0];
+            case final Object other -> other;
+        };
+    }
+
+    private Object pointValue(final ModisProduct product, @Nullable final Object value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        final var rawVal = product.mapPointEval().apply(value);
+        if (product == LCT) {
+            if ((int) rawVal > 0) {
+                return getLandUseFromKey((int) rawVal);
+            } else {
+                return Optional.empty();
+            }
+        }
+        return rawVal;
     }
 
     private Instant instantFromYear(final int year) {
@@ -303,21 +856,120 @@ public class ModisDataService {
         return new LinearRing(new PackedCoordinateSequence.Double(coords), ring.getFactory());
     }
 
-    public List<PointData<Object>> getPointData(final Coordinate coordinate) {
-        return Arrays.stream(ModisProduct.values())
-                .flatMap(p -> getPointData(p, new Position2D(wgs84, coordinate.x, coordinate.y)))
-                .toList();
+    /**
+     * Grows whenever the point data may have changed, i.e. a time cube was updated or the data
+     * years changed.
+     */
+    public long getDataVersion() {
+        return rasterStore.getVersion() + yearsVersion.get();
+    }
+
+    /**
+     * The pixel of the coordinate in the time cube of every product, in product order, as {@code y
+     * * width + x}. -1 if the product has no tifs or the coordinate is outside of the cube.
+     * Coordinates with the same pixels have the same {@link #getPointData(Coordinate) point data}.
+     * Never builds a cube, {@code null} if a cube was not built yet.
+     */
+    @Nullable
+    public long[] getPixels(final Coordinate coordinate) {
+        final var products = ModisProduct.values();
+        final var pixels = new long[products.length];
+        for (var i = 0; i < products.length; i++) {
+            final var cube = rasterStore.getLoadedCube(cubeName(products[i]));
+            if (cube == null && !tifs(products[i]).isEmpty()) {
+                // Not built yet, the pixels are unknown until it is. Products without tifs never
+                // get a cube and share the -1 pixel.
+                return null;
+            }
+            final var pixel = cube == null ? null : toGrid(cube, products[i], coordinate);
+            pixels[i] = pixel == null ? -1 : (long) pixel[1] * cube.getWidth() + pixel[0];
+        }
+        return pixels;
+    }
+
+    /**
+     * Evaluates the products concurrently and returns what is done by the deadline ({@code
+     * point.deadline}). Products that are not done are cancelled, unless their cube was not built
+     * yet: a cube built for the first time is left running, so a later request finds it ready.
+     */
+    public PointDataResult getPointData(final Coordinate coordinate) {
+        final var products = ModisProduct.values();
+        final var futures = new ArrayList<Future<List<PointData<Object>>>>(products.length);
+        for (final var product : products) {
+            final var timer = pointTimers.get(product);
+            futures.add(
+                    pointExecutor.submit(
+                            () ->
+                                    timer.recordCallable(
+                                            () -> getPointData(product, coordinate).toList())));
+        }
+        final var deadline = System.nanoTime() + pointDeadline.toNanos();
+        final var data = new ArrayList<PointData<Object>>();
+        final var missing = EnumSet.noneOf(ModisProduct.class);
+        for (var i = 0; i < products.length; i++) {
+            try {
+                data.addAll(
+                        futures.get(i)
+                                .get(
+                                        Math.max(0, deadline - System.nanoTime()),
+                                        TimeUnit.NANOSECONDS));
+            } catch (final TimeoutException e) {
+                cancelUnlessBuilding(products[i], futures.get(i));
+                missing.add(products[i]);
+            } catch (final ExecutionException e) {
+                logger.warn("Could not evaluate {} at {}", products[i], coordinate, e.getCause());
+                missing.add(products[i]);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (var j = i; j < products.length; j++) {
+                    cancelUnlessBuilding(products[j], futures.get(j));
+                }
+                missing.addAll(Arrays.asList(products).subList(i, products.length));
+                break;
+            }
+        }
+        if (!missing.isEmpty()) {
+            missing.forEach(product -> pointMissing.get(product).increment());
+            logger.info("Point data at {} is missing {} after the deadline", coordinate, missing);
+        }
+        return new PointDataResult(data, missing);
+    }
+
+    /** Cancels the evaluation of the product, unless it may still be building its cube. */
+    private void cancelUnlessBuilding(final ModisProduct product, final Future<?> future) {
+        if (rasterStore.getLoadedCube(cubeName(product)) != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Interrupts the point evaluations still running. An interrupted cube build never replaces the
+     * cube file, it is built again when the cube is next needed.
+     */
+    @PreDestroy
+    public void close() {
+        pointExecutor.shutdownNow();
     }
 
     public void loadSpacialAggregatedData() throws IOException {
         for (final var product : ModisProduct.values()) {
-            final var result = product == LCT ? countLctLandUses() : getTimeData(product);
-            objectMapper.writeValue(
-                    outputFolder
-                            .resolve("aggregated-" + product.name().toLowerCase() + ".json")
-                            .toFile(),
-                    result);
+            loadSpacialAggregatedData(product);
+        }
+    }
+
+    private void loadSpacialAggregatedData(final ModisProduct product) throws IOException {
+        final var outputFile =
+                outputFolder.resolve("aggregated-" + product.name().toLowerCase() + ".json");
+        final var stamp = ingestManifest.stamp(AGGREGATED_VERSION, tifs(product));
+        if (ingestManifest.isUpToDate(outputFile, stamp)) {
+            logger.debug("{} is up to date", outputFile);
+            return;
         }
+        final var result = product == LCT ? countLctLandUses() : getTimeData(product);
+        Files.createDirectories(outputFolder);
+        objectMapper.writeValue(outputFile.toFile(), result);
+        ingestManifest.record(outputFile, stamp);
+        ingestManifest.flush();
     }
 
     private Map<Integer, TimeStatData> countLctLandUses() {
@@ -328,20 +980,16 @@ public class ModisDataService {
     }
 
     private TimeLctStatData countLctLandUses(final GridCoverage2D grid) {
-        final var buf = (DataBufferByte) grid.getRenderedImage().getData().getDataBuffer();
-        final var countsPerInt =
-                Bytes.asList(buf.getData()).stream()
-                        .map(Byte::intValue)
-                        .collect(Collectors.toMap(Function.identity(), e -> 1, Integer::sum));
-        return new TimeLctStatData(
-                countsPerInt.entrySet().stream()
-                        .filter(e -> e.getKey() > 0)
-                        .map(
-                                entry ->
-                                        Map.entry(
-                                                getLandUseFromKey(entry.getKey()),
-                                                entry.getValue()))
-                        .collect(MapCollectors.entriesToMap()));
+        final var histogram = RasterStatistics.histogram(grid.getRenderedImage(), 0, noData(grid));
+        final var frequencies = new HashMap<String, Integer>();
+        // Land use keys are read as signed bytes, like ModisProduct.LCT maps evaluated samples.
+        for (var key = 1; key <= Byte.MAX_VALUE; key++) {
+            if (histogram[key] > 0) {
+                frequencies.merge(
+                        getLandUseFromKey(key), Math.toIntExact(histogram[key]), Integer::sum);
+            }
+        }
+        return new TimeLctStatData(Map.copyOf(frequencies));
     }
 
     private Map<Integer, TimeNumericStatData> getTimeData(final ModisProduct product) {
@@ -357,22 +1005,19 @@ public class ModisDataService {
     }
 
     private TimeNumericStatData aggregateSpace(final GridCoverage2D grid) {
-        final var dataBuffer = grid.getRenderedImage().getData().getDataBuffer();
-        final var stats =
-                (switch (dataBuffer) {
-                            case final DataBufferFloat f -> Floats.asList(f.getData());
-                            case final DataBufferDouble d -> Doubles.asList(d.getData());
-                            case final DataBufferInt i -> Ints.asList(i.getData());
-                            case final DataBufferByte b -> Bytes.asList(b.getData());
-                            case final DataBufferShort s -> Shorts.asList(s.getData());
-                            default ->
-                                    throw new IllegalArgumentException(
-                                            MessageFormat.format(
-                                                    "No data buffer with type {0} expected.",
-                                                    dataBuffer.getDataType()));
-                        })
-                        .stream().mapToDouble(Number::doubleValue).summaryStatistics();
+        final var stats = RasterStatistics.summarize(grid.getRenderedImage(), 0, noData(grid));
         return new TimeNumericStatData(
-                stats.getMin(), stats.getMax(), stats.getAverage(), stats.getCount());
+                stats.max(),
+                stats.min(),
+                stats.mean(),
+                stats.count(),
+                stats.stddev(),
+                stats.percentiles());
+    }
+
+    @Nullable
+    private static Double noData(final GridCoverage2D grid) {
+        final var noData = CoverageUtilities.getNoDataProperty(grid);
+        return noData == null ? null : noData.getAsSingleValue();
     }
 }
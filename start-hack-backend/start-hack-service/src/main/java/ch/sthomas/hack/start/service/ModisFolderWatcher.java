@@ -0,0 +1,191 @@
+package ch.sthomas.hack.start.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.analyze.GppLandUsageService;
+import ch.sthomas.hack.start.service.analyze.ZonalStatsService;
+import ch.sthomas.hack.start.service.pipeline.IngestLock;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches the product folders and re-ingests only the product years whose tif was added, changed or
+ * removed. A file is picked up once it did not change for {@code watch.settle-time}, so tifs that
+ * are still being copied are not read half written.
+ *
+ * <p>Changes are only ingested while no other ingest job holds the {@link IngestLock}, until then
+ * they stay pending and are picked up by a later poll.
+ */
+@Service
+public class ModisFolderWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(ModisFolderWatcher.class);
+
+    private final ModisDataService modisDataService;
+    private final GppLandUsageService gppLandUsageService;
+    private final ZonalStatsService zonalStatsService;
+    private final IngestLock ingestLock;
+    private final Duration settleTime;
+    private final LongSupplier nanoTime;
+    private final Map<Path, Long> pending = new HashMap<>();
+    private WatchService watchService;
+    private boolean overflow;
+
+    @Autowired
+    public ModisFolderWatcher(
+            final ModisDataService modisDataService,
+            final GppLandUsageService gppLandUsageService,
+            final ZonalStatsService zonalStatsService,
+            final IngestLock ingestLock,
+            @Value("${ch.sthomas.hack.start.service.watch.settle-time:5s}")
+                    final Duration settleTime) {
+        this(
+                modisDataService,
+                gppLandUsageService,
+                zonalStatsService,
+                ingestLock,
+                settleTime,
+                System::nanoTime);
+    }
+
+    ModisFolderWatcher(
+            final ModisDataService modisDataService,
+            final GppLandUsageService gppLandUsageService,
+            final ZonalStatsService zonalStatsService,
+            final IngestLock ingestLock,
+            final Duration settleTime,
+            final LongSupplier nanoTime) {
+        this.modisDataService = modisDataService;
+        this.gppLandUsageService = gppLandUsageService;
+        this.zonalStatsService = zonalStatsService;
+        this.ingestLock = ingestLock;
+        this.settleTime = settleTime;
+        this.nanoTime = nanoTime;
+    }
+
+    /** Collects the changes since the last call and re-ingests the ones that settled. */
+    public synchronized void poll() throws IOException {
+        if (watchService == null) {
+            watchService = register();
+        }
+        for (var key = watchService.poll(); key != null; key = watchService.poll()) {
+            final var folder = (Path) key.watchable();
+            for (final var event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflowed();
+                } else {
+                    changed(folder.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+        if (!ingestLock.tryRun(this::ingest)) {
+            logger.debug("Another ingest is running, checking the changed tifs later");
+        }
+    }
+
+    /** Records a change of the file, it is re-ingested once it settled. */
+    synchronized void changed(final Path file) {
+        pending.put(file, nanoTime.getAsLong());
+    }
+
+    /** Records that changes were missed, all tifs are checked by the next poll. */
+    synchronized void overflowed() {
+        overflow = true;
+    }
+
+    private void ingest() throws IOException {
+        if (overflow) {
+            logger.info("Missed changes in the product folders, checking all tifs");
+            overflow = false;
+            pending.clear();
+            modisDataService.refreshYears();
+            modisDataService.storeRasters();
+            modisDataService.loadAndSaveData();
+            modisDataService.loadSpacialAggregatedData();
+            gppLandUsageService.loadAndSaveUsageRanking();
+            zonalStatsService.loadAndSaveZonalStats();
+            return;
+        }
+        final var settled = nanoTime.getAsLong() - settleTime.toNanos();
+        final var changed = EnumSet.noneOf(ModisProduct.class);
+        final var iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final var entry = iterator.next();
+            if (entry.getValue() > settled) {
+                continue;
+            }
+            iterator.remove();
+            changed.addAll(reingest(entry.getKey()));
+        }
+        if (changed.contains(ModisProduct.GP) || changed.contains(ModisProduct.LCT)) {
+            gppLandUsageService.loadAndSaveUsageRanking();
+        }
+        for (final var product : changed) {
+            zonalStatsService.loadAndSaveZonalStats(product);
+        }
+    }
+
+    private EnumSet<ModisProduct> reingest(final Path file) {
+        final var products = EnumSet.noneOf(ModisProduct.class);
+        for (final var product : ModisProduct.values()) {
+            if (!file.getParent().equals(modisDataService.getPath(product))) {
+                continue;
+            }
+            final var year = ModisDataService.yearOf(product, file);
+            if (year.isEmpty()) {
+                continue;
+            }
+            logger.info("{} changed, updating {} of {}", file, year.getAsInt(), product);
+            try {
+                modisDataService.reingest(product, year.getAsInt());
+                products.add(product);
+            } catch (final IOException | RuntimeException e) {
+                logger.warn("Could not update {} of {}", year.getAsInt(), product, e);
+            }
+        }
+        return products;
+    }
+
+    private WatchService register() throws IOException {
+        final var service =
+                modisDataService.getPath(ModisProduct.LCT).getFileSystem().newWatchService();
+        for (final var product : ModisProduct.values()) {
+            final var folder = modisDataService.getPath(product);
+            if (Files.isDirectory(folder)) {
+                // Registering a folder twice (GP and GP_SIMPLIFIED) returns the same key.
+                folder.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } else {
+                logger.warn(
+                        "Product folder {} of {} does not exist, not watching it", folder, product);
+            }
+        }
+        return service;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
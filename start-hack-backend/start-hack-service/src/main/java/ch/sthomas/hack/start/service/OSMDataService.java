@@ -1,76 +1,185 @@
 package ch.sthomas.hack.start.service;
 
 import ch.sthomas.hack.start.model.feature.BaseFeature;
-import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+import ch.sthomas.hack.start.service.geo.LayerWriter;
+import ch.sthomas.hack.start.service.geo.fgb.FlatGeobufWriter;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionReader;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionWriter;
+import ch.sthomas.hack.start.service.layer.FeatureIndex;
+import ch.sthomas.hack.start.service.layer.FeatureLayerService;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.Tags;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 @Service
 public class OSMDataService {
+    private static final Logger logger = LoggerFactory.getLogger(OSMDataService.class);
+
     private final Path data;
     private final Path outputFolder;
     private final ObjectMapper objectMapper;
+    private final FeatureCollectionReader reader;
+    private final FeatureLayerService featureLayerService;
+    private final IngestMetrics ingestMetrics;
 
     public OSMDataService(
             @Value("${ch.sthomas.hack.start.service.data.folder}") final String dataFolder,
             @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
-            final ObjectMapper objectMapper) {
+            @Value("${ch.sthomas.hack.start.service.osm.parse-threads:1}") final int parseThreads,
+            final ObjectMapper objectMapper,
+            final FeatureLayerService featureLayerService,
+            final IngestMetrics ingestMetrics) {
         this.data = Path.of(dataFolder);
         this.outputFolder = Path.of(outputFolder);
         this.objectMapper = objectMapper;
+        this.reader = new FeatureCollectionReader(objectMapper, parseThreads);
+        this.featureLayerService = featureLayerService;
+        this.ingestMetrics = ingestMetrics;
     }
 
-    public void loadAndSaveData() throws IOException {
-        final var points = loadFeatureCollection(data.resolve("mauritania-points.geojson"));
-        final var allPoints =
-                filterFeatureCollection(
-                        points,
-                        f -> f.getProperties().values().stream().anyMatch(Objects::nonNull));
-        final var manMadePoints = filterContainingKey(allPoints, "man_made");
-        objectMapper.writeValue(
-                outputFolder.resolve("assaba-all-points.geojson").toFile(), allPoints);
-        objectMapper.writeValue(
-                outputFolder.resolve("assaba-man-made-points.geojson").toFile(), manMadePoints);
+    /**
+     * A filtered GeoJSON file and its FlatGeobuf, also served as the indexed layer of the same
+     * name.
+     */
+    private record Output(String layer, Predicate<BaseFeature> filter) {
+        String fileName() {
+            return "assaba-" + layer + ".geojson";
+        }
+    }
 
-        final var lines = loadFeatureCollection(data.resolve("mauritania-lines.geojson"));
-        final var highways = filterContainingKey(lines, "highway");
-        final var waterways =
-                filterFeatureCollection(
-                        lines,
-                        f ->
-                                f.getProperties().containsKey("waterway")
-                                                && f.getProperty("waterway") != null
-                                        || f.getProperties()
-                                                .getOrDefault("natural", "no")
-                                                .equals("water"));
-        objectMapper.writeValue(outputFolder.resolve("assaba-lines.geojson").toFile(), lines);
-        objectMapper.writeValue(outputFolder.resolve("assaba-highways.geojson").toFile(), highways);
-        objectMapper.writeValue(
-                outputFolder.resolve("assaba-waterways.geojson").toFile(), waterways);
+    public void loadAndSaveData() throws IOException {
+        final Predicate<BaseFeature> anyProperty =
+                f -> f.getProperties().values().stream().anyMatch(Objects::nonNull);
+        filterAndSave(
+                data.resolve("mauritania-points.geojson"),
+                List.of(
+                        new Output("all-points", anyProperty),
+                        new Output("man-made-points", anyProperty.and(containingKey("man_made")))));
+        filterAndSave(
+                data.resolve("mauritania-lines.geojson"),
+                List.of(
+                        new Output("lines", f -> true),
+                        new Output("highways", containingKey("highway")),
+                        new Output(
+                                "waterways",
+                                f ->
+                                        f.getProperties().containsKey("waterway")
+                                                        && f.getProperty("waterway") != null
+                                                || f.getProperties()
+                                                        .getOrDefault("natural", "no")
+                                                        .equals("water"))));
     }
 
-    private BaseFeatureCollection filterContainingKey(
-            final BaseFeatureCollection featureCollection, final String key) {
-        return filterFeatureCollection(
-                featureCollection,
-                f -> f.getProperties().containsKey(key) && f.getProperty(key) != null);
+    /**
+     * Reads the features of the input once and writes every feature to all outputs it matches,
+     * streaming on both ends. The byte ranges of the written features are indexed during the same
+     * read, the layers are replaced by indexes over the new files once they were moved in place. If
+     * the read fails, the files and layers are left as they were.
+     */
+    private void filterAndSave(final Path input, final List<Output> outputs) throws IOException {
+        Files.createDirectories(outputFolder);
+        final var start = System.nanoTime();
+        final var writers = new ArrayList<FeatureCollectionWriter>(outputs.size());
+        final var fgbWriters = new ArrayList<FlatGeobufWriter>(outputs.size());
+        final var indexes = outputs.stream().map(o -> FeatureIndex.builder()).toList();
+        final long count;
+        var complete = false;
+        try {
+            for (final var output : outputs) {
+                final var file = outputFolder.resolve(output.fileName());
+                writers.add(new FeatureCollectionWriter(objectMapper, file));
+                fgbWriters.add(new FlatGeobufWriter(objectMapper, FlatGeobufWriter.of(file)));
+            }
+            count =
+                    reader.read(
+                            input,
+                            feature -> {
+                                for (var i = 0; i < outputs.size(); i++) {
+                                    if (outputs.get(i).filter().test(feature)) {
+                                        try {
+                                            final var writer = writers.get(i);
+                                            final var offset = writer.getPosition();
+                                            writer.write(feature);
+                                            indexes.get(i)
+                                                    .add(feature, offset, writer.getPosition());
+                                            fgbWriters.get(i).write(feature);
+                                        } catch (final IOException e) {
+                                            throw new UncheckedIOException(e);
+                                        }
+                                    }
+                                }
+                            });
+            complete = true;
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            finish(
+                    Stream.<LayerWriter>concat(writers.stream(), fgbWriters.stream()).toList(),
+                    complete);
+        }
+        for (var i = 0; i < outputs.size(); i++) {
+            ingestMetrics.features(outputs.get(i).layer(), Tags.empty(), writers.get(i).getCount());
+            featureLayerService.publish(
+                    outputs.get(i).layer(),
+                    indexes.get(i)
+                            .build(objectMapper, outputFolder.resolve(outputs.get(i).fileName())));
+        }
+        ingestMetrics.record("osm", Tags.empty(), System.nanoTime() - start);
+        logger.info(
+                "Filtered {} features of {} in {} ms.",
+                count,
+                input.getFileName(),
+                (System.nanoTime() - start) / 1_000_000);
     }
 
-    private BaseFeatureCollection filterFeatureCollection(
-            final BaseFeatureCollection featureCollection, final Predicate<BaseFeature> predicate) {
-        return new BaseFeatureCollection()
-                .setFeatures(featureCollection.getFeatures().stream().filter(predicate).toList());
+    /**
+     * Closes every writer, or discards them all if the read failed. A failing writer does not keep
+     * the others from being closed, its exception is thrown with the ones of the others suppressed.
+     * Discarding failures are only logged, the read failure is the one to report.
+     */
+    private static void finish(final List<LayerWriter> writers, final boolean complete)
+            throws IOException {
+        IOException failure = null;
+        for (final var writer : writers) {
+            try {
+                if (complete) {
+                    writer.close();
+                } else {
+                    writer.discard();
+                }
+            } catch (final IOException e) {
+                if (!complete) {
+                    logger.warn("Could not discard a layer writer", e);
+                } else if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
 
-    private BaseFeatureCollection loadFeatureCollection(final Path path) throws IOException {
-        return objectMapper.readValue(path.toFile(), BaseFeatureCollection.class);
+    private static Predicate<BaseFeature> containingKey(final String key) {
+        return f -> f.getProperties().containsKey(key) && f.getProperty(key) != null;
     }
 }
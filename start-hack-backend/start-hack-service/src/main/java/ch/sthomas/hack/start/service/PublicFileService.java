@@ -0,0 +1,321 @@
+package ch.sthomas.hack.start.service;
+
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
+import ch.sthomas.hack.start.service.utils.ProcessUtils;
+
+import jakarta.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The generated files of the public folder, as they are downloaded through the API. JSON files get
+ * gzip and brotli variants next to them ({@code <file>.gz}, {@code <file>.br}); a variant is only
+ * served while it is newer than its file. ETags are derived from the content hash of the file.
+ */
+@Service
+public class PublicFileService {
+    private static final Logger logger = LoggerFactory.getLogger(PublicFileService.class);
+
+    /** Files below are sent as they are, compression would not pay off. */
+    private static final long MIN_COMPRESS_SIZE = 1024;
+
+    /** Brotli quality, high enough to beat gzip -9 and fast enough for layers of some 10 MB. */
+    private static final int BROTLI_QUALITY = 6;
+
+    public enum Encoding {
+        BROTLI("br", ".br"),
+        GZIP("gzip", ".gz");
+
+        private final String token;
+        private final String suffix;
+
+        Encoding(final String token, final String suffix) {
+            this.token = token;
+            this.suffix = suffix;
+        }
+
+        /** The {@code Content-Encoding} of the variant. */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * The representation to send.
+     *
+     * @param file the file with the bytes to send, a variant for an encoding
+     * @param encoding the content encoding, {@code null} for the file as it is
+     * @param compressible whether there may be variants, i.e. the response varies by encoding
+     */
+    public record PublicFile(
+            Path file,
+            long length,
+            String etag,
+            String contentType,
+            @Nullable Encoding encoding,
+            boolean compressible) {}
+
+    private record Digest(long size, long modified, String sha256) {}
+
+    private final Path outputFolder;
+    private final IngestPipeline ingestPipeline;
+    private volatile boolean brotli;
+    private final Map<Path, Digest> digests = new ConcurrentHashMap<>();
+
+    public PublicFileService(
+            @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
+            @Value("${ch.sthomas.hack.start.service.public.brotli:true}") final boolean brotli,
+            final IngestPipeline ingestPipeline) {
+        this.outputFolder = Path.of(outputFolder).toAbsolutePath().normalize();
+        this.brotli = brotli;
+        this.ingestPipeline = ingestPipeline;
+    }
+
+    /**
+     * The file at the path relative to the public folder in the best encoding the client accepts,
+     * {@code null} if there is no such file. Hidden files like the ingest manifest, temporary files
+     * and the variants themselves are not served.
+     *
+     * @param acceptEncoding the {@code Accept-Encoding} header, {@code null} for identity only
+     */
+    @Nullable
+    public PublicFile get(final String path, @Nullable final String acceptEncoding)
+            throws IOException {
+        final var file = outputFolder.resolve(path.replaceFirst("^/+", "")).normalize();
+        if (!file.startsWith(outputFolder) || !isServed(file) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        final var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final var sha256 = digest(file, attributes).sha256().substring(0, 32);
+        final var contentType = contentType(file);
+        final var compressible = isCompressible(file);
+        if (compressible) {
+            for (final var encoding : Encoding.values()) {
+                final var variant = variant(file, encoding);
+                if (accepts(acceptEncoding, encoding.token) && isFresh(variant, attributes)) {
+                    return new PublicFile(
+                            variant,
+                            Files.size(variant),
+                            "\"" + sha256 + "-" + encoding.token + "\"",
+                            contentType,
+                            encoding,
+                            true);
+                }
+            }
+        }
+        return new PublicFile(
+                file, attributes.size(), "\"" + sha256 + "\"", contentType, null, compressible);
+    }
+
+    private Digest digest(final Path file, final BasicFileAttributes attributes)
+            throws IOException {
+        final var size = attributes.size();
+        final var modified = attributes.lastModifiedTime().toMillis();
+        final var digest = digests.get(file);
+        if (digest != null && digest.size() == size && digest.modified() == modified) {
+            return digest;
+        }
+        final var computed = new Digest(size, modified, IngestManifest.sha256(file));
+        digests.put(file, computed);
+        return computed;
+    }
+
+    /** Writes the missing or outdated variants of every compressible file of the folder. */
+    public void precompressAll() throws IOException {
+        if (!Files.isDirectory(outputFolder)) {
+            return;
+        }
+        final List<Path> files;
+        try (final Stream<Path> walk = Files.walk(outputFolder)) {
+            files = walk.filter(f -> isServed(f) && isCompressible(f)).toList();
+        }
+        var written = 0;
+        final var start = System.nanoTime();
+        for (final var file : files) {
+            final var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() < MIN_COMPRESS_SIZE) {
+                continue;
+            }
+            for (final var encoding : Encoding.values()) {
+                if (!isFresh(variant(file, encoding), attributes)
+                        && precompress(file, attributes, encoding)) {
+                    written++;
+                }
+            }
+        }
+        if (written > 0) {
+            logger.info(
+                    "Wrote {} compressed variants in {} ms.",
+                    written,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Compresses the file into its variant. The variant is dropped if the file was changed or
+     * replaced meanwhile, it would be newer than the file and so be served for content it was not
+     * made of.
+     */
+    private boolean precompress(
+            final Path file, final BasicFileAttributes attributes, final Encoding encoding)
+            throws IOException {
+        final var variant = variant(file, encoding);
+        final var tmp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            final var compressed =
+                    switch (encoding) {
+                        case GZIP -> gzip(file, tmp);
+                        case BROTLI -> brotli && brotli(file, tmp);
+                    };
+            if (!compressed || Files.size(tmp) >= attributes.size()) {
+                Files.deleteIfExists(variant);
+                return false;
+            }
+            final var after = Files.readAttributes(file, BasicFileAttributes.class);
+            if (after.size() != attributes.size()
+                    || !after.lastModifiedTime().equals(attributes.lastModifiedTime())
+                    || !Objects.equals(after.fileKey(), attributes.fileKey())) {
+                logger.debug("{} changed while it was compressed, skipping it", file);
+                return false;
+            }
+            Files.move(
+                    tmp,
+                    variant,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private boolean gzip(final Path file, final Path target) throws IOException {
+        try (final OutputStream out =
+                new GZIPOutputStream(Files.newOutputStream(target), 1 << 16) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                }) {
+            Files.copy(file, out);
+        }
+        return true;
+    }
+
+    /** Compresses with a {@code brotli} subprocess, the JDK has no brotli encoder. */
+    private boolean brotli(final Path file, final Path target) throws IOException {
+        final ProcessUtils.ProcessResult result;
+        try {
+            result =
+                    ingestPipeline.process(
+                            () ->
+                                    ProcessUtils.executeProcess(
+                                            new ProcessBuilder(
+                                                    List.of(
+                                                            "brotli",
+                                                            "-q",
+                                                            Integer.toString(BROTLI_QUALITY),
+                                                            "-f",
+                                                            "-o",
+                                                            target.toString(),
+                                                            file.toString()))));
+        } catch (final IOException e) {
+            logger.info("brotli is not available, only gzip variants are written", e);
+            brotli = false;
+            return false;
+        }
+        if (result instanceof final ProcessUtils.ProcessDidNotFinishResult didNotFinish) {
+            logger.warn("brotli did not finish for {}: {}", file, didNotFinish.stderr());
+            return false;
+        }
+        return Files.size(target) > 0;
+    }
+
+    private static Path variant(final Path file, final Encoding encoding) {
+        return file.resolveSibling(file.getFileName() + encoding.suffix);
+    }
+
+    private static boolean isFresh(final Path variant, final BasicFileAttributes file)
+            throws IOException {
+        return Files.exists(variant)
+                && Files.getLastModifiedTime(variant).compareTo(file.lastModifiedTime()) >= 0;
+    }
+
+    private static boolean isServed(final Path file) {
+        final var name = file.getFileName().toString();
+        return !name.startsWith(".")
+                && !name.endsWith(".tmp")
+                && Stream.of(Encoding.values()).noneMatch(e -> name.endsWith(e.suffix));
+    }
+
+    /** JSON compresses well, FlatGeobuf is read with range requests and sent as it is. */
+    private static boolean isCompressible(final Path file) {
+        final var name = file.getFileName().toString();
+        return name.endsWith(".json") || name.endsWith(".geojson");
+    }
+
+    private static String contentType(final Path file) {
+        final var name = file.getFileName().toString();
+        if (name.endsWith(".geojson")) {
+            return "application/geo+json";
+        }
+        if (name.endsWith(".json")) {
+            return "application/json";
+        }
+        if (name.endsWith(".fgb")) {
+            return "application/flatgeobuf";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Whether the {@code Accept-Encoding} header accepts the coding, by name or by {@code *}, with
+     * a quality above 0.
+     */
+    static boolean accepts(@Nullable final String acceptEncoding, final String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double wildcard = null;
+        for (final var element : acceptEncoding.split(",")) {
+            final var parts = element.split(";");
+            final var name = parts[0].trim().toLowerCase(Locale.ROOT);
+            var quality = 1.0;
+            for (var i = 1; i < parts.length; i++) {
+                final var parameter = parts[i].trim().toLowerCase(Locale.ROOT);
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(coding)) {
+                return quality > 0;
+            }
+            if (name.equals("*")) {
+                wildcard = quality;
+            }
+        }
+        return wildcard != null && wildcard > 0;
+    }
+}
@@ -7,80 +7,156 @@ import ch.sthomas.hack.start.model.feature.BaseFeature;
 import ch.sthomas.hack.start.model.feature.analyze.GppLandRankingFeature;
 import ch.sthomas.hack.start.model.feature.analyze.GppLandRankingFeatureCollection;
 import ch.sthomas.hack.start.model.feature.analyze.GppLandRankingFeatureProperties;
-import ch.sthomas.hack.start.model.product.ModisProduct;
 import ch.sthomas.hack.start.model.util.MapCollectors;
 import ch.sthomas.hack.start.service.ModisDataService;
 import ch.sthomas.hack.start.service.geo.GridCoverageService;
+import ch.sthomas.hack.start.service.geo.fgb.FlatGeobufWriter;
+import ch.sthomas.hack.start.service.geo.grid.AlignedGrid;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pivovarit.function.ThrowingBiConsumer;
 
 import org.apache.commons.lang3.tuple.Pair;
-import org.geotools.api.coverage.PointOutsideCoverageException;
-import org.geotools.api.geometry.Position;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
-import org.geotools.geometry.Position2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.awt.geom.AffineTransform;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.ToIntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
 
 @Service
 public class GppLandUsageService {
     private static final Logger logger = LoggerFactory.getLogger(GppLandUsageService.class);
     private static final double gridSizeDegrees = 0.004; // <500m
 
+    /** Bump when the written {@code gpp-ranking-<year>.geojson} files change for the same tifs. */
+    private static final String RANKING_VERSION = "1";
+
     private final ModisDataService modisDataService;
     private final Path outputFolder;
     private final GridCoverageService gridCoverageService;
+    private final IngestManifest ingestManifest;
     private final ObjectMapper objectMapper;
+    private final IngestMetrics ingestMetrics;
 
     public GppLandUsageService(
             @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
             final ModisDataService modisDataService,
             final GridCoverageService gridCoverageService,
-            final ObjectMapper objectMapper) {
+            final IngestManifest ingestManifest,
+            final ObjectMapper objectMapper,
+            final IngestMetrics ingestMetrics) {
         this.modisDataService = modisDataService;
         this.outputFolder = Path.of(outputFolder);
         this.gridCoverageService = gridCoverageService;
+        this.ingestManifest = ingestManifest;
         this.objectMapper = objectMapper;
+        this.ingestMetrics = ingestMetrics;
     }
 
-    public void loadAndSaveUsageRanking() {
-        final var rankings = getGppLandUsageRanking();
+    /** Computes the rankings of the years whose GPP or land use tif changed since the last run. */
+    public void loadAndSaveUsageRanking() throws IOException {
+        final var stamps = new HashMap<Integer, IngestManifest.Artifact>();
+        for (final var year : modisDataService.dataYearsStream().toArray()) {
+            if (!Files.exists(modisDataService.yearTif(GP, year))) {
+                continue;
+            }
+            final var stamp = stamp(year);
+            if (!ingestManifest.isUpToDate(rankingFile(year), stamp)
+                    || !ingestManifest.isUpToDate(FlatGeobufWriter.of(rankingFile(year)), stamp)) {
+                stamps.put(year, stamp);
+            }
+        }
+        if (stamps.isEmpty()) {
+            logger.info("GPP rankings are up to date");
+            return;
+        }
+        final var rankings = getGppLandUsageRanking(stamps::containsKey);
         rankings.forEach(
                 ThrowingBiConsumer.unchecked(
-                        (year, collection) ->
-                                objectMapper.writeValue(
-                                        outputFolder
-                                                .resolve("gpp-ranking-" + year + ".geojson")
-                                                .toFile(),
-                                        collection)));
+                        (year, collection) -> {
+                            final var fgbFile = FlatGeobufWriter.of(rankingFile(year));
+                            ingestMetrics.time(
+                                    "serialize",
+                                    IngestMetrics.tags(year),
+                                    () -> {
+                                        objectMapper.writeValue(
+                                                rankingFile(year).toFile(), collection);
+                                        FlatGeobufWriter.write(
+                                                objectMapper, fgbFile, collection.getFeatures());
+                                        return null;
+                                    });
+                            ingestMetrics.features(
+                                    "gpp-ranking",
+                                    IngestMetrics.tags(year),
+                                    collection.getFeatures().size());
+                            ingestManifest.record(rankingFile(year), stamps.get(year));
+                            ingestManifest.record(fgbFile, stamps.get(year));
+                        }));
+        ingestManifest.flush();
+    }
+
+    private Path rankingFile(final int year) {
+        return outputFolder.resolve("gpp-ranking-" + year + ".geojson");
+    }
+
+    private IngestManifest.Artifact stamp(final int year) throws IOException {
+        return ingestManifest.stamp(
+                RANKING_VERSION,
+                Stream.of(modisDataService.yearTif(GP, year), modisDataService.yearTif(LCT, year))
+                        .filter(Files::exists)
+                        .toList());
     }
 
     public Map<Integer, GppLandRankingFeatureCollection> getGppLandUsageRanking() {
-        final var landUsagePerYearRaster = modisDataService.loadYearsRaster(LCT);
-        final var gppPerYearRaster = modisDataService.loadYearsRaster(GP);
+        return getGppLandUsageRanking(year -> true);
+    }
+
+    public Map<Integer, GppLandRankingFeatureCollection> getGppLandUsageRanking(
+            final IntPredicate years) {
+        final var landUsagePerYearRaster = modisDataService.loadYearsRaster(LCT, years);
+        final var gppPerYearRaster = modisDataService.loadYearsRaster(GP, years);
         return modisDataService
                 .dataYearsStream()
+                .filter(years)
                 .mapToObj(
                         year ->
                                 getGppAnalyzeForYear(
                                         gppPerYearRaster, landUsagePerYearRaster, year))
                 .filter(Objects::nonNull)
-                .map(p -> Pair.of(p.getLeft(), gridCoverageService.vectorize(p.getRight())))
-                .map(p -> Pair.of(p.getLeft(), modisDataService.invertCoords(p.getRight())))
+                .map(
+                        p ->
+                                Pair.of(
+                                        p.getLeft(),
+                                        ingestMetrics.time(
+                                                "polygonize",
+                                                IngestMetrics.tags(p.getLeft()),
+                                                () -> gridCoverageService.vectorize(p.getRight()))))
+                .map(
+                        p ->
+                                Pair.of(
+                                        p.getLeft(),
+                                        ingestMetrics.time(
+                                                "invert",
+                                                IngestMetrics.tags(p.getLeft()),
+                                                () -> modisDataService.invertCoords(p.getRight()))))
                 .map(
                         pair ->
                                 Pair.of(
@@ -114,65 +190,96 @@ public class GppLandUsageService {
         if (gppRaster == null) {
             return null;
         }
+        final var start = System.nanoTime();
         final var envelope = gppRaster.getEnvelope2D();
         if (landUsagePerYear != null) {
             envelope.expandToInclude(landUsagePerYear.getEnvelope2D());
         }
-        return Pair.of(
-                year,
-                generateGridCoverage(
-                        envelope,
-                        c -> {
-                            if (landUsagePerYear != null) {
-                                try {
-                                    final var landUsageVal =
-                                            LCT.<Integer>mapPointEval()
-                                                    .apply(landUsagePerYear.evaluate(c));
-                                    if (landUsageVal != 0 && landUsageVal > 13) {
-                                        final var landUsage =
-                                                ModisProduct.getLandUseFromKey(landUsageVal);
-                                        logger.trace(
-                                                "Ignore GPP on land usage value {}.", landUsage);
-                                        return 0;
-                                    }
-                                } catch (final PointOutsideCoverageException ignored) {
+        final var grid =
+                new AlignedGrid(
+                        envelope.getMinX(),
+                        envelope.getMinY(),
+                        (int) Math.ceil(envelope.getWidth() / gridSizeDegrees),
+                        (int) Math.ceil(envelope.getHeight() / gridSizeDegrees),
+                        gridSizeDegrees);
+        final var gpp = source(grid, gppRaster);
+        final var landUsage = landUsagePerYear == null ? null : source(grid, landUsagePerYear);
+        final var values =
+                grid.compute(
+                        (row, column) -> {
+                            if (landUsage != null) {
+                                final var index = landUsage.index(row, column);
+                                // Ignore GPP on barren land and the classes above.
+                                if (index >= 0 && landUsage.sample(index) > 13) {
+                                    return 0;
                                 }
                             }
-                            try {
-                                final var gpp =
-                                        GP.<Integer>mapPointEval().apply(gppRaster.evaluate(c));
-                                return gpp > 60000 ? -1 : (int) (gpp * 0.365 / (200) + 1);
-                            } catch (final PointOutsideCoverageException e) {
+                            final var index = gpp.index(row, column);
+                            if (index < 0) {
                                 return -1;
                             }
-                        }));
+                            final var value = gpp.sample(index);
+                            return value > 60000 ? -1 : (int) (value * 0.365 / (200) + 1);
+                        });
+        ingestMetrics.record("ranking", IngestMetrics.tags(year), System.nanoTime() - start);
+        logger.debug(
+                "Combined GPP and land use of {} on {}x{} cells in {} ms.",
+                year,
+                grid.getRows(),
+                grid.getColumns(),
+                (System.nanoTime() - start) / 1_000_000);
+        return Pair.of(year, toCoverage(grid, values, envelope));
     }
 
-    public GridCoverage2D generateGridCoverage(
-            final ReferencedEnvelope envelope, final ToIntFunction<Position> eval) {
-        final var minX = envelope.getMinX();
-        final var minY = envelope.getMinY();
-        final var width = (int) Math.ceil(envelope.getWidth() / gridSizeDegrees);
-        final var height = (int) Math.ceil(envelope.getHeight() / gridSizeDegrees);
+    /**
+     * Maps band 0 of the coverage onto the grid. A cell takes the pixel {@link
+     * GridCoverage2D#evaluate} would return for its position, bytes are read signed like {@code
+     * ModisProduct.LCT} maps evaluated samples.
+     */
+    private static AlignedGrid.Source source(
+            final AlignedGrid grid, final GridCoverage2D coverage) {
+        if (!(coverage.getGridGeometry().getCRSToGrid2D()
+                instanceof final AffineTransform crsToGrid)) {
+            throw new IllegalArgumentException(
+                    "CRS to grid transform of " + coverage.getName() + " is not affine");
+        }
+        final var image = coverage.getRenderedImage();
+        final var data = image.getData();
+        final var samples =
+                data.getSamples(
+                        data.getMinX(),
+                        data.getMinY(),
+                        data.getWidth(),
+                        data.getHeight(),
+                        0,
+                        (int[]) null);
+        if (image.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE) {
+            for (var i = 0; i < samples.length; i++) {
+                samples[i] = (byte) samples[i];
+            }
+        }
+        return grid.source(
+                samples,
+                data.getMinX(),
+                data.getMinY(),
+                data.getWidth(),
+                data.getHeight(),
+                crsToGrid);
+    }
 
+    /** The values as a coverage of the envelope, one raster row per grid row. */
+    private static GridCoverage2D toCoverage(
+            final AlignedGrid grid, final int[] values, final ReferencedEnvelope envelope) {
         final var sampleModel =
                 new ComponentSampleModel(
-                        DataBuffer.TYPE_INT, height, width, 1, height, new int[] {0});
-        final var dataBuffer = new DataBufferInt(new int[width * height], width * height);
+                        DataBuffer.TYPE_INT,
+                        grid.getColumns(),
+                        grid.getRows(),
+                        1,
+                        grid.getColumns(),
+                        new int[] {0});
+        final var dataBuffer = new DataBufferInt(values, values.length);
         final var raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
-
-        for (var i = 0; i < width; i++) {
-            for (var j = 0; j < height; j++) {
-                final var x = minX + (width - i) * gridSizeDegrees;
-                final var y = minY + j * gridSizeDegrees;
-                final var coord = new Position2D(x, y);
-
-                final var value = eval.applyAsInt(coord);
-                raster.setSample(j, i, 0, value);
-            }
-        }
-
-        final var factory = new GridCoverageFactory();
-        return factory.create("GridCoverage", raster, envelope);
+        return new GridCoverageFactory().create("GridCoverage", raster, envelope);
     }
 }
@@ -0,0 +1,188 @@
+package ch.sthomas.hack.start.service.analyze;
+
+import static ch.sthomas.hack.start.model.product.ModisProduct.LCT;
+
+import ch.sthomas.hack.start.model.points.DistrictStatData;
+import ch.sthomas.hack.start.model.points.TimeStatData;
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.AdminDataService;
+import ch.sthomas.hack.start.service.ModisDataService;
+import ch.sthomas.hack.start.service.geo.stats.ZonalStatistics;
+import ch.sthomas.hack.start.service.geo.stats.ZoneMask;
+import ch.sthomas.hack.start.service.geo.store.TimeCube;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Statistics of every product and year per administrative district. The districts are rasterized
+ * once per grid into a {@link ZoneMask}, then all years of a product are aggregated over the mask
+ * in one pass over its time cube. Results are written to {@code zonal-<product>.json}.
+ */
+@Service
+public class ZonalStatsService {
+    private static final Logger logger = LoggerFactory.getLogger(ZonalStatsService.class);
+
+    /** Bump when the written {@code zonal-<product>.json} files change for the same inputs. */
+    private static final String ZONAL_VERSION = "1";
+
+    private final Path outputFolder;
+    private final ModisDataService modisDataService;
+    private final AdminDataService adminDataService;
+    private final IngestManifest ingestManifest;
+    private final ObjectMapper objectMapper;
+    private final Map<ModisProduct, List<DistrictStatData>> stats = new ConcurrentHashMap<>();
+    private final Map<MaskKey, ZoneMask> masks = new ConcurrentHashMap<>();
+    private volatile List<District> districts;
+
+    public ZonalStatsService(
+            @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
+            final ModisDataService modisDataService,
+            final AdminDataService adminDataService,
+            final IngestManifest ingestManifest,
+            final ObjectMapper objectMapper) {
+        this.outputFolder = Path.of(outputFolder);
+        this.modisDataService = modisDataService;
+        this.adminDataService = adminDataService;
+        this.ingestManifest = ingestManifest;
+        this.objectMapper = objectMapper;
+    }
+
+    private record District(String code, String name, Geometry geometry) {}
+
+    private record MaskKey(int width, int height, AffineTransform gridToWorld, boolean swapAxes) {}
+
+    public void loadAndSaveZonalStats() throws IOException {
+        for (final var product : ModisProduct.values()) {
+            loadAndSaveZonalStats(product);
+        }
+    }
+
+    /** Computes the statistics of the product, unless its tifs and the districts did not change. */
+    public void loadAndSaveZonalStats(final ModisProduct product) throws IOException {
+        final var outputFile = outputFile(product);
+        final var stamp =
+                ingestManifest.stamp(
+                        ZONAL_VERSION,
+                        Stream.concat(
+                                        modisDataService.tifs(product).stream(),
+                                        adminDataService.getDistrictFiles().stream())
+                                .toList());
+        if (ingestManifest.isUpToDate(outputFile, stamp)) {
+            logger.debug("{} is up to date", outputFile);
+            return;
+        }
+        final var cube = modisDataService.getCube(product);
+        if (cube == null) {
+            return;
+        }
+        final var start = System.nanoTime();
+        final var result = compute(product, cube);
+        Files.createDirectories(outputFolder);
+        objectMapper.writeValue(outputFile.toFile(), result);
+        ingestManifest.record(outputFile, stamp);
+        ingestManifest.flush();
+        stats.put(product, result);
+        logger.info(
+                "Computed district statistics of {} in {} ms.",
+                product,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** The statistics of the product per district, empty if they were not computed yet. */
+    public List<DistrictStatData> getZonalStats(final ModisProduct product) throws IOException {
+        final var cached = stats.get(product);
+        if (cached != null) {
+            return cached;
+        }
+        final var file = outputFile(product);
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        final List<DistrictStatData> read =
+                objectMapper.readValue(file.toFile(), new TypeReference<>() {});
+        stats.put(product, read);
+        return read;
+    }
+
+    private Path outputFile(final ModisProduct product) {
+        return outputFolder.resolve("zonal-" + product.name().toLowerCase() + ".json");
+    }
+
+    private List<DistrictStatData> compute(final ModisProduct product, final TimeCube cube)
+            throws IOException {
+        final var zones = getDistricts();
+        final var mask = getMask(cube, product.invert(), zones);
+        final List<? extends Map<Integer, ? extends TimeStatData>> years =
+                product == LCT
+                        ? ZonalStatistics.categorical(
+                                cube,
+                                mask,
+                                key -> key > 0 ? ModisProduct.getLandUseFromKey(key) : null)
+                        : ZonalStatistics.numeric(cube, mask);
+        final var result = new ArrayList<DistrictStatData>(zones.size());
+        for (var i = 0; i < zones.size(); i++) {
+            result.add(
+                    new DistrictStatData(
+                            zones.get(i).code(), zones.get(i).name(), Map.copyOf(years.get(i))));
+        }
+        return result;
+    }
+
+    private ZoneMask getMask(
+            final TimeCube cube, final boolean swapAxes, final List<District> zones) {
+        return masks.computeIfAbsent(
+                new MaskKey(cube.getWidth(), cube.getHeight(), cube.getGridToWorld(), swapAxes),
+                key -> {
+                    final var start = System.nanoTime();
+                    final var mask =
+                            ZoneMask.rasterize(
+                                    zones.stream().map(District::geometry).toList(),
+                                    key.width(),
+                                    key.height(),
+                                    key.gridToWorld(),
+                                    key.swapAxes());
+                    logger.info(
+                            "Rasterized {} districts on a {}x{} grid in {} ms.",
+                            zones.size(),
+                            key.width(),
+                            key.height(),
+                            (System.nanoTime() - start) / 1_000_000);
+                    return mask;
+                });
+    }
+
+    private List<District> getDistricts() throws IOException {
+        var current = districts;
+        if (current == null) {
+            current =
+                    adminDataService.getDistricts().stream()
+                            .map(
+                                    f ->
+                                            new District(
+                                                    (String) f.getAttribute("ADM3_PCODE"),
+                                                    (String) f.getAttribute("ADM3_EN"),
+                                                    (Geometry) f.getDefaultGeometry()))
+                            .toList();
+            districts = current;
+        }
+        return current;
+    }
+}
@@ -5,7 +5,9 @@ import static java.util.Objects.requireNonNull;
 import ch.sthomas.hack.start.model.feature.BaseFeature;
 import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
 import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.geo.polygonize.RasterPolygonizer;
 import ch.sthomas.hack.start.service.geo.tif.TifParser;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
 import ch.sthomas.hack.start.service.utils.ProcessUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,24 +16,43 @@ import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotNull;
 
 import org.geotools.api.coverage.grid.GridCoverage;
+import org.geotools.api.metadata.spatial.PixelOrientation;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.processing.Operations;
+import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.locationtech.jts.coverage.CoverageSimplifier;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.awt.geom.AffineTransform;
 import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import javax.media.jai.Interpolation;
+import javax.media.jai.TiledImage;
 
 @Service
 public class GridCoverageService {
@@ -39,9 +60,38 @@ public class GridCoverageService {
     private static final Logger logger = LoggerFactory.getLogger(GridCoverageService.class);
     private static final GridCoverageFactory GRID_COVERAGE_FACTORY = new GridCoverageFactory();
     private final ObjectMapper objectMapper;
-
-    GridCoverageService(final ObjectMapper objectMapper) {
+    private final RasterPolygonizer polygonizer;
+    private final Interpolation warpInterpolation;
+    private final boolean warpWithGdal;
+    private final IngestPipeline ingestPipeline;
+    private final CoordinateReferenceSystem wgs84;
+
+    GridCoverageService(
+            final ObjectMapper objectMapper,
+            final GeometryFactory wgs84GeometryFactory,
+            @Value("${ch.sthomas.hack.start.service.warp.interpolation:nearest}")
+                    final String warpInterpolation,
+            @Value("${ch.sthomas.hack.start.service.warp.gdal:false}") final boolean warpWithGdal,
+            final IngestPipeline ingestPipeline)
+            throws FactoryException {
         this.objectMapper = objectMapper;
+        this.polygonizer = new RasterPolygonizer(wgs84GeometryFactory);
+        this.warpInterpolation = interpolation(warpInterpolation);
+        this.warpWithGdal = warpWithGdal;
+        this.ingestPipeline = ingestPipeline;
+        wgs84 = CRS.decode("EPSG:4326");
+    }
+
+    private static Interpolation interpolation(final String name) {
+        return Interpolation.getInstance(
+                switch (name.toLowerCase()) {
+                    case "nearest" -> Interpolation.INTERP_NEAREST;
+                    case "bilinear" -> Interpolation.INTERP_BILINEAR;
+                    case "bicubic" -> Interpolation.INTERP_BICUBIC;
+                    default ->
+                            throw new IllegalArgumentException(
+                                    "Unknown interpolation type: " + name);
+                });
     }
 
     @Nullable
@@ -58,10 +108,28 @@ public class GridCoverageService {
             return gridCoverage;
         }
 
+        final var start = System.nanoTime();
+        if (!warpWithGdal) {
+            try {
+                final var transformed = resampleToWGS84(gridCoverage);
+                logger.info(
+                        "Warped {} in process in {} ms.",
+                        gridCoverage.getName(),
+                        (System.nanoTime() - start) / 1_000_000);
+                return transformed;
+            } catch (final RuntimeException e) {
+                logger.warn("Could not warp grid coverage in process, using gdalwarp", e);
+            }
+        }
+
         try {
             final var sourceFile = write(gridCoverage);
             final var transformed = warpToWGS84(sourceFile);
             Files.delete(sourceFile);
+            logger.info(
+                    "Warped {} with gdalwarp in {} ms.",
+                    gridCoverage.getName(),
+                    (System.nanoTime() - start) / 1_000_000);
             return transformed;
         } catch (final IOException ioException) {
             logger.warn("Could not transform grid coverage", ioException);
@@ -69,6 +137,54 @@ public class GridCoverageService {
         }
     }
 
+    /**
+     * Resamples to longitude/latitude and labels the result with EPSG:4326, the same way {@link
+     * TifParser} reads the GeoTIFFs written by gdalwarp. This keeps warped coverages consistent
+     * with the ones already in WGS84.
+     */
+    private GridCoverage2D resampleToWGS84(final GridCoverage2D gridCoverage) {
+        final var resampled =
+                (GridCoverage2D)
+                        Operations.DEFAULT.resample(
+                                gridCoverage, DefaultGeographicCRS.WGS84, null, warpInterpolation);
+        return GRID_COVERAGE_FACTORY.create(
+                gridCoverage.getName(),
+                computeTiles(resampled.getRenderedImage()),
+                wgs84,
+                resampled.getGridGeometry().getGridToCRS(),
+                resampled.getSampleDimensions(),
+                null,
+                resampled.getProperties());
+    }
+
+    /** Computes all tiles of the (deferred) image in parallel and keeps them in memory. */
+    private static RenderedImage computeTiles(final RenderedImage image) {
+        final var tiled =
+                new TiledImage(
+                        image.getMinX(),
+                        image.getMinY(),
+                        image.getWidth(),
+                        image.getHeight(),
+                        image.getTileGridXOffset(),
+                        image.getTileGridYOffset(),
+                        image.getSampleModel(),
+                        image.getColorModel());
+        final var tilesX = image.getNumXTiles();
+        // Only the tiles are computed in parallel, TiledImage does not document setData as thread
+        // safe.
+        final var tiles =
+                IntStream.range(0, tilesX * image.getNumYTiles())
+                        .parallel()
+                        .mapToObj(
+                                i ->
+                                        image.getTile(
+                                                image.getMinTileX() + i % tilesX,
+                                                image.getMinTileY() + i / tilesX))
+                        .toList();
+        tiles.forEach(tiled::setData);
+        return tiled;
+    }
+
     @Nullable
     private GridCoverage2D warpToWGS84(final @NotNull Path geoReferencedFile) throws IOException {
         requireNonNull(geoReferencedFile);
@@ -82,7 +198,9 @@ public class GridCoverageService {
                         "-overwrite",
                         geoReferencedFile.toString(),
                         warpedFile.toString());
-        final var result = ProcessUtils.executeProcess(new ProcessBuilder(command));
+        final var result =
+                ingestPipeline.process(
+                        () -> ProcessUtils.executeProcess(new ProcessBuilder(command)));
         if (result
                 instanceof final ProcessUtils.ProcessDidNotFinishResult processDidNotFinishResult) {
             logger.warn("Process didn't finish result: {}", processDidNotFinishResult.stderr());
@@ -112,20 +230,53 @@ public class GridCoverageService {
     }
 
     public BaseFeatureCollection polygons(final GridCoverage2D gridCoverage) throws IOException {
+        final var features = new ArrayList<BaseFeature>();
+        polygons(gridCoverage, features::add);
+        return new BaseFeatureCollection().setFeatures(features);
+    }
+
+    /** Polygonizes and hands the features to {@code sink} one by one as they are created. */
+    public void polygons(final GridCoverage2D gridCoverage, final Consumer<BaseFeature> sink)
+            throws IOException {
+        if (!(gridCoverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT)
+                instanceof final AffineTransform gridToCrs)) {
+            logger.info("Grid to CRS transform is not affine, using gdal_polygonize.");
+            polygonsWithGdal(gridCoverage).getFeatures().forEach(sink);
+            return;
+        }
+        final var noData = CoverageUtilities.getNoDataProperty(gridCoverage);
+        polygonizer.polygonize(
+                gridCoverage.getRenderedImage(),
+                gridToCrs,
+                noData == null ? null : noData.getAsSingleValue(),
+                p ->
+                        sink.accept(
+                                new BaseFeature()
+                                        .setId(UUID.randomUUID().toString())
+                                        .setType("Feature")
+                                        .setProperties(Map.of("DN", p.value()))
+                                        .setGeometry(p.polygon())));
+    }
+
+    /** Polygonizes with a {@code gdal_polygonize.py} subprocess. */
+    public BaseFeatureCollection polygonsWithGdal(final GridCoverage2D gridCoverage)
+            throws IOException {
         final var src = write(gridCoverage);
         // Don't create the temp file directly - gdal cannot override, only create a new file.
         final var result = Files.createTempDirectory("contours").resolve("contours.geojson");
         final var gdal =
-                ProcessUtils.executeProcess(
-                        new ProcessBuilder(
-                                List.of(
-                                        // In docker container, .py is required
-                                        "gdal_polygonize.py",
-                                        src.toAbsolutePath().toString(), // src
-                                        result.toString(), // dest
-                                        "DN",
-                                        "-q" // quiet
-                                        )));
+                ingestPipeline.process(
+                        () ->
+                                ProcessUtils.executeProcess(
+                                        new ProcessBuilder(
+                                                List.of(
+                                                        // In docker container, .py is required
+                                                        "gdal_polygonize.py",
+                                                        src.toAbsolutePath().toString(), // src
+                                                        result.toString(), // dest
+                                                        "DN",
+                                                        "-q" // quiet
+                                                        ))));
         if (gdal instanceof ProcessUtils.ProcessFinishedResult) {
             final var gdalResult =
                     objectMapper.readValue(result.toFile(), BaseFeatureCollection.class);
@@ -147,22 +298,57 @@ public class GridCoverageService {
     }
 
     public static BaseFeatureCollection simplify(final BaseFeatureCollection featureCollection) {
-        return new BaseFeatureCollection()
-                .setFeatures(
-                        featureCollection.getFeatures().stream()
-                                .map(
-                                        f ->
-                                                new BaseFeature()
-                                                        .setId(f.getId())
-                                                        .setProperties(f.getProperties())
-                                                        .setType(f.getType())
-                                                        .setGeometry(
-                                                                simplifyGeometry(f.getGeometry())))
-                                .toList());
+        return simplify(featureCollection, 0.01);
+    }
+
+    /**
+     * Simplifies the polygons as one coverage: an edge shared by two polygons is simplified once,
+     * so neighbours keep matching and no gaps or overlaps appear. Features with an empty result are
+     * left out.
+     *
+     * @param tolerance the distance tolerance in units of the coordinates
+     */
+    public static BaseFeatureCollection simplify(
+            final BaseFeatureCollection featureCollection, final double tolerance) {
+        final var features = List.copyOf(featureCollection.getFeatures());
+        final var simplified =
+                CoverageSimplifier.simplify(
+                        features.stream().map(BaseFeature::getGeometry).toArray(Geometry[]::new),
+                        tolerance);
+        final var result = new ArrayList<BaseFeature>(features.size());
+        for (var i = 0; i < simplified.length; i++) {
+            if (simplified[i] == null || simplified[i].isEmpty()) {
+                continue;
+            }
+            final var f = features.get(i);
+            result.add(
+                    new BaseFeature()
+                            .setId(f.getId())
+                            .setProperties(f.getProperties())
+                            .setType(f.getType())
+                            .setGeometry(simplified[i]));
+        }
+        return new BaseFeatureCollection().setFeatures(result);
     }
 
-    private static Geometry simplifyGeometry(final Geometry geometry) {
-        return DouglasPeuckerSimplifier.simplify(geometry, 0.01);
+    /**
+     * Simplifies the polygons of a single feature, without regard to its neighbours: shared edges
+     * may no longer match exactly. {@code null} if nothing is left of the feature.
+     *
+     * @param tolerance the distance tolerance in units of the coordinates
+     */
+    @Nullable
+    public static BaseFeature simplify(final BaseFeature feature, final double tolerance) {
+        final var simplified =
+                TopologyPreservingSimplifier.simplify(feature.getGeometry(), tolerance);
+        if (simplified == null || simplified.isEmpty()) {
+            return null;
+        }
+        return new BaseFeature()
+                .setId(feature.getId())
+                .setProperties(feature.getProperties())
+                .setType(feature.getType())
+                .setGeometry(simplified);
     }
 
     public static Path write(final @NotNull GridCoverage gridCoverage) throws IOException {
@@ -0,0 +1,20 @@
+package ch.sthomas.hack.start.service.geo;
+
+import ch.sthomas.hack.start.model.feature.GenericFeature;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the features of a layer to its file. The file is only replaced on {@link #close()}, a
+ * discarded writer leaves it as it was.
+ */
+public interface LayerWriter extends Closeable {
+    void write(GenericFeature<?, ?> feature) throws IOException;
+
+    /** The number of features written so far. */
+    long getCount();
+
+    /** Deletes what was written, e.g. after a failed pass. Closing afterward does nothing. */
+    void discard() throws IOException;
+}
@@ -0,0 +1,221 @@
+package ch.sthomas.hack.start.service.geo.fgb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A FlatBuffers table for the few schemas FlatGeobuf needs. Tables are serialized front to back:
+ * the vtable, the table, then the strings, vectors and tables it references, so every offset points
+ * forward as the format requires. Alignment is relative to the start of the size prefix, like
+ * {@code FlatBufferBuilder.finishSizePrefixed}.
+ */
+final class FlatBufferTable {
+    private final List<Field> fields = new ArrayList<>();
+
+    private record Field(int slot, int size, Object value) {
+        boolean isReference() {
+            return !(value instanceof Number);
+        }
+    }
+
+    FlatBufferTable addByte(final int slot, final int value) {
+        return add(slot, 1, (byte) value);
+    }
+
+    FlatBufferTable addShort(final int slot, final int value) {
+        return add(slot, 2, (short) value);
+    }
+
+    FlatBufferTable addInt(final int slot, final int value) {
+        return add(slot, 4, value);
+    }
+
+    FlatBufferTable addLong(final int slot, final long value) {
+        return add(slot, 8, value);
+    }
+
+    FlatBufferTable addString(final int slot, final String value) {
+        return add(slot, 4, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** A {@code [ubyte]} vector. */
+    FlatBufferTable addBytes(final int slot, final byte[] value) {
+        return add(slot, 4, new UByteVector(value));
+    }
+
+    /** A {@code [uint]} vector. */
+    FlatBufferTable addInts(final int slot, final int[] value) {
+        return add(slot, 4, value);
+    }
+
+    FlatBufferTable addDoubles(final int slot, final double[] value) {
+        return add(slot, 4, value);
+    }
+
+    FlatBufferTable addTable(final int slot, final FlatBufferTable value) {
+        return add(slot, 4, value);
+    }
+
+    FlatBufferTable addTables(final int slot, final List<FlatBufferTable> value) {
+        return add(slot, 4, value);
+    }
+
+    private FlatBufferTable add(final int slot, final int size, final Object value) {
+        fields.add(new Field(slot, size, value));
+        return this;
+    }
+
+    private record UByteVector(byte[] bytes) {}
+
+    /** The table as a size prefixed root buffer. */
+    byte[] finishSizePrefixed() {
+        final var out = new Output();
+        out.putInt(0);
+        out.putInt(0);
+        final var root = out.table(this);
+        out.buffer.putInt(4, root - 4);
+        out.buffer.putInt(0, out.buffer.position() - 4);
+        return Arrays.copyOf(out.buffer.array(), out.buffer.position());
+    }
+
+    private static final class Output {
+        private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                final var grown =
+                        ByteBuffer.allocate(
+                                        Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                                .order(ByteOrder.LITTLE_ENDIAN);
+                grown.put(buffer.array(), 0, buffer.position());
+                buffer = grown;
+            }
+        }
+
+        private void pad(final int alignment) {
+            padTo(alignment, 0);
+        }
+
+        /** Pads until the position plus {@code ahead} bytes is aligned. */
+        private void padTo(final int alignment, final int ahead) {
+            ensure(alignment);
+            while ((buffer.position() + ahead) % alignment != 0) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void putInt(final int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private int table(final FlatBufferTable table) {
+            final var slots = table.fields.stream().mapToInt(Field::slot).max().orElse(-1) + 1;
+            pad(2);
+            final var vtable = buffer.position();
+            ensure(4 + 2 * slots);
+            buffer.putShort((short) (4 + 2 * slots));
+            buffer.putShort((short) 0);
+            for (var i = 0; i < slots; i++) {
+                buffer.putShort((short) 0);
+            }
+            pad(4);
+            final var start = buffer.position();
+            putInt(start - vtable);
+            // Largest first keeps the padding between the inline fields small.
+            final var layout =
+                    table.fields.stream()
+                            .sorted(Comparator.comparingInt(Field::size).reversed())
+                            .toList();
+            final var positions = new int[layout.size()];
+            for (var i = 0; i < layout.size(); i++) {
+                final var field = layout.get(i);
+                pad(field.size());
+                positions[i] = buffer.position();
+                ensure(field.size());
+                switch (field.value()) {
+                    case final Byte b -> buffer.put(b);
+                    case final Short s -> buffer.putShort(s);
+                    case final Integer n -> buffer.putInt(n);
+                    case final Long l -> buffer.putLong(l);
+                    default -> buffer.putInt(0);
+                }
+                buffer.putShort(vtable + 4 + 2 * field.slot(), (short) (positions[i] - start));
+            }
+            buffer.putShort(vtable + 2, (short) (buffer.position() - start));
+            for (var i = 0; i < layout.size(); i++) {
+                final var field = layout.get(i);
+                if (field.isReference()) {
+                    final var target = reference(field.value());
+                    buffer.putInt(positions[i], target - positions[i]);
+                }
+            }
+            return start;
+        }
+
+        private int reference(final Object value) {
+            switch (value) {
+                case final byte[] string -> {
+                    pad(4);
+                    final var start = buffer.position();
+                    ensure(5 + string.length);
+                    buffer.putInt(string.length).put(string).put((byte) 0);
+                    return start;
+                }
+                case final UByteVector vector -> {
+                    pad(4);
+                    final var start = buffer.position();
+                    ensure(4 + vector.bytes().length);
+                    buffer.putInt(vector.bytes().length).put(vector.bytes());
+                    return start;
+                }
+                case final int[] ints -> {
+                    pad(4);
+                    final var start = buffer.position();
+                    ensure(4 + 4 * ints.length);
+                    buffer.putInt(ints.length);
+                    for (final var i : ints) {
+                        buffer.putInt(i);
+                    }
+                    return start;
+                }
+                case final double[] doubles -> {
+                    padTo(8, 4);
+                    final var start = buffer.position();
+                    ensure(4 + 8 * doubles.length);
+                    buffer.putInt(doubles.length);
+                    for (final var d : doubles) {
+                        buffer.putDouble(d);
+                    }
+                    return start;
+                }
+                case final FlatBufferTable table -> {
+                    return table(table);
+                }
+                case final List<?> tables -> {
+                    pad(4);
+                    final var start = buffer.position();
+                    ensure(4 + 4 * tables.size());
+                    buffer.putInt(tables.size());
+                    final var offsets = buffer.position();
+                    for (var i = 0; i < tables.size(); i++) {
+                        buffer.putInt(0);
+                    }
+                    for (var i = 0; i < tables.size(); i++) {
+                        final var position = offsets + 4 * i;
+                        buffer.putInt(position, table((FlatBufferTable) tables.get(i)) - position);
+                    }
+                    return start;
+                }
+                default ->
+                        throw new IllegalArgumentException(
+                                "Unsupported field value " + value.getClass());
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package ch.sthomas.hack.start.service.geo.fgb;
+
+import ch.sthomas.hack.start.model.feature.GenericFeature;
+import ch.sthomas.hack.start.service.geo.LayerWriter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a layer as FlatGeobuf with a packed Hilbert R-tree, so a client only reads the index and
+ * the features of its viewport with HTTP range requests. Features are spooled to a temporary file
+ * as they are written, only their envelopes stay in memory. On {@link #close()} they are read back
+ * in Hilbert order into a second temporary file, which then replaces the file atomically, so a
+ * reader never sees a partly written layer. Features without a geometry are left out. Properties
+ * are converted like in the GeoJSON, values that are neither numbers, booleans nor strings are
+ * stored as JSON.
+ */
+public class FlatGeobufWriter implements LayerWriter {
+    private static final byte[] MAGIC = {0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00};
+    static final int NODE_SIZE = 16;
+
+    private static final TypeReference<Map<String, Object>> PROPERTIES = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+    private final Path spool;
+    private final DataOutputStream spoolOut;
+    private final WKBWriter wkbWriter = new WKBWriter();
+    private final List<Envelope> envelopes = new ArrayList<>();
+    private long[] spoolOffsets = new long[1024];
+    private long spoolSize;
+    private final Map<String, ColumnType> columns = new LinkedHashMap<>();
+
+    /** The type of all geometries, -1 before the first one and 0 once they are mixed. */
+    private int geometryType = -1;
+
+    private boolean closed;
+
+    public FlatGeobufWriter(final ObjectMapper objectMapper, final Path file) throws IOException {
+        this.objectMapper = objectMapper;
+        this.file = file;
+        spool = tempFile(file);
+        spoolOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool)));
+    }
+
+    /** The FlatGeobuf file of a GeoJSON layer, next to it. */
+    public static Path of(final Path geoJson) {
+        final var name = geoJson.getFileName().toString();
+        final var extension = name.lastIndexOf('.');
+        return geoJson.resolveSibling(
+                (extension < 0 ? name : name.substring(0, extension)) + ".fgb");
+    }
+
+    /** Writes the features to the file. */
+    public static void write(
+            final ObjectMapper objectMapper,
+            final Path file,
+            final Collection<? extends GenericFeature<?, ?>> features)
+            throws IOException {
+        try (final var writer = new FlatGeobufWriter(objectMapper, file)) {
+            for (final var feature : features) {
+                writer.write(feature);
+            }
+        }
+    }
+
+    /** Spools the geometry as WKB and the properties as JSON. */
+    @Override
+    public void write(final GenericFeature<?, ?> feature) throws IOException {
+        final var geometry = feature.getGeometry();
+        if (geometry == null || geometry.isEmpty()) {
+            return;
+        }
+        final var values =
+                feature.getProperties() == null
+                        ? Map.<String, Object>of()
+                        : objectMapper.convertValue(feature.getProperties(), PROPERTIES);
+        values.forEach(
+                (key, value) -> {
+                    if (value != null) {
+                        columns.merge(key, ColumnType.of(value), ColumnType::merge);
+                    }
+                });
+        final var type = type(geometry);
+        geometryType = geometryType < 0 || geometryType == type ? type : 0;
+
+        final var wkb = wkbWriter.write(geometry);
+        final var json = objectMapper.writeValueAsBytes(values);
+        spoolOut.writeInt(wkb.length);
+        spoolOut.write(wkb);
+        spoolOut.writeInt(json.length);
+        spoolOut.write(json);
+        final var count = envelopes.size();
+        if (count == spoolOffsets.length) {
+            spoolOffsets = Arrays.copyOf(spoolOffsets, 2 * count);
+        }
+        spoolOffsets[count] = spoolSize;
+        spoolSize += 2 * Integer.BYTES + wkb.length + json.length;
+        envelopes.add(geometry.getEnvelopeInternal());
+    }
+
+    @Override
+    public long getCount() {
+        return envelopes.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Path target = null;
+        try {
+            spoolOut.close();
+            target = tempFile(file);
+            writeLayer(target);
+            Files.move(
+                    target,
+                    file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(spool);
+            if (target != null) {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    @Override
+    public void discard() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            spoolOut.close();
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private void writeLayer(final Path target) throws IOException {
+        final var count = envelopes.size();
+        final var extent = new Envelope();
+        envelopes.forEach(extent::expandToInclude);
+        // The Hilbert index in the upper half, the feature in the lower half, sorted descending
+        // like the reference implementation. The order only affects locality.
+        final var order = new long[count];
+        for (var i = 0; i < count; i++) {
+            order[i] =
+                    Integer.toUnsignedLong(PackedRTree.hilbert(envelopes.get(i), extent)) << 32 | i;
+        }
+        Arrays.sort(order);
+
+        final var columnIndex = List.copyOf(columns.keySet());
+        final var header = header(extent, columnIndex);
+        final var indexSize =
+                count == 0
+                        ? 0
+                        : PackedRTree.levelBounds(count, NODE_SIZE).getFirst()[1]
+                                * PackedRTree.NODE_ITEM_BYTES;
+        final var leaves = new ArrayList<Envelope>(count);
+        final var offsets = new long[count];
+        final var wkbReader = new WKBReader();
+        try (final var in = FileChannel.open(spool, StandardOpenOption.READ);
+                final var out =
+                        FileChannel.open(
+                                target,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The features first, the index needs their offsets.
+            out.position(MAGIC.length + header.length + indexSize);
+            final var features = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+            var offset = 0L;
+            for (var i = 0; i < count; i++) {
+                final var feature = (int) order[count - 1 - i];
+                var position = spoolOffsets[feature];
+                final var wkb = readRecord(in, position);
+                position += Integer.BYTES + wkb.length;
+                final var json = readRecord(in, position);
+                final Geometry geometry;
+                try {
+                    geometry = wkbReader.read(wkb);
+                } catch (final ParseException e) {
+                    throw new IOException("Corrupt spooled geometry", e);
+                }
+                final var encoded =
+                        feature(geometry, objectMapper.readValue(json, PROPERTIES), columnIndex);
+                features.write(encoded);
+                leaves.add(envelopes.get(feature));
+                offsets[i] = offset;
+                offset += encoded.length;
+            }
+            features.flush();
+            out.position(0);
+            writeFully(out, ByteBuffer.wrap(MAGIC));
+            writeFully(out, ByteBuffer.wrap(header));
+            if (count > 0) {
+                writeFully(out, ByteBuffer.wrap(PackedRTree.write(leaves, offsets, NODE_SIZE)));
+            }
+        }
+    }
+
+    private static byte[] readRecord(final FileChannel channel, final long position)
+            throws IOException {
+        final var length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, length, position);
+        final var record = ByteBuffer.allocate(length.flip().getInt());
+        readFully(channel, record, position + Integer.BYTES);
+        return record.array();
+    }
+
+    private static void readFully(
+            final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated spool file");
+            }
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** A hidden temporary file next to the layer, neither served nor taken for a layer. */
+    private static Path tempFile(final Path file) throws IOException {
+        return Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+    }
+
+    private byte[] header(final Envelope extent, final List<String> columnNames) {
+        final var name = file.getFileName().toString();
+        final var header =
+                new FlatBufferTable()
+                        .addString(0, name.substring(0, Math.max(0, name.lastIndexOf('.'))))
+                        .addByte(2, Math.max(0, geometryType))
+                        .addLong(8, envelopes.size())
+                        .addShort(9, envelopes.isEmpty() ? 0 : NODE_SIZE)
+                        .addTable(10, new FlatBufferTable().addString(0, "EPSG").addInt(1, 4326));
+        if (!envelopes.isEmpty()) {
+            header.addDoubles(
+                    1,
+                    new double[] {
+                        extent.getMinX(), extent.getMinY(), extent.getMaxX(), extent.getMaxY()
+                    });
+        }
+        if (!columnNames.isEmpty()) {
+            header.addTables(
+                    7,
+                    columnNames.stream()
+                            .map(
+                                    column ->
+                                            new FlatBufferTable()
+                                                    .addString(0, column)
+                                                    .addByte(1, columns.get(column).code))
+                            .toList());
+        }
+        return header.finishSizePrefixed();
+    }
+
+    private byte[] feature(
+            final Geometry geometry,
+            final Map<String, Object> values,
+            final List<String> columnNames)
+            throws IOException {
+        final var feature = new FlatBufferTable().addTable(0, geometry(geometry));
+        final var encoded = new PropertyOutput();
+        for (var i = 0; i < columnNames.size(); i++) {
+            final var value = values.get(columnNames.get(i));
+            if (value == null) {
+                continue;
+            }
+            encoded.putShort(i);
+            switch (columns.get(columnNames.get(i))) {
+                case BOOL -> encoded.write(Boolean.TRUE.equals(value) ? 1 : 0);
+                case INT -> encoded.putInt(((Number) value).intValue());
+                case LONG -> encoded.putLong(((Number) value).longValue());
+                case DOUBLE -> encoded.putDouble(((Number) value).doubleValue());
+                case STRING -> encoded.putString((String) value);
+                case JSON -> encoded.putString(objectMapper.writeValueAsString(value));
+            }
+        }
+        if (encoded.size() > 0) {
+            feature.addBytes(1, encoded.toByteArray());
+        }
+        return feature.finishSizePrefixed();
+    }
+
+    private static FlatBufferTable geometry(final Geometry geometry) {
+        final var table = new FlatBufferTable().addByte(6, type(geometry));
+        switch (geometry) {
+            case final Point point ->
+                    table.addDoubles(1, xy(List.of(point.getCoordinateSequence())));
+            case final LineString line ->
+                    table.addDoubles(1, xy(List.of(line.getCoordinateSequence())));
+            case final Polygon polygon -> {
+                final var rings = new ArrayList<CoordinateSequence>();
+                rings.add(polygon.getExteriorRing().getCoordinateSequence());
+                for (var i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    rings.add(polygon.getInteriorRingN(i).getCoordinateSequence());
+                }
+                addParts(table, rings);
+            }
+            case final MultiPoint points -> {
+                final var xy = new double[2 * points.getNumGeometries()];
+                for (var i = 0; i < points.getNumGeometries(); i++) {
+                    final var point = (Point) points.getGeometryN(i);
+                    xy[2 * i] = point.getX();
+                    xy[2 * i + 1] = point.getY();
+                }
+                table.addDoubles(1, xy);
+            }
+            case final MultiLineString lines ->
+                    addParts(
+                            table,
+                            IntStream.range(0, lines.getNumGeometries())
+                                    .mapToObj(
+                                            i ->
+                                                    ((LineString) lines.getGeometryN(i))
+                                                            .getCoordinateSequence())
+                                    .toList());
+            // Multi polygons and collections are stored as parts of their own type.
+            case final GeometryCollection collection ->
+                    table.addTables(
+                            7,
+                            IntStream.range(0, collection.getNumGeometries())
+                                    .mapToObj(i -> geometry(collection.getGeometryN(i)))
+                                    .toList());
+            default ->
+                    throw new IllegalArgumentException(
+                            "Unsupported geometry type " + geometry.getGeometryType());
+        }
+        return table;
+    }
+
+    /** Adds the coordinates and, for more than one part, where each part ends. */
+    private static void addParts(
+            final FlatBufferTable table, final List<CoordinateSequence> parts) {
+        table.addDoubles(1, xy(parts));
+        if (parts.size() > 1) {
+            final var ends = new int[parts.size()];
+            var end = 0;
+            for (var i = 0; i < parts.size(); i++) {
+                end += parts.get(i).size();
+                ends[i] = end;
+            }
+            table.addInts(0, ends);
+        }
+    }
+
+    private static double[] xy(final List<CoordinateSequence> sequences) {
+        final var xy = new double[2 * sequences.stream().mapToInt(CoordinateSequence::size).sum()];
+        var i = 0;
+        for (final var sequence : sequences) {
+            for (var j = 0; j < sequence.size(); j++) {
+                xy[i++] = sequence.getX(j);
+                xy[i++] = sequence.getY(j);
+            }
+        }
+        return xy;
+    }
+
+    private static int type(final Geometry geometry) {
+        return switch (geometry) {
+            case final Point point -> 1;
+            case final LineString line -> 2;
+            case final Polygon polygon -> 3;
+            case final MultiPoint points -> 4;
+            case final MultiLineString lines -> 5;
+            case final MultiPolygon polygons -> 6;
+            case final GeometryCollection collection -> 7;
+            default -> 0;
+        };
+    }
+
+    /** The column types used for the properties, with their FlatGeobuf {@code ColumnType}. */
+    enum ColumnType {
+        BOOL(2),
+        INT(5),
+        LONG(7),
+        DOUBLE(10),
+        STRING(11),
+        JSON(12);
+
+        private final int code;
+
+        ColumnType(final int code) {
+            this.code = code;
+        }
+
+        static ColumnType of(final Object value) {
+            return switch (value) {
+                case final Boolean b -> BOOL;
+                case final Integer i -> INT;
+                case final Short s -> INT;
+                case final Byte b -> INT;
+                case final Long l -> LONG;
+                case final Double d -> DOUBLE;
+                case final Float f -> DOUBLE;
+                case final BigDecimal d -> DOUBLE;
+                case final String s -> STRING;
+                default -> JSON;
+            };
+        }
+
+        /** The type that holds values of both types, numbers are widened. */
+        static ColumnType merge(final ColumnType a, final ColumnType b) {
+            if (a == b) {
+                return a;
+            }
+            final var numbers = List.of(INT, LONG, DOUBLE);
+            if (numbers.contains(a) && numbers.contains(b)) {
+                return a.compareTo(b) > 0 ? a : b;
+            }
+            return JSON;
+        }
+    }
+
+    /** The little endian property buffer of a feature. */
+    private static final class PropertyOutput extends ByteArrayOutputStream {
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        void putShort(final int value) {
+            write(scratch.clear().putShort((short) value).array(), 0, 2);
+        }
+
+        void putInt(final int value) {
+            write(scratch.clear().putInt(value).array(), 0, 4);
+        }
+
+        void putLong(final long value) {
+            write(scratch.clear().putLong(value).array(), 0, 8);
+        }
+
+        void putDouble(final double value) {
+            write(scratch.clear().putDouble(value).array(), 0, 8);
+        }
+
+        void putString(final String value) {
+            final var bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
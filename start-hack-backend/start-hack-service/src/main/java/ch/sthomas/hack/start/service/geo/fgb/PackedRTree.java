@@ -0,0 +1,165 @@
+package ch.sthomas.hack.start.service.geo.fgb;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The static packed Hilbert R-tree of FlatGeobuf. The nodes are stored level by level from the root
+ * to the leaves, a leaf points to the byte offset of its feature in the feature section and any
+ * other node to the index of its first child.
+ */
+final class PackedRTree {
+    static final int NODE_ITEM_BYTES = 40;
+
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private PackedRTree() {}
+
+    /** The position of the center of the envelope on the Hilbert curve through the extent. */
+    static int hilbert(final Envelope envelope, final Envelope extent) {
+        var x = 0;
+        var y = 0;
+        if (extent.getWidth() != 0) {
+            x =
+                    (int)
+                            Math.floor(
+                                    HILBERT_MAX
+                                            * ((envelope.getMinX() + envelope.getMaxX()) / 2
+                                                    - extent.getMinX())
+                                            / extent.getWidth());
+        }
+        if (extent.getHeight() != 0) {
+            y =
+                    (int)
+                            Math.floor(
+                                    HILBERT_MAX
+                                            * ((envelope.getMinY() + envelope.getMaxY()) / 2
+                                                    - extent.getMinY())
+                                            / extent.getHeight());
+        }
+        return hilbert(x, y);
+    }
+
+    /** The Hilbert index of a position on a 2^16 x 2^16 grid, unsigned. */
+    static int hilbert(final int x, final int y) {
+        var a = x ^ y;
+        var b = 0xFFFF ^ a;
+        var c = 0xFFFF ^ (x | y);
+        var d = x & (y ^ 0xFFFF);
+
+        var aa = a | (b >>> 1);
+        var bb = (a >>> 1) ^ a;
+        var cc = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        var dd = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        aa = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        bb = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        cc ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        dd ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        aa = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        bb = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        cc ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        dd ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = aa;
+        b = bb;
+        c = cc;
+        d = dd;
+        cc ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        dd ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = cc ^ (cc >>> 1);
+        b = dd ^ (dd >>> 1);
+
+        var i0 = x ^ y;
+        var i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+
+    /**
+     * The {@code [start, end)} node indices of every level, from the leaves to the root. There is
+     * at least one level above the leaves, even for a single item.
+     */
+    static List<long[]> levelBounds(final long items, final int nodeSize) {
+        final var levelNodes = new ArrayList<Long>();
+        var n = items;
+        var nodes = n;
+        levelNodes.add(n);
+        do {
+            n = (n + nodeSize - 1) / nodeSize;
+            nodes += n;
+            levelNodes.add(n);
+        } while (n != 1);
+        final var bounds = new ArrayList<long[]>(levelNodes.size());
+        for (final var size : levelNodes) {
+            nodes -= size;
+            bounds.add(new long[] {nodes, nodes + size});
+        }
+        return bounds;
+    }
+
+    /**
+     * Builds the tree over the leaves, which are in feature order, and encodes it.
+     *
+     * @param offsets the byte offset of every feature in the feature section
+     */
+    static byte[] write(final List<Envelope> leaves, final long[] offsets, final int nodeSize) {
+        final var levels = levelBounds(leaves.size(), nodeSize);
+        // The leaves are the last level in storage order, they end with the tree.
+        final var count = Math.toIntExact(levels.getFirst()[1]);
+        final var envelopes = new Envelope[count];
+        final var pointers = new long[count];
+        final var leafStart = (int) levels.getFirst()[0];
+        for (var i = 0; i < leaves.size(); i++) {
+            envelopes[leafStart + i] = leaves.get(i);
+            pointers[leafStart + i] = offsets[i];
+        }
+        for (var level = 0; level < levels.size() - 1; level++) {
+            var position = (int) levels.get(level)[0];
+            final var end = (int) levels.get(level)[1];
+            var parent = (int) levels.get(level + 1)[0];
+            while (position < end) {
+                final var envelope = new Envelope();
+                pointers[parent] = position;
+                for (var j = 0; j < nodeSize && position < end; j++) {
+                    envelope.expandToInclude(envelopes[position++]);
+                }
+                envelopes[parent++] = envelope;
+            }
+        }
+        final var buffer =
+                ByteBuffer.allocate(count * NODE_ITEM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (var i = 0; i < count; i++) {
+            buffer.putDouble(envelopes[i].getMinX())
+                    .putDouble(envelopes[i].getMinY())
+                    .putDouble(envelopes[i].getMaxX())
+                    .putDouble(envelopes[i].getMaxY())
+                    .putLong(pointers[i]);
+        }
+        return buffer.array();
+    }
+}
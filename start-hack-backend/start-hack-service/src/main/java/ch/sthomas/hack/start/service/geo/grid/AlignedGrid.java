@@ -0,0 +1,190 @@
+package ch.sthomas.hack.start.service.geo.grid;
+
+import java.awt.geom.AffineTransform;
+import java.util.stream.IntStream;
+
+/**
+ * A regular target grid of {@code rows x columns} cells. Row {@code i} lies at ordinate 0 {@code
+ * minOrdinate0 + (rows - i) * cellSize}, column {@code j} at ordinate 1 {@code minOrdinate1 + j *
+ * cellSize}.
+ *
+ * <p>Source rasters are mapped onto the grid once ({@link #source}): for axis aligned sources the
+ * source column and row of a cell only depend on the target row or column, so the mapping is two
+ * small lookup tables and combining rasters is plain index arithmetic on their sample arrays.
+ */
+public final class AlignedGrid {
+    private final double minOrdinate0;
+    private final double minOrdinate1;
+    private final int rows;
+    private final int columns;
+    private final double cellSize;
+
+    public AlignedGrid(
+            final double minOrdinate0,
+            final double minOrdinate1,
+            final int rows,
+            final int columns,
+            final double cellSize) {
+        this.minOrdinate0 = minOrdinate0;
+        this.minOrdinate1 = minOrdinate1;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellSize = cellSize;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public double ordinate0(final int row) {
+        return minOrdinate0 + (rows - row) * cellSize;
+    }
+
+    public double ordinate1(final int column) {
+        return minOrdinate1 + column * cellSize;
+    }
+
+    /**
+     * Maps a source raster onto the grid.
+     *
+     * @param samples band 0 of the source, row major
+     * @param minX the x of the first sample, like {@code RenderedImage.getMinX}
+     * @param minY the y of the first sample
+     * @param worldToGrid maps world positions to pixel centers, a cell takes the nearest pixel
+     */
+    public Source source(
+            final int[] samples,
+            final int minX,
+            final int minY,
+            final int width,
+            final int height,
+            final AffineTransform worldToGrid) {
+        final var m = new double[6];
+        worldToGrid.getMatrix(m);
+        final var xByRow = new int[rows];
+        final var yByRow = new int[rows];
+        final var xByColumn = new int[columns];
+        final var yByColumn = new int[columns];
+        // getMatrix order is m00 m10 m01 m11 m02 m12. Dropping a zero term is exact, so a lookup
+        // is the same pixel AffineTransform.transform and rounding would give. The table an
+        // ordinate does not contribute to stays zero.
+        if (m[2] == 0 && m[1] == 0) {
+            for (var i = 0; i < rows; i++) {
+                final var o0 = ordinate0(i);
+                xByRow[i] = (int) Math.round(o0 * m[0] + m[4]) - minX;
+            }
+            for (var j = 0; j < columns; j++) {
+                final var o1 = ordinate1(j);
+                yByColumn[j] = (int) Math.round(o1 * m[3] + m[5]) - minY;
+            }
+        } else if (m[0] == 0 && m[3] == 0) {
+            for (var i = 0; i < rows; i++) {
+                final var o0 = ordinate0(i);
+                yByRow[i] = (int) Math.round(o0 * m[1] + m[5]) - minY;
+            }
+            for (var j = 0; j < columns; j++) {
+                final var o1 = ordinate1(j);
+                xByColumn[j] = (int) Math.round(o1 * m[2] + m[4]) - minX;
+            }
+        } else {
+            return new Source(samples, width, height, null, null, null, null, m, minX, minY, this);
+        }
+        return new Source(
+                samples, width, height, xByRow, yByRow, xByColumn, yByColumn, m, minX, minY, this);
+    }
+
+    /** A source raster mapped onto the grid, safe for concurrent reads. */
+    public static final class Source {
+        private final int[] samples;
+        private final int width;
+        private final int height;
+        private final int[] xByRow;
+        private final int[] yByRow;
+        private final int[] xByColumn;
+        private final int[] yByColumn;
+        private final double[] matrix;
+        private final int minX;
+        private final int minY;
+        private final AlignedGrid grid;
+
+        private Source(
+                final int[] samples,
+                final int width,
+                final int height,
+                final int[] xByRow,
+                final int[] yByRow,
+                final int[] xByColumn,
+                final int[] yByColumn,
+                final double[] matrix,
+                final int minX,
+                final int minY,
+                final AlignedGrid grid) {
+            this.samples = samples;
+            this.width = width;
+            this.height = height;
+            this.xByRow = xByRow;
+            this.yByRow = yByRow;
+            this.xByColumn = xByColumn;
+            this.yByColumn = yByColumn;
+            this.matrix = matrix;
+            this.minX = minX;
+            this.minY = minY;
+            this.grid = grid;
+        }
+
+        /** The sample index of the cell in the source, {@code -1} if the cell is outside of it. */
+        public int index(final int row, final int column) {
+            final int x;
+            final int y;
+            if (xByRow == null) {
+                // Rotated or sheared source, transform the cell like AffineTransform does.
+                final var o0 = grid.ordinate0(row);
+                final var o1 = grid.ordinate1(column);
+                final var m = matrix;
+                x = (int) Math.round(o0 * m[0] + o1 * m[2] + m[4]) - minX;
+                y = (int) Math.round(o0 * m[1] + o1 * m[3] + m[5]) - minY;
+            } else {
+                x = xByRow[row] + xByColumn[column];
+                y = yByRow[row] + yByColumn[column];
+            }
+            return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+        }
+
+        public int sample(final int index) {
+            return samples[index];
+        }
+    }
+
+    /** Computes one cell of the target grid. */
+    @FunctionalInterface
+    public interface CellFunction {
+        int apply(int row, int column);
+    }
+
+    /**
+     * Computes every cell, in parallel bands of rows. The result is row major, {@code values[row *
+     * columns + column]}.
+     */
+    public int[] compute(final CellFunction function) {
+        final var values = new int[rows * columns];
+        final var bandRows =
+                Math.max(1, Math.ceilDiv(rows, 4 * Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, Math.ceilDiv(rows, bandRows))
+                .parallel()
+                .forEach(
+                        band -> {
+                            final var end = Math.min(rows, (band + 1) * bandRows);
+                            for (var row = band * bandRows; row < end; row++) {
+                                final var offset = row * columns;
+                                for (var column = 0; column < columns; column++) {
+                                    values[offset + column] = function.apply(row, column);
+                                }
+                            }
+                        });
+        return values;
+    }
+}
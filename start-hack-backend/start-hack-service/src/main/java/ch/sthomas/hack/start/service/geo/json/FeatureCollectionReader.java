@@ -0,0 +1,204 @@
+package ch.sthomas.hack.start.service.geo.json;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Reads a GeoJSON feature collection feature by feature, so a layer never has to be held in memory
+ * as a whole.
+ *
+ * <p>With a parallelism above one, the file is only tokenized on the calling thread to find the
+ * byte ranges of chunks of features. The chunks are bound to {@link BaseFeature}s (the expensive
+ * part) by worker threads, and handed to the sink on the calling thread in file order. At most two
+ * chunks per worker are in memory at a time.
+ */
+public class FeatureCollectionReader {
+    private static final int CHUNK_FEATURES = 1000;
+
+    private final ObjectMapper objectMapper;
+    private final int parallelism;
+
+    public FeatureCollectionReader(final ObjectMapper objectMapper, final int parallelism) {
+        this.objectMapper = objectMapper;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Passes every feature of the collection to the sink, in file order.
+     *
+     * @return the number of features read
+     */
+    public long read(final Path file, final Consumer<BaseFeature> sink) throws IOException {
+        try (final var parser = objectMapper.createParser(file.toFile())) {
+            if (!toFeatures(parser)) {
+                return 0;
+            }
+            return parallelism == 1
+                    ? readSequential(parser, sink)
+                    : readParallel(file, parser, sink);
+        }
+    }
+
+    /** Receives a feature and the byte range of its object in the file. */
+    @FunctionalInterface
+    public interface RangeSink {
+        void accept(BaseFeature feature, long start, long end);
+    }
+
+    /**
+     * Passes every feature of the collection with its byte range to the sink, in file order. The
+     * file is read on the calling thread.
+     *
+     * @return the number of features read
+     */
+    public long readRanges(final Path file, final RangeSink sink) throws IOException {
+        try (final var parser = objectMapper.createParser(file.toFile())) {
+            if (!toFeatures(parser)) {
+                return 0;
+            }
+            var count = 0L;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final var start = parser.currentTokenLocation().getByteOffset();
+                final var feature = parser.readValueAs(BaseFeature.class);
+                sink.accept(feature, start, parser.currentLocation().getByteOffset());
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /** Moves the parser to the start of the features array, {@code false} if there is none. */
+    private static boolean toFeatures(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a feature collection object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final var field = parser.currentName();
+            final var value = parser.nextToken();
+            if ("features".equals(field) && value == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private long readSequential(final JsonParser parser, final Consumer<BaseFeature> sink)
+            throws IOException {
+        var count = 0L;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            sink.accept(parser.readValueAs(BaseFeature.class));
+            count++;
+        }
+        return count;
+    }
+
+    private long readParallel(
+            final Path file, final JsonParser parser, final Consumer<BaseFeature> sink)
+            throws IOException {
+        final var pending = new ArrayDeque<CompletableFuture<List<BaseFeature>>>();
+        var count = 0L;
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ);
+                final ExecutorService executor = Executors.newFixedThreadPool(parallelism)) {
+            var chunkStart = -1L;
+            var chunkEnd = -1L;
+            var chunkFeatures = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (chunkFeatures == 0) {
+                    chunkStart = parser.currentTokenLocation().getByteOffset();
+                }
+                parser.skipChildren();
+                chunkEnd = parser.currentLocation().getByteOffset();
+                if (++chunkFeatures == CHUNK_FEATURES) {
+                    pending.add(bindAsync(channel, chunkStart, chunkEnd, executor));
+                    chunkFeatures = 0;
+                    while (pending.size() >= 2 * parallelism) {
+                        count += drain(pending.poll(), sink);
+                    }
+                }
+            }
+            if (chunkFeatures > 0) {
+                pending.add(bindAsync(channel, chunkStart, chunkEnd, executor));
+            }
+            while (!pending.isEmpty()) {
+                count += drain(pending.poll(), sink);
+            }
+        }
+        return count;
+    }
+
+    private CompletableFuture<List<BaseFeature>> bindAsync(
+            final FileChannel channel,
+            final long start,
+            final long end,
+            final ExecutorService executor) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        return bind(channel, start, end);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                executor);
+    }
+
+    /** Reads the features between the byte offsets, wrapped in brackets to form an array. */
+    private List<BaseFeature> bind(final FileChannel channel, final long start, final long end)
+            throws IOException {
+        final var bytes = new byte[(int) (end - start) + 2];
+        bytes[0] = '[';
+        bytes[bytes.length - 1] = ']';
+        final var buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 2);
+        var position = start;
+        while (buffer.hasRemaining()) {
+            final var read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+        final var features = new ArrayList<BaseFeature>(CHUNK_FEATURES);
+        try (final var parser = objectMapper.createParser(bytes)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                features.add(parser.readValueAs(BaseFeature.class));
+            }
+        }
+        return features;
+    }
+
+    private static long drain(
+            final CompletableFuture<List<BaseFeature>> chunk, final Consumer<BaseFeature> sink)
+            throws IOException {
+        final List<BaseFeature> features;
+        try {
+            features = chunk.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final UncheckedIOException ioException) {
+                throw ioException.getCause();
+            }
+            throw e;
+        }
+        features.forEach(sink);
+        return features.size();
+    }
+}
@@ -0,0 +1,113 @@
+package ch.sthomas.hack.start.service.geo.json;
+
+import ch.sthomas.hack.start.model.feature.GenericFeature;
+import ch.sthomas.hack.start.service.geo.LayerWriter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes a GeoJSON feature collection feature by feature, so a layer never has to be held in memory
+ * as a whole. The collection is written to a hidden temporary file next to the target, completed on
+ * {@link #close()} and then moved over the target atomically, so the file is never seen half
+ * written.
+ */
+public class FeatureCollectionWriter implements LayerWriter {
+    private final Path file;
+    private final Path tmp;
+    private final CountingOutputStream out;
+    private final JsonGenerator generator;
+    private long count;
+    private boolean closed;
+
+    public FeatureCollectionWriter(final ObjectMapper objectMapper, final Path file)
+            throws IOException {
+        this.file = file;
+        tmp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        out = new CountingOutputStream(Files.newOutputStream(tmp));
+        generator = objectMapper.createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeStringField("type", "FeatureCollection");
+        generator.writeArrayFieldStart("features");
+    }
+
+    @Override
+    public void write(final GenericFeature<?, ?> feature) throws IOException {
+        generator.writeObject(feature);
+        count++;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of bytes written so far. Taken before and after a feature is written, it is the
+     * byte range of the feature, preceded by the separator from the previous one.
+     */
+    public long getPosition() {
+        return out.count + generator.getOutputBuffered();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            try {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            } finally {
+                generator.close();
+            }
+            Files.move(
+                    tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void discard() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            generator.close();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package ch.sthomas.hack.start.service.geo.polygonize;
+
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotNull;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * In-process replacement for {@code gdal_polygonize.py}: groups 4-connected pixels of equal value
+ * into polygons (with holes) and transforms the pixel corners to world coordinates.
+ *
+ * <p>Floating point samples are rounded to integers like GDAL does, no-data and NaN pixels are
+ * skipped.
+ */
+public class RasterPolygonizer {
+
+    private static final int EAST = 0;
+    private static final int SOUTH = 1;
+    private static final int WEST = 2;
+    private static final int NORTH = 3;
+
+    private static final int UNLABELED = -1;
+    private static final int NO_DATA = -2;
+
+    private final GeometryFactory geometryFactory;
+
+    public RasterPolygonizer(@NotNull final GeometryFactory geometryFactory) {
+        this.geometryFactory = Objects.requireNonNull(geometryFactory);
+    }
+
+    public record RasterPolygon(int value, Polygon polygon) {}
+
+    /**
+     * Polygonizes the first band of the image.
+     *
+     * @param gridToWorld maps pixel corners (in image coordinates) to world coordinates
+     * @param noData sample value to skip, if any
+     */
+    @NotNull
+    public List<RasterPolygon> polygonize(
+            @NotNull final RenderedImage image,
+            @NotNull final AffineTransform gridToWorld,
+            @Nullable final Double noData) {
+        final var polygons = new ArrayList<RasterPolygon>();
+        polygonize(image, gridToWorld, noData, polygons::add);
+        return polygons;
+    }
+
+    /**
+     * Polygonizes the first band of the image and hands the polygons to {@code sink} one by one.
+     * Only the rings (as pixel corners) are kept until then, the world geometries are created right
+     * before they are passed on.
+     *
+     * @param gridToWorld maps pixel corners (in image coordinates) to world coordinates
+     * @param noData sample value to skip, if any
+     */
+    public void polygonize(
+            @NotNull final RenderedImage image,
+            @NotNull final AffineTransform gridToWorld,
+            @Nullable final Double noData,
+            @NotNull final Consumer<RasterPolygon> sink) {
+        final var width = image.getWidth();
+        final var height = image.getHeight();
+        final var values = new int[width * height];
+        final var labels = new int[width * height];
+        readSamples(image, noData, values, labels);
+
+        final var labelValues = label(values, labels, width, height);
+        final var edges = boundaryEdges(labels, width, height);
+
+        final var shells = new int[labelValues.length][];
+        final var holes = new HashMap<Integer, List<int[]>>();
+        for (var vertex = 0; vertex < edges.length; vertex++) {
+            while (edges[vertex] != 0) {
+                final var direction = Integer.numberOfTrailingZeros(edges[vertex]);
+                final var label = owner(labels, width, vertex, direction);
+                for (final var ring : traceRing(edges, labels, width, vertex, direction, label)) {
+                    if (signedArea(ring) > 0) {
+                        shells[label] = ring;
+                    } else {
+                        holes.computeIfAbsent(label, l -> new ArrayList<>()).add(ring);
+                    }
+                }
+            }
+        }
+
+        for (var label = 0; label < labelValues.length; label++) {
+            final var shell = toWorld(shells[label], image, gridToWorld);
+            final var interior =
+                    holes.getOrDefault(label, List.of()).stream()
+                            .map(h -> toWorld(h, image, gridToWorld))
+                            .toArray(LinearRing[]::new);
+            shells[label] = null;
+            holes.remove(label);
+            sink.accept(
+                    new RasterPolygon(
+                            labelValues[label], geometryFactory.createPolygon(shell, interior)));
+        }
+    }
+
+    /** Reads band 0 tile by tile, marking no-data pixels directly in {@code labels}. */
+    private static void readSamples(
+            final RenderedImage image,
+            @Nullable final Double noData,
+            final int[] values,
+            final int[] labels) {
+        final var bounds =
+                new Rectangle(
+                        image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        final var dataType = image.getSampleModel().getDataType();
+        final var floating =
+                dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE;
+        int[] intSamples = null;
+        double[] doubleSamples = null;
+        for (var ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+            for (var tx = image.getMinTileX();
+                    tx < image.getMinTileX() + image.getNumXTiles();
+                    tx++) {
+                final var tile = image.getTile(tx, ty);
+                final var region = tile.getBounds().intersection(bounds);
+                if (region.isEmpty()) {
+                    continue;
+                }
+                if (floating) {
+                    doubleSamples =
+                            tile.getSamples(
+                                    region.x,
+                                    region.y,
+                                    region.width,
+                                    region.height,
+                                    0,
+                                    fit(doubleSamples, region));
+                } else {
+                    intSamples =
+                            tile.getSamples(
+                                    region.x,
+                                    region.y,
+                                    region.width,
+                                    region.height,
+                                    0,
+                                    fit(intSamples, region));
+                }
+                for (var row = 0; row < region.height; row++) {
+                    final var offset =
+                            (region.y - bounds.y + row) * bounds.width + region.x - bounds.x;
+                    for (var col = 0; col < region.width; col++) {
+                        final var sample = row * region.width + col;
+                        final var pixel = offset + col;
+                        final double value;
+                        if (floating) {
+                            value = doubleSamples[sample];
+                            values[pixel] = (int) Math.round(value);
+                        } else {
+                            value = intSamples[sample];
+                            values[pixel] = intSamples[sample];
+                        }
+                        labels[pixel] =
+                                Double.isNaN(value) || noData != null && value == noData
+                                        ? NO_DATA
+                                        : UNLABELED;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] fit(final int[] buffer, final Rectangle region) {
+        final var size = region.width * region.height;
+        return buffer != null && buffer.length >= size ? buffer : new int[size];
+    }
+
+    private static double[] fit(final double[] buffer, final Rectangle region) {
+        final var size = region.width * region.height;
+        return buffer != null && buffer.length >= size ? buffer : new double[size];
+    }
+
+    /**
+     * Flood fills 4-connected regions of equal value.
+     *
+     * @return the sample value of every label
+     */
+    private static int[] label(
+            final int[] values, final int[] labels, final int width, final int height) {
+        var labelValues = new int[64];
+        var labelCount = 0;
+        final var stack = new int[values.length];
+        for (var start = 0; start < values.length; start++) {
+            if (labels[start] != UNLABELED) {
+                continue;
+            }
+            final var label = labelCount++;
+            if (label == labelValues.length) {
+                labelValues = Arrays.copyOf(labelValues, label * 2);
+            }
+            final var value = values[start];
+            labelValues[label] = value;
+            labels[start] = label;
+            var size = 0;
+            stack[size++] = start;
+            while (size > 0) {
+                final var pixel = stack[--size];
+                final var x = pixel % width;
+                final var y = pixel / width;
+                if (x > 0 && labels[pixel - 1] == UNLABELED && values[pixel - 1] == value) {
+                    labels[pixel - 1] = label;
+                    stack[size++] = pixel - 1;
+                }
+                if (x < width - 1 && labels[pixel + 1] == UNLABELED && values[pixel + 1] == value) {
+                    labels[pixel + 1] = label;
+                    stack[size++] = pixel + 1;
+                }
+                if (y > 0 && labels[pixel - width] == UNLABELED && values[pixel - width] == value) {
+                    labels[pixel - width] = label;
+                    stack[size++] = pixel - width;
+                }
+                if (y < height - 1
+                        && labels[pixel + width] == UNLABELED
+                        && values[pixel + width] == value) {
+                    labels[pixel + width] = label;
+                    stack[size++] = pixel + width;
+                }
+            }
+        }
+        return Arrays.copyOf(labelValues, labelCount);
+    }
+
+    /**
+     * Collects the directed boundary edges per pixel corner. Every edge is oriented clockwise (in
+     * image coordinates) around the region it belongs to, so the owning pixel is on its right.
+     */
+    private static byte[] boundaryEdges(final int[] labels, final int width, final int height) {
+        final var stride = width + 1;
+        final var edges = new byte[stride * (height + 1)];
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                final var label = labels[y * width + x];
+                if (label < 0) {
+                    continue;
+                }
+                final var corner = y * stride + x;
+                if (y == 0 || labels[(y - 1) * width + x] != label) {
+                    edges[corner] |= 1 << EAST;
+                }
+                if (x == width - 1 || labels[y * width + x + 1] != label) {
+                    edges[corner + 1] |= 1 << SOUTH;
+                }
+                if (y == height - 1 || labels[(y + 1) * width + x] != label) {
+                    edges[corner + stride + 1] |= 1 << WEST;
+                }
+                if (x == 0 || labels[y * width + x - 1] != label) {
+                    edges[corner + stride] |= 1 << NORTH;
+                }
+            }
+        }
+        return edges;
+    }
+
+    /** Label of the pixel on the right of the edge leaving {@code vertex} in {@code direction}. */
+    private static int owner(
+            final int[] labels, final int width, final int vertex, final int direction) {
+        final var x = vertex % (width + 1);
+        final var y = vertex / (width + 1);
+        return switch (direction) {
+            case EAST -> labels[y * width + x];
+            case SOUTH -> labels[y * width + x - 1];
+            case WEST -> labels[(y - 1) * width + x - 1];
+            default -> labels[(y - 1) * width + x];
+        };
+    }
+
+    /**
+     * Follows the boundary edges of {@code label} until the ring is closed, removing them from
+     * {@code edges}. Right turns are preferred, so regions only touching diagonally are kept apart
+     * (4-connectivity).
+     *
+     * @return closed rings as interleaved pixel corner coordinates, only containing corners.
+     *     Usually a single ring, see {@link #splitAtTouchingCorners(int[])}.
+     */
+    private static List<int[]> traceRing(
+            final byte[] edges,
+            final int[] labels,
+            final int width,
+            final int start,
+            final int startDirection,
+            final int label) {
+        final var stride = width + 1;
+        var ring = new int[16];
+        var size = 0;
+        ring[size++] = start % stride;
+        ring[size++] = start / stride;
+
+        var vertex = start;
+        var direction = startDirection;
+        var touching = false;
+        while (true) {
+            edges[vertex] &= (byte) ~(1 << direction);
+            vertex += step(direction, stride);
+            final var available = edges[vertex] | (vertex == start ? 1 << startDirection : 0);
+            final var next = nextDirection(labels, width, vertex, direction, label, available);
+            if (vertex == start && next == startDirection) {
+                break;
+            }
+            touching |= ownsAny(labels, width, vertex, label, available & ~(1 << next));
+            if (next != direction) {
+                if (size + 2 > ring.length) {
+                    ring = Arrays.copyOf(ring, ring.length * 2);
+                }
+                ring[size++] = vertex % stride;
+                ring[size++] = vertex / stride;
+            }
+            direction = next;
+        }
+
+        // The start corner is not a corner when the ring arrives going the same direction.
+        final var from = direction == startDirection ? 2 : 0;
+        final var closed = Arrays.copyOfRange(ring, from, size + 2);
+        closed[closed.length - 2] = closed[0];
+        closed[closed.length - 1] = closed[1];
+        return touching ? splitAtTouchingCorners(closed) : List.of(closed);
+    }
+
+    private static boolean ownsAny(
+            final int[] labels,
+            final int width,
+            final int vertex,
+            final int label,
+            final int directions) {
+        for (var direction = EAST; direction <= NORTH; direction++) {
+            if ((directions & (1 << direction)) != 0
+                    && owner(labels, width, vertex, direction) == label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int nextDirection(
+            final int[] labels,
+            final int width,
+            final int vertex,
+            final int direction,
+            final int label,
+            final int available) {
+        for (final var turn : new int[] {1, 0, 3}) {
+            final var candidate = (direction + turn) & 3;
+            if ((available & (1 << candidate)) != 0
+                    && owner(labels, width, vertex, candidate) == label) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("Boundary of region " + label + " is not closed.");
+    }
+
+    private static int step(final int direction, final int stride) {
+        return switch (direction) {
+            case EAST -> 1;
+            case SOUTH -> stride;
+            case WEST -> -1;
+            default -> -stride;
+        };
+    }
+
+    /**
+     * Rings around regions touching another region only diagonally pass the touching corner twice.
+     * Splits them there into a shell and holes (or several holes), as JTS does not accept
+     * self-touching rings.
+     */
+    private static List<int[]> splitAtTouchingCorners(final int[] ring) {
+        final var rings = new ArrayList<int[]>(1);
+        final var path = new int[ring.length];
+        var size = 0;
+        final var positions = new HashMap<Long, Integer>();
+        for (var i = 0; i < ring.length - 2; i += 2) {
+            final var corner = corner(ring[i], ring[i + 1]);
+            final var previous = positions.get(corner);
+            if (previous == null) {
+                positions.put(corner, size);
+                path[size++] = ring[i];
+                path[size++] = ring[i + 1];
+                continue;
+            }
+            final var loop = Arrays.copyOfRange(path, previous, size + 2);
+            loop[loop.length - 2] = ring[i];
+            loop[loop.length - 1] = ring[i + 1];
+            rings.add(loop);
+            for (var j = previous + 2; j < size; j += 2) {
+                positions.remove(corner(path[j], path[j + 1]));
+            }
+            size = previous + 2;
+        }
+        final var rest = Arrays.copyOf(path, size + 2);
+        rest[size] = rest[0];
+        rest[size + 1] = rest[1];
+        rings.add(rest);
+        return rings;
+    }
+
+    private static long corner(final int x, final int y) {
+        return (long) x << 32 | y & 0xffffffffL;
+    }
+
+    /** Twice the signed area, positive for clockwise rings in image coordinates. */
+    private static long signedArea(final int[] ring) {
+        var area = 0L;
+        for (var i = 0; i < ring.length - 2; i += 2) {
+            area += (long) ring[i] * ring[i + 3] - (long) ring[i + 2] * ring[i + 1];
+        }
+        return area;
+    }
+
+    private LinearRing toWorld(
+            final int[] ring, final RenderedImage image, final AffineTransform gridToWorld) {
+        final var coordinates = new double[ring.length];
+        for (var i = 0; i < ring.length; i += 2) {
+            coordinates[i] = ring[i] + (double) image.getMinX();
+            coordinates[i + 1] = ring[i + 1] + (double) image.getMinY();
+        }
+        gridToWorld.transform(coordinates, 0, coordinates, 0, ring.length / 2);
+        return geometryFactory.createLinearRing(
+                new PackedCoordinateSequence.Double(coordinates, 2, 0));
+    }
+}
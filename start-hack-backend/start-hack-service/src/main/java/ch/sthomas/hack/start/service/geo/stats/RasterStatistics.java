@@ -0,0 +1,214 @@
+package ch.sthomas.hack.start.service.geo.stats;
+
+import jakarta.annotation.Nullable;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics of one band of a raster, computed tile by tile on the tiles of the image (no copy of
+ * the whole raster) and in parallel over the tiles. No-data and NaN samples are skipped.
+ */
+public final class RasterStatistics {
+    /** Bins of the histogram the percentiles are interpolated from. */
+    static final int PERCENTILE_BINS = 4096;
+
+    private static final double[] PERCENTILES = {5, 25, 50, 75, 95};
+
+    private RasterStatistics() {}
+
+    /**
+     * Min, max, mean and standard deviation of the samples, plus the 5th to 95th percentiles, which
+     * are exact up to {@code (max - min) / 4096}.
+     */
+    public record Summary(
+            long count,
+            double min,
+            double max,
+            double mean,
+            double stddev,
+            Map<String, Double> percentiles) {}
+
+    public static Summary summarize(
+            final RenderedImage image, final int band, @Nullable final Double noData) {
+        final var moments =
+                tiles(image)
+                        .mapToObj(
+                                tile -> {
+                                    final var m = new Moments();
+                                    forEachSample(image, tile, band, noData, m::add);
+                                    return m;
+                                })
+                        .reduce(new Moments(), Moments::merge);
+        if (moments.count == 0) {
+            return new Summary(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Map.of());
+        }
+        final var bins =
+                tiles(image)
+                        .mapToObj(
+                                tile -> {
+                                    final var h = new long[PERCENTILE_BINS];
+                                    forEachSample(
+                                            image,
+                                            tile,
+                                            band,
+                                            noData,
+                                            v -> h[bin(v, moments.min, moments.max)]++);
+                                    return h;
+                                })
+                        .reduce(new long[PERCENTILE_BINS], RasterStatistics::add);
+        final var percentiles = new LinkedHashMap<String, Double>();
+        for (final var p : PERCENTILES) {
+            percentiles.put(
+                    "p" + (int) p, percentile(bins, moments.count, p, moments.min, moments.max));
+        }
+        return new Summary(
+                moments.count,
+                moments.min,
+                moments.max,
+                moments.mean,
+                Math.sqrt(moments.m2 / moments.count),
+                percentiles);
+    }
+
+    /**
+     * Counts the integer samples by their lowest 8 bits, e.g. the classes of a categorical byte
+     * raster. Index {@code i} counts the samples {@code s} with {@code (s & 0xFF) == i}.
+     */
+    public static long[] histogram(
+            final RenderedImage image, final int band, @Nullable final Double noData) {
+        return tiles(image)
+                .mapToObj(
+                        tile -> {
+                            final var h = new long[256];
+                            final var raster = tile(image, tile);
+                            final var area = clip(image, raster);
+                            final var row = new int[area.width];
+                            for (var y = area.y; y < area.y + area.height; y++) {
+                                raster.getSamples(area.x, y, area.width, 1, band, row);
+                                for (final var sample : row) {
+                                    if (noData == null || sample != noData) {
+                                        h[sample & 0xFF]++;
+                                    }
+                                }
+                            }
+                            return h;
+                        })
+                .reduce(new long[256], RasterStatistics::add);
+    }
+
+    private interface SampleConsumer {
+        void accept(double sample);
+    }
+
+    private static IntStream tiles(final RenderedImage image) {
+        return IntStream.range(0, image.getNumXTiles() * image.getNumYTiles()).parallel();
+    }
+
+    private static Raster tile(final RenderedImage image, final int tile) {
+        return image.getTile(
+                image.getMinTileX() + tile % image.getNumXTiles(),
+                image.getMinTileY() + tile / image.getNumXTiles());
+    }
+
+    /** The part of the tile inside the image, edge tiles may extend beyond it. */
+    private static Rectangle clip(final RenderedImage image, final Raster raster) {
+        return raster.getBounds()
+                .intersection(
+                        new Rectangle(
+                                image.getMinX(),
+                                image.getMinY(),
+                                image.getWidth(),
+                                image.getHeight()));
+    }
+
+    private static void forEachSample(
+            final RenderedImage image,
+            final int tile,
+            final int band,
+            @Nullable final Double noData,
+            final SampleConsumer consumer) {
+        final var raster = tile(image, tile);
+        final var area = clip(image, raster);
+        final var row = new double[area.width];
+        for (var y = area.y; y < area.y + area.height; y++) {
+            raster.getSamples(area.x, y, area.width, 1, band, row);
+            for (final var sample : row) {
+                if (!Double.isNaN(sample) && (noData == null || sample != noData)) {
+                    consumer.accept(sample);
+                }
+            }
+        }
+    }
+
+    private static int bin(final double value, final double min, final double max) {
+        if (max == min) {
+            return 0;
+        }
+        return Math.min(PERCENTILE_BINS - 1, (int) ((value - min) / (max - min) * PERCENTILE_BINS));
+    }
+
+    private static double percentile(
+            final long[] bins,
+            final long count,
+            final double percentile,
+            final double min,
+            final double max) {
+        final var rank = percentile / 100 * count;
+        var cumulative = 0L;
+        for (var i = 0; i < bins.length; i++) {
+            if (bins[i] > 0 && cumulative + bins[i] >= rank) {
+                // Interpolate linearly within the bin.
+                final var fraction = (rank - cumulative) / bins[i];
+                return min + (i + fraction) / PERCENTILE_BINS * (max - min);
+            }
+            cumulative += bins[i];
+        }
+        return max;
+    }
+
+    private static long[] add(final long[] a, final long[] b) {
+        final var sum = Arrays.copyOf(a, a.length);
+        for (var i = 0; i < b.length; i++) {
+            sum[i] += b[i];
+        }
+        return sum;
+    }
+
+    /** Count, min, max, mean and sum of squared deviations (Welford), mergeable across tiles. */
+    private static final class Moments {
+        private long count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double mean;
+        private double m2;
+
+        void add(final double value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            final var delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        Moments merge(final Moments other) {
+            final var merged = new Moments();
+            merged.count = count + other.count;
+            if (merged.count == 0) {
+                return merged;
+            }
+            final var delta = other.mean - mean;
+            merged.min = Math.min(min, other.min);
+            merged.max = Math.max(max, other.max);
+            merged.mean = mean + delta * other.count / merged.count;
+            merged.m2 = m2 + other.m2 + delta * delta * count * other.count / merged.count;
+            return merged;
+        }
+    }
+}
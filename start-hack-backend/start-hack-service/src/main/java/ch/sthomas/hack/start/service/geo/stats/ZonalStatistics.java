@@ -0,0 +1,215 @@
+package ch.sthomas.hack.start.service.geo.stats;
+
+import ch.sthomas.hack.start.model.points.TimeLctStatData;
+import ch.sthomas.hack.start.model.points.TimeNumericStatData;
+import ch.sthomas.hack.start.service.geo.store.TimeCube;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Aggregates all years of a {@link TimeCube} per zone of a {@link ZoneMask} in one pass over the
+ * cube. The cube is pixel major, so every pixel is one contiguous read of all its years. Blocks of
+ * rows are aggregated in parallel and merged. No-data and NaN values and missing years are skipped.
+ */
+public final class ZonalStatistics {
+    private static final int CATEGORIES = 256;
+
+    private ZonalStatistics() {}
+
+    /**
+     * Min, max, mean, standard deviation and count per zone and year. Percentiles are not computed
+     * per zone.
+     */
+    public static List<Map<Integer, TimeNumericStatData>> numeric(
+            final TimeCube cube, final ZoneMask mask) {
+        final var cells = mask.getZoneCount() * cube.getYears();
+        final var moments =
+                blocks(cube, mask)
+                        .mapToObj(
+                                block -> {
+                                    final var m = new Moments(cells);
+                                    forEachValue(cube, mask, block, m::add);
+                                    return m;
+                                })
+                        .reduce(new Moments(cells), Moments::merge);
+        final var result = new ArrayList<Map<Integer, TimeNumericStatData>>();
+        for (var zone = 0; zone < mask.getZoneCount(); zone++) {
+            final var years = new TreeMap<Integer, TimeNumericStatData>();
+            for (var i = 0; i < cube.getYears(); i++) {
+                final var cell = zone * cube.getYears() + i;
+                if (moments.count[cell] > 0) {
+                    years.put(
+                            cube.getFirstYear() + i,
+                            new TimeNumericStatData(
+                                    moments.max[cell],
+                                    moments.min[cell],
+                                    moments.mean[cell],
+                                    moments.count[cell],
+                                    Math.sqrt(moments.m2[cell] / moments.count[cell]),
+                                    Map.of()));
+                }
+            }
+            result.add(years);
+        }
+        return result;
+    }
+
+    /**
+     * Pixel counts per category, zone and year. Values are binned by their lowest 8 bits and
+     * reported with the (signed byte) key mapped by {@code label}, keys labelled {@code null} are
+     * left out.
+     */
+    public static List<Map<Integer, TimeLctStatData>> categorical(
+            final TimeCube cube, final ZoneMask mask, final IntFunction<String> label) {
+        final var cells = mask.getZoneCount() * cube.getYears();
+        final var counts =
+                blocks(cube, mask)
+                        .mapToObj(
+                                block -> {
+                                    final var c = new long[cells * CATEGORIES];
+                                    forEachValue(
+                                            cube,
+                                            mask,
+                                            block,
+                                            (cell, value) ->
+                                                    c[cell * CATEGORIES + ((int) value & 0xFF)]++);
+                                    return c;
+                                })
+                        .reduce(new long[cells * CATEGORIES], ZonalStatistics::add);
+        final var result = new ArrayList<Map<Integer, TimeLctStatData>>();
+        for (var zone = 0; zone < mask.getZoneCount(); zone++) {
+            final var years = new TreeMap<Integer, TimeLctStatData>();
+            for (var i = 0; i < cube.getYears(); i++) {
+                final var cell = zone * cube.getYears() + i;
+                final var frequencies = new HashMap<String, Integer>();
+                for (var bin = 0; bin < CATEGORIES; bin++) {
+                    final var count = counts[cell * CATEGORIES + bin];
+                    final var name = count > 0 ? label.apply((byte) bin) : null;
+                    if (name != null) {
+                        frequencies.merge(name, Math.toIntExact(count), Integer::sum);
+                    }
+                }
+                if (!frequencies.isEmpty()) {
+                    years.put(
+                            cube.getFirstYear() + i, new TimeLctStatData(Map.copyOf(frequencies)));
+                }
+            }
+            result.add(years);
+        }
+        return result;
+    }
+
+    private interface CellConsumer {
+        /**
+         * @param cell {@code zone * years + yearIndex}
+         */
+        void accept(int cell, double value);
+    }
+
+    private static IntStream blocks(final TimeCube cube, final ZoneMask mask) {
+        if (cube.getWidth() != mask.getWidth() || cube.getHeight() != mask.getHeight()) {
+            throw new IllegalArgumentException("Mask is not on the grid of the cube");
+        }
+        return IntStream.range(0, blockCount(cube)).parallel();
+    }
+
+    /** Blocks of rows, a few per processor so uneven zones still balance. */
+    private static int blockCount(final TimeCube cube) {
+        return Math.min(cube.getHeight(), 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    private static void forEachValue(
+            final TimeCube cube,
+            final ZoneMask mask,
+            final int block,
+            final CellConsumer consumer) {
+        final var blocks = blockCount(cube);
+        final var fromRow = (int) ((long) cube.getHeight() * block / blocks);
+        final var toRow = (int) ((long) cube.getHeight() * (block + 1) / blocks);
+        final var years = cube.getYears();
+        final var present = new boolean[years];
+        for (var i = 0; i < years; i++) {
+            present[i] = cube.hasYear(cube.getFirstYear() + i);
+        }
+        final var noData = cube.getNoData();
+        final var values = new double[years];
+        for (var y = fromRow; y < toRow; y++) {
+            for (var x = 0; x < cube.getWidth(); x++) {
+                final var zone = mask.zone(x, y);
+                if (zone == ZoneMask.NO_ZONE) {
+                    continue;
+                }
+                cube.read(x, y, values);
+                for (var i = 0; i < years; i++) {
+                    final var value = values[i];
+                    if (present[i] && !Double.isNaN(value) && (noData == null || value != noData)) {
+                        consumer.accept(zone * years + i, value);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] add(final long[] a, final long[] b) {
+        final var sum = a.clone();
+        for (var i = 0; i < b.length; i++) {
+            sum[i] += b[i];
+        }
+        return sum;
+    }
+
+    /** Welford moments per cell, mergeable across blocks. */
+    private static final class Moments {
+        private final long[] count;
+        private final double[] min;
+        private final double[] max;
+        private final double[] mean;
+        private final double[] m2;
+
+        Moments(final int cells) {
+            count = new long[cells];
+            min = new double[cells];
+            max = new double[cells];
+            mean = new double[cells];
+            m2 = new double[cells];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        void add(final int cell, final double value) {
+            final var n = ++count[cell];
+            min[cell] = Math.min(min[cell], value);
+            max[cell] = Math.max(max[cell], value);
+            final var delta = value - mean[cell];
+            mean[cell] += delta / n;
+            m2[cell] += delta * (value - mean[cell]);
+        }
+
+        Moments merge(final Moments other) {
+            final var merged = new Moments(count.length);
+            for (var cell = 0; cell < count.length; cell++) {
+                final var n = count[cell] + other.count[cell];
+                merged.count[cell] = n;
+                if (n == 0) {
+                    continue;
+                }
+                final var delta = other.mean[cell] - mean[cell];
+                merged.min[cell] = Math.min(min[cell], other.min[cell]);
+                merged.max[cell] = Math.max(max[cell], other.max[cell]);
+                merged.mean[cell] = mean[cell] + delta * other.count[cell] / n;
+                merged.m2[cell] =
+                        m2[cell]
+                                + other.m2[cell]
+                                + delta * delta * count[cell] * other.count[cell] / n;
+            }
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ch.sthomas.hack.start.service.geo.stats;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The zone (e.g. district) of every pixel of a grid, rasterized once by the pixel centers so the
+ * zones of a grid can be aggregated without any geometry operations.
+ */
+public final class ZoneMask {
+    public static final int NO_ZONE = -1;
+
+    private final int width;
+    private final int height;
+    private final int zoneCount;
+    private final int[] zones;
+
+    private ZoneMask(final int width, final int height, final int zoneCount, final int[] zones) {
+        this.width = width;
+        this.height = height;
+        this.zoneCount = zoneCount;
+        this.zones = zones;
+    }
+
+    /**
+     * Assigns every pixel whose center lies in one of the zones the index of the first such zone.
+     *
+     * @param gridToWorld maps pixel corners to world coordinates
+     * @param swapAxes whether the grid's world coordinates are (y, x) while the zones are (x, y)
+     */
+    public static ZoneMask rasterize(
+            final List<? extends Geometry> zones,
+            final int width,
+            final int height,
+            final AffineTransform gridToWorld,
+            final boolean swapAxes) {
+        final var locators =
+                zones.stream()
+                        .map(IndexedPointInAreaLocator::new)
+                        .toArray(IndexedPointInAreaLocator[]::new);
+        final var envelopes =
+                zones.stream().map(Geometry::getEnvelopeInternal).toArray(Envelope[]::new);
+        final var mask = new int[width * height];
+        Arrays.fill(mask, NO_ZONE);
+        IntStream.range(0, height)
+                .parallel()
+                .forEach(
+                        y -> {
+                            final var point = new Point2D.Double();
+                            final var coordinate = new Coordinate();
+                            for (var x = 0; x < width; x++) {
+                                point.setLocation(x + 0.5, y + 0.5);
+                                gridToWorld.transform(point, point);
+                                coordinate.x = swapAxes ? point.y : point.x;
+                                coordinate.y = swapAxes ? point.x : point.y;
+                                for (var zone = 0; zone < locators.length; zone++) {
+                                    if (envelopes[zone].contains(coordinate)
+                                            && locators[zone].locate(coordinate)
+                                                    != Location.EXTERIOR) {
+                                        mask[y * width + x] = zone;
+                                        break;
+                                    }
+                                }
+                            }
+                        });
+        return new ZoneMask(width, height, zones.size(), mask);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /** The zone of the pixel, {@link #NO_ZONE} if it is in none. */
+    public int zone(final int x, final int y) {
+        return zones[y * width + x];
+    }
+}
@@ -0,0 +1,297 @@
+package ch.sthomas.hack.start.service.geo.store;
+
+import jakarta.annotation.Nullable;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Single band raster backed by a memory mapped file. The pixels live in the page cache, not on the
+ * heap, and are shared by every process mapping the same file.
+ *
+ * <p>Layout (little endian): a {@value #HEADER_SIZE} byte header followed by square tiles of
+ * {@value #TILE_SIZE} pixels, row by row. Edge tiles are padded to the full tile size.
+ *
+ * <pre>
+ * int    magic, version, data type ({@link DataBuffer} type), width, height, tile size
+ * int    1 if no data is set, 0 otherwise
+ * double no data
+ * double[6] grid to world transform of the upper left pixel corner, {@link AffineTransform} order
+ * long   last modified millis of the source file
+ * </pre>
+ */
+public final class MappedRaster {
+    static final int TILE_SIZE = 256;
+    private static final int MAGIC = 0x53485253; // "SHRS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 128;
+
+    private final ByteBuffer buffer;
+    private final int dataType;
+    private final int sampleSize;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    @Nullable private final Double noData;
+    private final AffineTransform gridToWorld;
+    private final AffineTransform worldToGrid;
+    private final FileTime sourceModified;
+
+    private MappedRaster(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a raster store file of version " + VERSION);
+        }
+        dataType = buffer.getInt(8);
+        sampleSize = sampleSize(dataType);
+        width = buffer.getInt(12);
+        height = buffer.getInt(16);
+        if (buffer.getInt(20) != TILE_SIZE) {
+            throw new IOException("Unexpected tile size " + buffer.getInt(20));
+        }
+        tilesX = Math.ceilDiv(width, TILE_SIZE);
+        noData = buffer.getInt(24) == 1 ? buffer.getDouble(32) : null;
+        final var matrix = new double[6];
+        for (var i = 0; i < matrix.length; i++) {
+            matrix[i] = buffer.getDouble(40 + i * Double.BYTES);
+        }
+        gridToWorld = new AffineTransform(matrix);
+        try {
+            worldToGrid = gridToWorld.createInverse();
+        } catch (final NoninvertibleTransformException e) {
+            throw new IOException("Grid to world transform is not invertible", e);
+        }
+        sourceModified = FileTime.fromMillis(buffer.getLong(88));
+        final var expected = HEADER_SIZE + tileOffset(tilesX * Math.ceilDiv(height, TILE_SIZE));
+        if (buffer.capacity() < expected) {
+            throw new IOException("Truncated raster store file, expected " + expected + " bytes");
+        }
+    }
+
+    public static MappedRaster open(final Path file) throws IOException {
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedRaster(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes band 0 of the image. Byte images are stored as bytes, floating point images as floats
+     * and all other integer types as ints.
+     */
+    public static void write(
+            final Path file,
+            final RenderedImage image,
+            final AffineTransform gridToWorld,
+            @Nullable final Double noData,
+            final FileTime sourceModified)
+            throws IOException {
+        final var dataType = storedType(image.getSampleModel().getDataType());
+        final var width = image.getWidth();
+        final var height = image.getHeight();
+        final var tilesX = Math.ceilDiv(width, TILE_SIZE);
+        final var tilesY = Math.ceilDiv(height, TILE_SIZE);
+        final var tileBytes = (long) TILE_SIZE * TILE_SIZE * sampleSize(dataType);
+        if (HEADER_SIZE + tileBytes * tilesX * tilesY > Integer.MAX_VALUE) {
+            throw new IOException("Raster of " + width + "x" + height + " is too large to map");
+        }
+
+        final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dataType);
+        header.putInt(width).putInt(height).putInt(TILE_SIZE);
+        header.putInt(noData == null ? 0 : 1).putInt(0);
+        header.putDouble(noData == null ? Double.NaN : noData);
+        final var matrix = new double[6];
+        gridToWorld.getMatrix(matrix);
+        for (final var value : matrix) {
+            header.putDouble(value);
+        }
+        header.putLong(sourceModified.toMillis());
+
+        final var tile = ByteBuffer.allocate((int) tileBytes).order(ByteOrder.LITTLE_ENDIAN);
+        try (final var channel =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            writeFully(channel, header.clear());
+            for (var ty = 0; ty < tilesY; ty++) {
+                for (var tx = 0; tx < tilesX; tx++) {
+                    fillTile(tile.clear(), image, dataType, tx, ty);
+                    writeFully(channel, tile.clear());
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void fillTile(
+            final ByteBuffer tile,
+            final RenderedImage image,
+            final int dataType,
+            final int tx,
+            final int ty) {
+        final var x = tx * TILE_SIZE;
+        final var y = ty * TILE_SIZE;
+        final var w = Math.min(TILE_SIZE, image.getWidth() - x);
+        final var h = Math.min(TILE_SIZE, image.getHeight() - y);
+        final var raster =
+                image.getData(new Rectangle(image.getMinX() + x, image.getMinY() + y, w, h));
+        final var rowStride = TILE_SIZE * sampleSize(dataType);
+        for (var row = 0; row < h; row++) {
+            tile.position(row * rowStride);
+            final var ry = raster.getMinY() + row;
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE -> {
+                    for (final var sample :
+                            raster.getSamples(raster.getMinX(), ry, w, 1, 0, (int[]) null)) {
+                        tile.put((byte) sample);
+                    }
+                }
+                case DataBuffer.TYPE_INT ->
+                        tile.asIntBuffer()
+                                .put(
+                                        raster.getSamples(
+                                                raster.getMinX(), ry, w, 1, 0, (int[]) null));
+                case DataBuffer.TYPE_FLOAT ->
+                        tile.asFloatBuffer()
+                                .put(
+                                        raster.getSamples(
+                                                raster.getMinX(), ry, w, 1, 0, (float[]) null));
+                default ->
+                        tile.asDoubleBuffer()
+                                .put(
+                                        raster.getSamples(
+                                                raster.getMinX(), ry, w, 1, 0, (double[]) null));
+            }
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int storedType(final int dataType) {
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE, DataBuffer.TYPE_FLOAT -> dataType;
+            case DataBuffer.TYPE_DOUBLE -> DataBuffer.TYPE_FLOAT;
+            default -> DataBuffer.TYPE_INT;
+        };
+    }
+
+    static int sampleSize(final int dataType) {
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE -> Byte.BYTES;
+            case DataBuffer.TYPE_INT -> Integer.BYTES;
+            case DataBuffer.TYPE_FLOAT -> Float.BYTES;
+            case DataBuffer.TYPE_DOUBLE -> Double.BYTES;
+            default -> throw new IllegalArgumentException("Unsupported data type " + dataType);
+        };
+    }
+
+    private long tileOffset(final int tile) {
+        return (long) tile * TILE_SIZE * TILE_SIZE * sampleSize;
+    }
+
+    private int offset(final int x, final int y) {
+        final var tile = (y / TILE_SIZE) * tilesX + x / TILE_SIZE;
+        final var pixel = (y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE;
+        return (int) (HEADER_SIZE + tileOffset(tile) + (long) pixel * sampleSize);
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Nullable
+    public Double getNoData() {
+        return noData;
+    }
+
+    public AffineTransform getGridToWorld() {
+        return new AffineTransform(gridToWorld);
+    }
+
+    public FileTime getSourceModified() {
+        return sourceModified;
+    }
+
+    public boolean contains(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /** Bytes are read signed, the same way {@code ModisProduct.LCT} maps evaluated samples. */
+    public int getInt(final int x, final int y) {
+        final var offset = offset(x, y);
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE -> buffer.get(offset);
+            case DataBuffer.TYPE_INT -> buffer.getInt(offset);
+            case DataBuffer.TYPE_FLOAT -> (int) buffer.getFloat(offset);
+            default -> (int) buffer.getDouble(offset);
+        };
+    }
+
+    public double getDouble(final int x, final int y) {
+        final var offset = offset(x, y);
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE -> buffer.get(offset);
+            case DataBuffer.TYPE_INT -> buffer.getInt(offset);
+            case DataBuffer.TYPE_FLOAT -> buffer.getFloat(offset);
+            default -> buffer.getDouble(offset);
+        };
+    }
+
+    /**
+     * Returns the pixel containing the world position, as {@code int[] {x, y}}, or {@code null} if
+     * it is outside the raster.
+     */
+    @Nullable
+    public int[] toGrid(final double ordinate0, final double ordinate1) {
+        final var grid = worldToGrid.transform(new Point2D.Double(ordinate0, ordinate1), null);
+        final var x = (int) Math.floor(grid.getX());
+        final var y = (int) Math.floor(grid.getY());
+        return contains(x, y) ? new int[] {x, y} : null;
+    }
+
+    /**
+     * Evaluates the raster at a world position like {@code GridCoverage2D.evaluate}: a one element
+     * {@code byte[]}, {@code int[]}, {@code float[]} or {@code double[]} depending on the stored
+     * type, or {@code null} if the position is outside the raster.
+     */
+    @Nullable
+    public Object evaluate(final double ordinate0, final double ordinate1) {
+        final var grid = toGrid(ordinate0, ordinate1);
+        if (grid == null) {
+            return null;
+        }
+        final var offset = offset(grid[0], grid[1]);
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE -> new byte[] {buffer.get(offset)};
+            case DataBuffer.TYPE_INT -> new int[] {buffer.getInt(offset)};
+            case DataBuffer.TYPE_FLOAT -> new float[] {buffer.getFloat(offset)};
+            default -> new double[] {buffer.getDouble(offset)};
+        };
+    }
+}
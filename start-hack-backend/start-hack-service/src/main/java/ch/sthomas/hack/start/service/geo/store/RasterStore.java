@@ -0,0 +1,248 @@
+package ch.sthomas.hack.start.service.geo.store;
+
+import ch.sthomas.hack.start.service.GeoService;
+
+import jakarta.annotation.Nullable;
+
+import org.geotools.api.metadata.spatial.PixelOrientation;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts the (warped) tifs into {@link MappedRaster} files once and serves pixel reads from the
+ * mapped files, so that serving does not keep decoded rasters on the heap.
+ */
+@Service
+public class RasterStore {
+    private static final Logger logger = LoggerFactory.getLogger(RasterStore.class);
+
+    private final Path folder;
+    private final GeoService geoService;
+    private final Map<Path, MappedRaster> rasters = new ConcurrentHashMap<>();
+    private final Map<String, TimeCube> cubes = new ConcurrentHashMap<>();
+    private final Map<Object, Object> locks = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public RasterStore(
+            @Value("${ch.sthomas.hack.start.service.raster-store.folder:raster-store}")
+                    final String folder,
+            final GeoService geoService) {
+        this.folder = Path.of(folder);
+        this.geoService = geoService;
+    }
+
+    /** Counts the changes of the time cubes, it grows whenever a cube is replaced or updated. */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the mapped raster of the tif, converting it first if there is no store file or the
+     * tif changed since. Returns {@code null} if the tif does not exist or cannot be read.
+     */
+    @Nullable
+    public MappedRaster get(final Path tif) throws IOException {
+        final var key = tif.toAbsolutePath().normalize();
+        if (!Files.exists(key)) {
+            rasters.remove(key);
+            return null;
+        }
+        final var tifModified = Files.getLastModifiedTime(key);
+        final var raster = rasters.get(key);
+        if (raster != null && raster.getSourceModified().equals(tifModified)) {
+            return raster;
+        }
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            final var current = rasters.get(key);
+            if (current != null && current.getSourceModified().equals(tifModified)) {
+                return current;
+            }
+            final var opened = openOrIngest(key);
+            if (opened != null) {
+                rasters.put(key, opened);
+            }
+            return opened;
+        }
+    }
+
+    @Nullable
+    private MappedRaster openOrIngest(final Path tif) throws IOException {
+        final var tifModified = Files.getLastModifiedTime(tif);
+        final var file = folder.resolve(tif.getFileName() + ".raster");
+        if (Files.exists(file)) {
+            try {
+                final var stored = MappedRaster.open(file);
+                if (stored.getSourceModified().equals(tifModified)) {
+                    return stored;
+                }
+            } catch (final IOException e) {
+                logger.warn("Could not open {}, converting {} again", file, tif, e);
+            }
+        }
+
+        final var start = System.nanoTime();
+        final var coverage = geoService.loadTif(tif);
+        if (coverage == null) {
+            return null;
+        }
+        if (!(coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT)
+                instanceof final AffineTransform gridToWorld)) {
+            logger.warn("Grid to CRS transform of {} is not affine, not storing it", tif);
+            return null;
+        }
+        final var noData = CoverageUtilities.getNoDataProperty(coverage);
+        Files.createDirectories(folder);
+        // Write next to the target and move, other processes only ever see complete files.
+        final var tmp = Files.createTempFile(folder, tif.getFileName().toString(), ".tmp");
+        try {
+            MappedRaster.write(
+                    tmp,
+                    coverage.getRenderedImage(),
+                    gridToWorld,
+                    noData == null ? null : noData.getAsSingleValue(),
+                    tifModified);
+            Files.move(
+                    tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info(
+                "Stored {} as {} in {} ms.", tif, file, (System.nanoTime() - start) / 1_000_000);
+        return MappedRaster.open(file);
+    }
+
+    /**
+     * Returns the time cube of the yearly tifs, building it if it does not exist yet. Returns
+     * {@code null} if none of the tifs can be read.
+     */
+    @Nullable
+    public TimeCube getCube(final String name, final SortedMap<Integer, Path> tifsByYear)
+            throws IOException {
+        final var cube = cubes.get(name);
+        if (cube != null) {
+            return cube;
+        }
+        return updateCube(name, tifsByYear);
+    }
+
+    /** The time cube if it was built or opened already, {@code null} otherwise. */
+    @Nullable
+    public TimeCube getLoadedCube(final String name) {
+        return cubes.get(name);
+    }
+
+    /**
+     * Brings the time cube up to date, rewriting only the years whose tif changed. The changed
+     * years are written into a copy of the cube, which then replaces the file and the cube, so
+     * readers of the previous cube never see a year half written.
+     */
+    @Nullable
+    public TimeCube updateCube(final String name, final SortedMap<Integer, Path> tifsByYear)
+            throws IOException {
+        if (tifsByYear.isEmpty()) {
+            return null;
+        }
+        synchronized (locks.computeIfAbsent(name, k -> new Object())) {
+            final var file = folder.resolve(name + ".cube");
+            final var firstYear = tifsByYear.firstKey();
+            final var years = tifsByYear.lastKey() - firstYear + 1;
+            var cube = cubes.get(name);
+            if (cube == null && Files.exists(file)) {
+                try {
+                    cube = TimeCube.open(file);
+                } catch (final IOException e) {
+                    logger.warn("Could not open {}, building it again", file, e);
+                }
+            }
+            if (cube != null && (cube.getFirstYear() != firstYear || cube.getYears() != years)) {
+                cube = null;
+            }
+
+            final var start = System.nanoTime();
+            // The cube has the data type of the first year, years of another type are left out.
+            final var rasters = new HashMap<Integer, MappedRaster>();
+            MappedRaster grid = null;
+            for (final var tif : tifsByYear.entrySet()) {
+                final var raster = get(tif.getValue());
+                if (raster == null) {
+                    continue;
+                }
+                if (grid == null) {
+                    grid = raster;
+                } else if (raster.getDataType() != grid.getDataType()) {
+                    logger.warn(
+                            "{} has data type {}, the other years of cube {} have {}, leaving it"
+                                    + " out",
+                            tif.getValue(),
+                            raster.getDataType(),
+                            name,
+                            grid.getDataType());
+                    continue;
+                }
+                rasters.put(tif.getKey(), raster);
+            }
+            if (cube != null && grid != null && cube.getDataType() != grid.getDataType()) {
+                cube = null;
+            }
+            // Null for the years to mark as missing.
+            final var changed = new TreeMap<Integer, MappedRaster>();
+            for (var year = firstYear; year < firstYear + years; year++) {
+                final var raster = rasters.get(year);
+                final var modified = raster == null ? null : raster.getSourceModified();
+                final var stored = cube == null ? null : cube.getSourceModified(year);
+                if (!Objects.equals(stored, modified)) {
+                    changed.put(year, raster);
+                }
+            }
+            if (cube == null && grid == null) {
+                return null;
+            }
+            if (!changed.isEmpty()) {
+                Files.createDirectories(folder);
+                final var tmp = Files.createTempFile(folder, name + ".cube", ".tmp");
+                try {
+                    final var next =
+                            cube == null
+                                    ? TimeCube.create(tmp, firstYear, years, grid)
+                                    : cube.copyTo(tmp);
+                    for (final var year : changed.entrySet()) {
+                        next.update(year.getKey(), year.getValue());
+                    }
+                    Files.move(
+                            tmp,
+                            file,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    cube = next;
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                logger.info(
+                        "Updated {} years of cube {} in {} ms.",
+                        changed.size(),
+                        name,
+                        (System.nanoTime() - start) / 1_000_000);
+            }
+            if (cubes.put(name, cube) != cube) {
+                version.incrementAndGet();
+            }
+            return cube;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package ch.sthomas.hack.start.service.geo.store;
+
+import jakarta.annotation.Nullable;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Pixel major cube of the yearly rasters of one product. The values of all years of a pixel are
+ * stored next to each other, so a point lookup reads one small contiguous block instead of one
+ * raster per year.
+ *
+ * <p>Layout (little endian): a {@value #HEADER_SIZE} byte header, the last modified millis of the
+ * source file of every year ({@code 0} if the year is missing), then for every pixel (row by row)
+ * the values of all years.
+ *
+ * <pre>
+ * int    magic, version, data type ({@link DataBuffer} type), width, height, first year, years
+ * int    1 if no data is set, 0 otherwise
+ * double no data
+ * double[6] grid to world transform of the upper left pixel corner, {@link AffineTransform} order
+ * </pre>
+ */
+public final class TimeCube {
+    private static final int MAGIC = 0x53485443; // "SHTC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+
+    private final MappedByteBuffer buffer;
+    private final int dataType;
+    private final int sampleSize;
+    private final int width;
+    private final int height;
+    private final int firstYear;
+    private final int years;
+    @Nullable private final Double noData;
+    private final AffineTransform gridToWorld;
+    private final AffineTransform worldToGrid;
+    private final int dataOffset;
+
+    private TimeCube(final MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a time cube file of version " + VERSION);
+        }
+        dataType = buffer.getInt(8);
+        sampleSize = MappedRaster.sampleSize(dataType);
+        width = buffer.getInt(12);
+        height = buffer.getInt(16);
+        firstYear = buffer.getInt(20);
+        years = buffer.getInt(24);
+        noData = buffer.getInt(28) == 1 ? buffer.getDouble(32) : null;
+        final var matrix = new double[6];
+        for (var i = 0; i < matrix.length; i++) {
+            matrix[i] = buffer.getDouble(40 + i * Double.BYTES);
+        }
+        gridToWorld = new AffineTransform(matrix);
+        try {
+            worldToGrid = gridToWorld.createInverse();
+        } catch (final NoninvertibleTransformException e) {
+            throw new IOException("Grid to world transform is not invertible", e);
+        }
+        dataOffset = dataOffset(years);
+        final var expected = dataOffset + (long) width * height * years * sampleSize;
+        if (buffer.capacity() < expected) {
+            throw new IOException("Truncated time cube file, expected " + expected + " bytes");
+        }
+    }
+
+    private static int dataOffset(final int years) {
+        // Keep the pixel blocks aligned to cache lines.
+        return Math.ceilDiv(HEADER_SIZE + years * Long.BYTES, 64) * 64;
+    }
+
+    public static TimeCube open(final Path file) throws IOException {
+        try (final var channel =
+                FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new TimeCube(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates an empty cube (all years missing) on the grid of the given raster. The file is
+     * prepared next to the target and moved, so a cube mapped from an older file stays readable.
+     */
+    public static TimeCube create(
+            final Path file, final int firstYear, final int years, final MappedRaster grid)
+            throws IOException {
+        final var dataType = grid.getDataType();
+        final var size =
+                dataOffset(years)
+                        + (long) grid.getWidth()
+                                * grid.getHeight()
+                                * years
+                                * MappedRaster.sampleSize(dataType);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Time cube of " + size + " bytes is too large to map");
+        }
+        final var tmp =
+                Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (final var channel =
+                    FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(dataType);
+                buffer.putInt(grid.getWidth()).putInt(grid.getHeight());
+                buffer.putInt(firstYear).putInt(years);
+                final var noData = grid.getNoData();
+                buffer.putInt(noData == null ? 0 : 1);
+                buffer.putDouble(noData == null ? Double.NaN : noData);
+                final var matrix = new double[6];
+                grid.getGridToWorld().getMatrix(matrix);
+                for (final var value : matrix) {
+                    buffer.putDouble(value);
+                }
+                buffer.force();
+            }
+            Files.move(
+                    tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return open(file);
+    }
+
+    /**
+     * Copies the cube to the file and maps the copy, which can then be updated while this cube
+     * keeps being read.
+     */
+    public TimeCube copyTo(final Path file) throws IOException {
+        try (final var channel =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            final var content = buffer.duplicate().clear();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+        return open(file);
+    }
+
+    /**
+     * Replaces the values of one year with the raster, resampled (nearest) if it is not on the grid
+     * of the cube. A {@code null} raster marks the year as missing. Readers of the cube see the
+     * year change pixel by pixel, update a {@link #copyTo copy} of a cube that is being read.
+     *
+     * @throws IllegalArgumentException if the raster does not have the data type of the cube
+     */
+    public void update(final int year, @Nullable final MappedRaster raster) {
+        final var index = yearIndex(year);
+        if (raster == null) {
+            buffer.putLong(HEADER_SIZE + index * Long.BYTES, 0);
+            return;
+        }
+        if (raster.getDataType() != dataType) {
+            throw new IllegalArgumentException(
+                    "Raster of data type "
+                            + raster.getDataType()
+                            + " does not fit a cube of data type "
+                            + dataType);
+        }
+        // Mark the year as missing while it is rewritten.
+        buffer.putLong(HEADER_SIZE + index * Long.BYTES, 0);
+        final var cubeToRaster = new AffineTransform(gridToWorld);
+        cubeToRaster.preConcatenate(inverse(raster.getGridToWorld()));
+        final var aligned =
+                isIdentity(cubeToRaster)
+                        && raster.getWidth() == width
+                        && raster.getHeight() == height;
+        final var fill = noData == null ? 0 : noData;
+        final var point = new Point2D.Double();
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                var sourceX = x;
+                var sourceY = y;
+                if (!aligned) {
+                    point.setLocation(x + 0.5, y + 0.5);
+                    cubeToRaster.transform(point, point);
+                    sourceX = (int) Math.floor(point.x);
+                    sourceY = (int) Math.floor(point.y);
+                }
+                final var inside = raster.contains(sourceX, sourceY);
+                final var offset = offset(x, y, index);
+                switch (dataType) {
+                    case DataBuffer.TYPE_BYTE ->
+                            buffer.put(
+                                    offset,
+                                    (byte) (inside ? raster.getInt(sourceX, sourceY) : fill));
+                    case DataBuffer.TYPE_INT ->
+                            buffer.putInt(
+                                    offset, inside ? raster.getInt(sourceX, sourceY) : (int) fill);
+                    case DataBuffer.TYPE_FLOAT ->
+                            buffer.putFloat(
+                                    offset,
+                                    (float) (inside ? raster.getDouble(sourceX, sourceY) : fill));
+                    default ->
+                            buffer.putDouble(
+                                    offset, inside ? raster.getDouble(sourceX, sourceY) : fill);
+                }
+            }
+        }
+        buffer.putLong(HEADER_SIZE + index * Long.BYTES, raster.getSourceModified().toMillis());
+        buffer.force();
+    }
+
+    private static boolean isIdentity(final AffineTransform transform) {
+        final var matrix = new double[6];
+        transform.getMatrix(matrix);
+        final var identity = new double[] {1, 0, 0, 1, 0, 0};
+        for (var i = 0; i < matrix.length; i++) {
+            if (Math.abs(matrix[i] - identity[i]) > 1e-9) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AffineTransform inverse(final AffineTransform transform) {
+        try {
+            return transform.createInverse();
+        } catch (final NoninvertibleTransformException e) {
+            throw new IllegalArgumentException("Grid to world transform is not invertible", e);
+        }
+    }
+
+    private int yearIndex(final int year) {
+        final var index = year - firstYear;
+        if (index < 0 || index >= years) {
+            throw new IllegalArgumentException("Year " + year + " is not part of the cube");
+        }
+        return index;
+    }
+
+    private int offset(final int x, final int y, final int yearIndex) {
+        return (int) (dataOffset + (((long) y * width + x) * years + yearIndex) * sampleSize);
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Nullable
+    public Double getNoData() {
+        return noData;
+    }
+
+    public AffineTransform getGridToWorld() {
+        return new AffineTransform(gridToWorld);
+    }
+
+    public int getFirstYear() {
+        return firstYear;
+    }
+
+    public int getYears() {
+        return years;
+    }
+
+    /** Last modified time of the source of the year, {@code null} if the year is missing. */
+    @Nullable
+    public FileTime getSourceModified(final int year) {
+        final var millis = buffer.getLong(HEADER_SIZE + yearIndex(year) * Long.BYTES);
+        return millis == 0 ? null : FileTime.fromMillis(millis);
+    }
+
+    public boolean hasYear(final int year) {
+        return year >= firstYear && year < firstYear + years && getSourceModified(year) != null;
+    }
+
+    /**
+     * Returns the pixel containing the world position, as {@code int[] {x, y}}, or {@code null} if
+     * it is outside the cube.
+     */
+    @Nullable
+    public int[] toGrid(final double ordinate0, final double ordinate1) {
+        final var grid = worldToGrid.transform(new Point2D.Double(ordinate0, ordinate1), null);
+        final var x = (int) Math.floor(grid.getX());
+        final var y = (int) Math.floor(grid.getY());
+        return x >= 0 && y >= 0 && x < width && y < height ? new int[] {x, y} : null;
+    }
+
+    /**
+     * Reads the values of all years of a pixel into {@code values}, in year order. Bytes are read
+     * signed like {@link MappedRaster#getDouble}.
+     */
+    public void read(final int x, final int y, final double[] values) {
+        final var offset = offset(x, y, 0);
+        for (var i = 0; i < years; i++) {
+            final var position = offset + i * sampleSize;
+            values[i] =
+                    switch (dataType) {
+                        case DataBuffer.TYPE_BYTE -> buffer.get(position);
+                        case DataBuffer.TYPE_INT -> buffer.getInt(position);
+                        case DataBuffer.TYPE_FLOAT -> buffer.getFloat(position);
+                        default -> buffer.getDouble(position);
+                    };
+        }
+    }
+
+    /**
+     * Evaluates a pixel of a year like {@link MappedRaster#evaluate}, a one element array of the
+     * stored type.
+     */
+    public Object evaluate(final int x, final int y, final int year) {
+        final var offset = offset(x, y, yearIndex(year));
+        return switch (dataType) {
+            case DataBuffer.TYPE_BYTE -> new byte[] {buffer.get(offset)};
+            case DataBuffer.TYPE_INT -> new int[] {buffer.getInt(offset)};
+            case DataBuffer.TYPE_FLOAT -> new float[] {buffer.getFloat(offset)};
+            default -> new double[] {buffer.getDouble(offset)};
+        };
+    }
+}
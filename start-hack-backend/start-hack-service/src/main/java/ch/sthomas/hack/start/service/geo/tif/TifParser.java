@@ -2,10 +2,19 @@ package ch.sthomas.hack.start.service.geo.tif;
 
 import ch.sthomas.hack.start.service.utils.ProcessUtils;
 
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+
+import jakarta.annotation.Nullable;
+
 import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.crs.GeographicCRS;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
+import org.geotools.gce.geotiff.GeoTiffMetadata2CRSAdapter;
 import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.referencing.CRS;
+import org.geotools.referencing.datum.DefaultGeodeticDatum;
 import org.geotools.util.factory.Hints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,21 +22,99 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
 
 public class TifParser {
     private static final Logger logger = LoggerFactory.getLogger(TifParser.class);
+    private static final int CRS_CACHE_SIZE = 256;
+
+    /** Decoded CRS per file version, so re-reading a tif does not decode its geokeys again. */
+    private static final Map<TifKey, CoordinateReferenceSystem> crsCache =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                final Map.Entry<TifKey, CoordinateReferenceSystem> eldest) {
+                            return size() > CRS_CACHE_SIZE;
+                        }
+                    });
+
     private final Path path;
 
     public TifParser(final Path path) {
         this.path = path;
     }
 
+    private record TifKey(Path path, FileTime lastModified, long size) {}
+
     public GridCoverage2D parse() throws IOException {
         if (!Files.exists(path)) {
             logger.info("No tif file found at {}. Skipping", path);
             return null;
         }
+        try {
+            final var hints = new Hints(Hints.DEFAULT_COORDINATE_REFERENCE_SYSTEM, getCrs());
+            final var reader = new GeoTiffReader(path.toFile(), hints);
+            return reader.read(null);
+        } catch (final FactoryException e) {
+            logger.error("Could not read GeoTIFF", e);
+            return null;
+        }
+    }
+
+    private CoordinateReferenceSystem getCrs() throws IOException, FactoryException {
+        final var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final var key =
+                new TifKey(
+                        path.toAbsolutePath().normalize(),
+                        attributes.lastModifiedTime(),
+                        attributes.size());
+        final var cached = crsCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final var geoKeysCrs = decodeGeoKeys();
+        final CoordinateReferenceSystem crs;
+        if (geoKeysCrs == null) {
+            crs = readWithGdal();
+        } else if (isWgs84(geoKeysCrs)) {
+            crs = CRS.decode("EPSG:4326");
+        } else {
+            crs = geoKeysCrs;
+        }
+        crsCache.put(key, crs);
+        return crs;
+    }
+
+    /** Decodes the CRS from the GeoTIFF geokeys, {@code null} if they cannot be interpreted. */
+    @Nullable
+    private CoordinateReferenceSystem decodeGeoKeys() {
+        try (final var stream = ImageIO.createImageInputStream(path.toFile())) {
+            if (stream == null) {
+                return null;
+            }
+            final var reader = new TIFFImageReaderSpi().createReaderInstance();
+            try {
+                reader.setInput(stream);
+                final var metadata = new GeoTiffIIOMetadataDecoder(reader.getImageMetadata(0));
+                return new GeoTiffMetadata2CRSAdapter(null).createCoordinateSystem(metadata);
+            } finally {
+                reader.dispose();
+            }
+        } catch (final IOException | FactoryException | RuntimeException e) {
+            logger.debug("Could not decode geokeys of {}, using gdalsrsinfo", path, e);
+            return null;
+        }
+    }
+
+    private CoordinateReferenceSystem readWithGdal() throws IOException, FactoryException {
         final var wkt =
                 String.join(
                         "\n",
@@ -39,17 +126,13 @@ public class TifParser {
                                                         "wkt1",
                                                         path.toAbsolutePath().toString())))
                                 .stdout());
-        try {
-            final var crs =
-                    wkt.isEmpty() || wkt.contains("GEOGCS[\"WGS 84\"")
-                            ? CRS.decode("EPSG:4326")
-                            : CRS.parseWKT(wkt);
-            final var hints = new Hints(Hints.DEFAULT_COORDINATE_REFERENCE_SYSTEM, crs);
-            final var reader = new GeoTiffReader(path.toFile(), hints);
-            return reader.read(null);
-        } catch (final FactoryException e) {
-            logger.error("Could not read GeoTIFF", e);
-            return null;
-        }
+        return wkt.isEmpty() || wkt.contains("GEOGCS[\"WGS 84\"")
+                ? CRS.decode("EPSG:4326")
+                : CRS.parseWKT(wkt);
+    }
+
+    private static boolean isWgs84(final CoordinateReferenceSystem crs) {
+        return crs instanceof final GeographicCRS geographicCRS
+                && CRS.equalsIgnoreMetadata(geographicCRS.getDatum(), DefaultGeodeticDatum.WGS84);
     }
 }
@@ -0,0 +1,58 @@
+package ch.sthomas.hack.start.service.layer;
+
+import ch.sthomas.hack.start.model.points.AdminArea;
+
+import jakarta.annotation.Nullable;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedPolygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.Map;
+
+/**
+ * Finds the area containing a point. The areas are prepared once and indexed in an STR-tree, a
+ * lookup only runs the indexed point-in-polygon test of the candidates whose envelope contains the
+ * point. Safe for concurrent lookups.
+ */
+public final class AdminAreaLocator {
+    private final STRtree tree = new STRtree();
+
+    private record Entry(AdminArea area, PreparedGeometry geometry) {
+        boolean covers(final Coordinate coordinate) {
+            if (geometry instanceof final PreparedPolygon polygon) {
+                return polygon.getPointLocator().locate(coordinate) != Location.EXTERIOR;
+            }
+            return geometry.covers(geometry.getGeometry().getFactory().createPoint(coordinate));
+        }
+    }
+
+    public AdminAreaLocator(final Map<AdminArea, Geometry> areas) {
+        for (final var area : areas.entrySet()) {
+            final var prepared = PreparedGeometryFactory.prepare(area.getValue());
+            if (prepared instanceof final PreparedPolygon polygon) {
+                // Build the point locator index now, not under the first concurrent lookups.
+                polygon.getPointLocator().locate(area.getValue().getEnvelopeInternal().centre());
+            }
+            tree.insert(area.getValue().getEnvelopeInternal(), new Entry(area.getKey(), prepared));
+        }
+        tree.build();
+    }
+
+    /** The first area covering the coordinate, {@code null} if there is none. */
+    @Nullable
+    public AdminArea locate(final Coordinate coordinate) {
+        for (final var item : tree.query(new Envelope(coordinate))) {
+            final var entry = (Entry) item;
+            if (entry.covers(coordinate)) {
+                return entry.area();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,133 @@
+package ch.sthomas.hack.start.service.layer;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Immutable STR-tree over the features of one GeoJSON layer file. Only the envelope and the byte
+ * range of every feature are kept in memory; the features in the bounding box of a query are parsed
+ * from the file, which is mapped when the index is built. The layer writers move new files over the
+ * old ones, so an index keeps reading the file it was built from until it is replaced.
+ */
+public final class FeatureIndex {
+    private final ObjectMapper objectMapper;
+    private final ByteBuffer file;
+    private final STRtree tree;
+    private final int size;
+
+    /** The byte range of a feature object in the file, possibly preceded by a separator. */
+    private record Entry(int start, int length) {}
+
+    private FeatureIndex(
+            final ObjectMapper objectMapper,
+            final ByteBuffer file,
+            final STRtree tree,
+            final int size) {
+        this.objectMapper = objectMapper;
+        this.file = file;
+        this.tree = tree;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Indexes the features of a GeoJSON feature collection file. */
+    public static FeatureIndex of(final ObjectMapper objectMapper, final Path geoJson)
+            throws IOException {
+        final var builder = builder();
+        new FeatureCollectionReader(objectMapper, 1).readRanges(geoJson, builder::add);
+        return builder.build(objectMapper, geoJson);
+    }
+
+    /**
+     * Collects the envelopes and byte ranges of the features of a layer, the tree is only built
+     * (and packed) once by {@link #build}.
+     */
+    public static final class Builder {
+        private final STRtree tree = new STRtree();
+        private int size;
+
+        private Builder() {}
+
+        /**
+         * Adds the feature written to the byte range of the file, features without a geometry are
+         * ignored.
+         */
+        public Builder add(final BaseFeature feature, final long start, final long end) {
+            final var geometry = feature.getGeometry();
+            if (geometry != null && !geometry.isEmpty()) {
+                tree.insert(
+                        geometry.getEnvelopeInternal(),
+                        new Entry(Math.toIntExact(start), Math.toIntExact(end - start)));
+                size++;
+            }
+            return this;
+        }
+
+        /** Builds the tree and maps the file the byte ranges point into. */
+        public FeatureIndex build(final ObjectMapper objectMapper, final Path geoJson)
+                throws IOException {
+            tree.build();
+            try (final var channel = FileChannel.open(geoJson, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(geoJson + " is too large to map");
+                }
+                return new FeatureIndex(
+                        objectMapper,
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                        tree,
+                        size);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The features whose envelope intersects the bounding box and that match the filter, at most
+     * {@code limit} of them.
+     */
+    public List<BaseFeature> query(
+            final Envelope bbox, final Predicate<BaseFeature> filter, final int limit)
+            throws IOException {
+        final var result = new ArrayList<BaseFeature>(Math.min(limit, 64));
+        for (final var item : tree.query(bbox)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            final var feature = read((Entry) item);
+            if (filter.test(feature)) {
+                result.add(feature);
+            }
+        }
+        return result;
+    }
+
+    private BaseFeature read(final Entry entry) throws IOException {
+        final var bytes = new byte[entry.length()];
+        file.get(entry.start(), bytes);
+        var offset = 0;
+        while (offset < bytes.length && bytes[offset] != '{') {
+            offset++;
+        }
+        return objectMapper.readValue(bytes, offset, bytes.length - offset, BaseFeature.class);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.sthomas.hack.start.service.layer;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+
+import jakarta.annotation.Nullable;
+
+import org.locationtech.jts.geom.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The indexed layers (OSM and administrative) for viewport queries. A reload builds a new index
+ * next to the served one and swaps it in, queries never see a half built layer.
+ */
+@Service
+public class FeatureLayerService {
+    private static final Logger logger = LoggerFactory.getLogger(FeatureLayerService.class);
+
+    private final Map<String, FeatureIndex> layers = new ConcurrentHashMap<>();
+
+    /** Replaces the layer by the index. */
+    public void publish(final String layer, final FeatureIndex index) {
+        layers.put(layer, index);
+        logger.info("Indexed {} features of layer {}", index.size(), layer);
+    }
+
+    public SortedSet<String> getLayers() {
+        return new TreeSet<>(layers.keySet());
+    }
+
+    /**
+     * The features of the layer in the bounding box, {@code null} if there is no such layer.
+     *
+     * @param filters property values the features must have, {@code null} values only require the
+     *     property to be set
+     */
+    @Nullable
+    public List<BaseFeature> query(
+            final String layer,
+            final Envelope bbox,
+            final Map<String, String> filters,
+            final int limit)
+            throws IOException {
+        final var index = layers.get(layer);
+        if (index == null) {
+            return null;
+        }
+        return index.query(bbox, matching(filters), limit);
+    }
+
+    private static Predicate<BaseFeature> matching(final Map<String, String> filters) {
+        if (filters.isEmpty()) {
+            return f -> true;
+        }
+        return feature -> {
+            final var properties = feature.getProperties();
+            if (properties == null) {
+                return false;
+            }
+            for (final var filter : filters.entrySet()) {
+                final var value = properties.get(filter.getKey());
+                if (value == null
+                        || filter.getValue() != null
+                                && !Objects.equals(value.toString(), filter.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+}
@@ -0,0 +1,39 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import com.pivovarit.function.ThrowingRunnable;
+
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes the jobs that rewrite the rasters, grids and statistics of the products, i.e. the
+ * ingest at startup and the re-ingest of changed tifs by the folder watcher.
+ */
+@Service
+public class IngestLock {
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /** Runs the job once no other ingest job is running. */
+    public <E extends Exception> void run(final ThrowingRunnable<E> job) throws E {
+        lock.lock();
+        try {
+            job.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Runs the job only if no other ingest job is running, returns whether it ran. */
+    public <E extends Exception> boolean tryRun(final ThrowingRunnable<E> job) throws E {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            job.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers from which inputs (by content hash) and with which pipeline version every generated
+ * file of the output folder was written, so unchanged artifacts are not computed again after a
+ * restart.
+ *
+ * <p>Inputs are hashed only when their size or last modified time differ from the recorded ones, a
+ * warm start only reads file attributes.
+ *
+ * <p>Records are kept in memory until {@link #flush()}, which callers invoke once per batch of
+ * artifacts; what is still pending is written on shutdown. An artifact whose record was lost is
+ * only computed again.
+ */
+@Service
+public class IngestManifest {
+    private static final Logger logger = LoggerFactory.getLogger(IngestManifest.class);
+    static final String FILE_NAME = ".ingest-manifest.json";
+
+    private final Path outputFolder;
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Artifact> artifacts = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public IngestManifest(
+            @Value("${ch.sthomas.hack.start.public.folder}") final String outputFolder,
+            final ObjectMapper objectMapper) {
+        this.outputFolder = Path.of(outputFolder);
+        this.file = this.outputFolder.resolve(FILE_NAME);
+        this.objectMapper = objectMapper;
+        load();
+    }
+
+    public record Input(String path, long size, long modified, String sha256) {
+        boolean sameContent(final Input other) {
+            return path.equals(other.path) && sha256.equals(other.sha256);
+        }
+    }
+
+    /** The pipeline version and the inputs an artifact was (or is about to be) written from. */
+    public record Artifact(String version, List<Input> inputs) {
+        boolean sameContent(final Artifact other) {
+            if (!version.equals(other.version) || inputs.size() != other.inputs.size()) {
+                return false;
+            }
+            for (var i = 0; i < inputs.size(); i++) {
+                if (!inputs.get(i).sameContent(other.inputs.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            artifacts.putAll(
+                    objectMapper.readValue(
+                            file.toFile(), new TypeReference<Map<String, Artifact>>() {}));
+        } catch (final IOException e) {
+            logger.warn("Could not read {}, computing all artifacts again", file, e);
+        }
+    }
+
+    /**
+     * Captures the current state of the inputs. Take it before reading the inputs, so a change
+     * during the computation is picked up by the next run.
+     */
+    public Artifact stamp(final String version, final Collection<Path> inputs) throws IOException {
+        final var known = new HashMap<String, Input>();
+        artifacts.values().forEach(a -> a.inputs().forEach(i -> known.put(i.path(), i)));
+        final var stamped =
+                inputs.stream()
+                        .map(p -> p.toAbsolutePath().normalize())
+                        .distinct()
+                        .sorted(Comparator.comparing(Path::toString))
+                        .toList();
+        final var result = new ArrayList<Input>(stamped.size());
+        for (final var input : stamped) {
+            final var attributes = Files.readAttributes(input, BasicFileAttributes.class);
+            final var size = attributes.size();
+            final var modified = attributes.lastModifiedTime().toMillis();
+            final var previous = known.get(input.toString());
+            final var sha256 =
+                    previous != null && previous.size() == size && previous.modified() == modified
+                            ? previous.sha256()
+                            : sha256(input);
+            result.add(new Input(input.toString(), size, modified, sha256));
+        }
+        return new Artifact(version, List.copyOf(result));
+    }
+
+    /**
+     * Whether the artifact exists and was written from inputs with the same content by the same
+     * pipeline version.
+     */
+    public boolean isUpToDate(final Path artifact, final Artifact stamp) throws IOException {
+        final var key = key(artifact);
+        final var recorded = artifacts.get(key);
+        if (!Files.exists(artifact) || recorded == null || !recorded.sameContent(stamp)) {
+            return false;
+        }
+        if (!recorded.equals(stamp)) {
+            // Touched, but not changed: remember the new attributes to not hash it again.
+            record(artifact, stamp);
+        }
+        return true;
+    }
+
+    /** Records that the artifact was written from the stamped inputs, saved on the next flush. */
+    public void record(final Path artifact, final Artifact stamp) {
+        artifacts.put(key(artifact), stamp);
+        dirty.set(true);
+    }
+
+    /** Saves the manifest if anything was recorded since the last flush. */
+    public void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            save();
+        } catch (final IOException e) {
+            dirty.set(true);
+            logger.warn("Could not save {}, retrying on the next flush", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private String key(final Path artifact) {
+        return outputFolder
+                .toAbsolutePath()
+                .normalize()
+                .relativize(artifact.toAbsolutePath().normalize())
+                .toString();
+    }
+
+    private synchronized void save() throws IOException {
+        Files.createDirectories(outputFolder);
+        final var tmp = Files.createTempFile(outputFolder, FILE_NAME, ".tmp");
+        try {
+            objectMapper
+                    .writerWithDefaultPrettyPrinter()
+                    .writeValue(tmp.toFile(), new TreeMap<>(artifacts));
+            Files.move(
+                    tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** The hex SHA-256 of the content of the file. */
+    public static String sha256(final Path path) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final var buffer = ByteBuffer.allocate(1 << 20);
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,85 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+import com.pivovarit.function.ThrowingSupplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The meters of the ingest stages: {@code ingest.stage} times every stage (parse, warp, polygonize,
+ * serialize, ...) of a product year, {@code layer.features} holds the number of features last
+ * written per layer. Stages are tagged by {@code stage}, {@code product} and {@code year}, the
+ * latter two are {@code none} for stages that do not belong to a product year.
+ */
+@Service
+public class IngestMetrics {
+    private static final String NONE = "none";
+
+    private final MeterRegistry registry;
+    private final Map<Tags, AtomicLong> features = new ConcurrentHashMap<>();
+
+    public IngestMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** The tags of a product year. */
+    public static Tags tags(final ModisProduct product, final int year) {
+        return Tags.of(Tag.of("product", product.name()), Tag.of("year", Integer.toString(year)));
+    }
+
+    /** The tags of a year of a stage that is not bound to a product, e.g. the GPP ranking. */
+    public static Tags tags(final int year) {
+        return Tags.of(Tag.of("product", NONE), Tag.of("year", Integer.toString(year)));
+    }
+
+    /** Times the stage, failures included. */
+    public <T, E extends Exception> T time(
+            final String stage, final Tags tags, final ThrowingSupplier<T, E> work) throws E {
+        final var start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, tags, System.nanoTime() - start);
+        }
+    }
+
+    /** Records the time of a stage measured elsewhere, e.g. summed up while streaming. */
+    public void record(final String stage, final Tags tags, final long nanos) {
+        Timer.builder("ingest.stage")
+                .description("Time spent in a stage of the ingest")
+                .tag("stage", stage)
+                .tags(withDefaults(tags))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Sets the number of features written to the layer, e.g. {@code gp} or {@code districts}. */
+    public void features(final String layer, final Tags tags, final long count) {
+        final var key = withDefaults(tags).and("layer", layer);
+        features.computeIfAbsent(
+                        key,
+                        k -> registry.gauge("layer.features", k, new AtomicLong(), AtomicLong::get))
+                .set(count);
+    }
+
+    private static Tags withDefaults(final Tags tags) {
+        var result = tags;
+        for (final var key : new String[] {"product", "year"}) {
+            if (tags.stream().noneMatch(tag -> tag.getKey().equals(key))) {
+                result = result.and(key, NONE);
+            }
+        }
+        return result;
+    }
+}
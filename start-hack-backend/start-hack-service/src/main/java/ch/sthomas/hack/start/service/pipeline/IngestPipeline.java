@@ -0,0 +1,128 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import com.pivovarit.function.ThrowingRunnable;
+import com.pivovarit.function.ThrowingSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs ingest units (e.g. one product year) concurrently on virtual threads. Units are cheap to
+ * start, the actual work is bounded by two separate limits: {@link #cpu} for in process raster work
+ * and {@link #process} for external processes like {@code gdalwarp}.
+ *
+ * <p>A failing unit is logged and reported, the other units of the batch keep running.
+ */
+@Service
+public class IngestPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(IngestPipeline.class);
+
+    private final Semaphore cpuPermits;
+    private final Semaphore processPermits;
+
+    public IngestPipeline(
+            @Value("${ch.sthomas.hack.start.service.ingest.cpu-limit:0}") final int cpuLimit,
+            @Value("${ch.sthomas.hack.start.service.ingest.process-limit:2}")
+                    final int processLimit) {
+        this.cpuPermits =
+                new Semaphore(
+                        cpuLimit > 0 ? cpuLimit : Runtime.getRuntime().availableProcessors(), true);
+        this.processPermits = new Semaphore(Math.max(1, processLimit), true);
+    }
+
+    public record Unit(String name, ThrowingRunnable<Exception> task) {}
+
+    public record Failure(String unit, Exception exception) {}
+
+    public record Report(String batch, int units, List<Failure> failures, long millis) {
+        public int succeeded() {
+            return units - failures.size();
+        }
+
+        public double unitsPerSecond() {
+            return millis == 0 ? units : units * 1000d / millis;
+        }
+    }
+
+    /** Runs all units and waits for them, failures are collected instead of thrown. */
+    public Report run(final String batch, final Collection<Unit> units) {
+        final var start = System.nanoTime();
+        final var failures = new ArrayList<Failure>();
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var futures = new ArrayList<Future<?>>(units.size());
+            for (final var unit : units) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    unit.task().run();
+                                    return null;
+                                }));
+            }
+            var i = 0;
+            for (final var unit : units) {
+                try {
+                    futures.get(i++).get();
+                } catch (final ExecutionException e) {
+                    final var cause =
+                            e.getCause() instanceof final Exception exception ? exception : e;
+                    logger.warn("Ingest unit {} of {} failed", unit.name(), batch, cause);
+                    failures.add(new Failure(unit.name(), cause));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    failures.add(new Failure(unit.name(), e));
+                    break;
+                }
+            }
+        }
+        final var report =
+                new Report(batch, units.size(), failures, (System.nanoTime() - start) / 1_000_000);
+        logger.info(
+                "Ingested {} of {} units of {} in {} ms ({} units/s), {} failed.",
+                report.succeeded(),
+                report.units(),
+                batch,
+                report.millis(),
+                String.format("%.2f", report.unitsPerSecond()),
+                failures.size());
+        return report;
+    }
+
+    /** Runs CPU heavy work, at most {@code ingest.cpu-limit} at a time. */
+    public <T> T cpu(final ThrowingSupplier<T, IOException> work) throws IOException {
+        return withPermit(cpuPermits, work);
+    }
+
+    /** Runs work driving an external process, at most {@code ingest.process-limit} at a time. */
+    public <T> T process(final ThrowingSupplier<T, IOException> work) throws IOException {
+        return withPermit(processPermits, work);
+    }
+
+    private static <T> T withPermit(
+            final Semaphore permits, final ThrowingSupplier<T, IOException> work)
+            throws IOException {
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a permit");
+        }
+        try {
+            return work.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
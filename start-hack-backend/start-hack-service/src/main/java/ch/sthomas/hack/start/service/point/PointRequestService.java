@@ -1,26 +1,180 @@
 package ch.sthomas.hack.start.service.point;
 
+import ch.sthomas.hack.start.model.points.AdminArea;
+import ch.sthomas.hack.start.model.points.PointAdminAreas;
+import ch.sthomas.hack.start.model.points.PointBatchData;
+import ch.sthomas.hack.start.model.points.PointBatchRequest;
 import ch.sthomas.hack.start.model.points.PointData;
+import ch.sthomas.hack.start.model.points.PointDataResult;
+import ch.sthomas.hack.start.model.product.ModisProduct;
 import ch.sthomas.hack.start.service.AdminDataService;
 import ch.sthomas.hack.start.service.ModisDataService;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
 import org.locationtech.jts.geom.Coordinate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Answers point requests. The point data of a single coordinate is cached as serialized JSON, keyed
+ * by the pixels the coordinate falls in rather than by the coordinate itself, so every point of the
+ * same pixels shares one entry. Entries of older data versions are never served.
+ */
 @Service
-public class PointRequestService {
+public class PointRequestService implements MeterBinder {
     private final ModisDataService modisDataService;
     private final AdminDataService adminDataService;
+    private final ObjectMapper objectMapper;
+
+    /** Serialized point data, weighted by its size in bytes. */
+    private final AsyncCache<PixelKey, byte[]> pointDataCache;
+
+    private volatile long cachedVersion;
 
     public PointRequestService(
-            final ModisDataService modisDataService, final AdminDataService adminDataService) {
+            final ModisDataService modisDataService,
+            final AdminDataService adminDataService,
+            final ObjectMapper objectMapper,
+            @Value("${ch.sthomas.hack.start.service.point-cache.max-size:32MB}")
+                    final DataSize pointCacheMaxSize) {
         this.modisDataService = modisDataService;
         this.adminDataService = adminDataService;
+        this.objectMapper = objectMapper;
+        this.pointDataCache =
+                Caffeine.newBuilder()
+                        .maximumWeight(pointCacheMaxSize.toBytes())
+                        .weigher(
+                                (final PixelKey key, final byte[] json) -> Math.max(1, json.length))
+                        .recordStats()
+                        .buildAsync();
     }
 
-    public List<PointData<Object>> getPointData(final Coordinate coordinate) {
+    /** The data version and the pixel of every product, see {@link ModisDataService#getPixels}. */
+    private record PixelKey(long version, long[] pixels) {
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof final PixelKey other
+                    && version == other.version
+                    && Arrays.equals(pixels, other.pixels);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(version) + Arrays.hashCode(pixels);
+        }
+    }
+
+    public PointDataResult getPointData(final Coordinate coordinate) {
         return modisDataService.getPointData(coordinate);
     }
+
+    /**
+     * Serialized point data, {@code json} is a list of {@link PointData}.
+     *
+     * @param missing the products that are not in the data, see {@link PointDataResult#missing()}
+     */
+    public record PointDataJson(byte[] json, Set<ModisProduct> missing) {}
+
+    /**
+     * The point data of the coordinate as JSON. Concurrent requests for the same pixels share a
+     * single evaluation, the evaluating request runs it on its own thread outside of the cache.
+     * Partial results are returned but not cached.
+     */
+    public PointDataJson getPointDataJson(final Coordinate coordinate) throws IOException {
+        final var version = modisDataService.getDataVersion();
+        if (version != cachedVersion) {
+            // Entries of the previous version can not be hit anymore, free their memory.
+            pointDataCache.synchronous().invalidateAll();
+            cachedVersion = version;
+        }
+        final var pixels = modisDataService.getPixels(coordinate);
+        if (pixels == null) {
+            return toJson(getPointData(coordinate));
+        }
+        final var evaluation = new CompletableFuture<byte[]>();
+        final var cached = pointDataCache.get(new PixelKey(version, pixels), (k, e) -> evaluation);
+        PointDataResult partial = null;
+        if (cached == evaluation) {
+            try {
+                final var result = getPointData(coordinate);
+                if (result.isPartial()) {
+                    partial = result;
+                    // A null value removes the entry, waiting requests evaluate on their own.
+                    evaluation.complete(null);
+                } else {
+                    evaluation.complete(objectMapper.writeValueAsBytes(result.data()));
+                }
+            } catch (final IOException | RuntimeException e) {
+                evaluation.completeExceptionally(e);
+            }
+        }
+        final byte[] json;
+        try {
+            json = cached.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+        if (json != null) {
+            return new PointDataJson(json, Set.of());
+        }
+        // Partial, evaluated by this request or by the one this request waited for.
+        return toJson(partial != null ? partial : getPointData(coordinate));
+    }
+
+    private PointDataJson toJson(final PointDataResult result) throws IOException {
+        return new PointDataJson(objectMapper.writeValueAsBytes(result.data()), result.missing());
+    }
+
+    /** The district and region containing the point. */
+    public PointAdminAreas getAdminAreas(final Coordinate coordinate) throws IOException {
+        return new PointAdminAreas(
+                adminDataService.getDistrict(coordinate), adminDataService.getRegion(coordinate));
+    }
+
+    public PointBatchData getPointData(final PointBatchRequest request) throws IOException {
+        final var products =
+                request.products() == null || request.products().isEmpty()
+                        ? EnumSet.allOf(ModisProduct.class)
+                        : request.products();
+        final var coordinates =
+                request.points().stream().map(p -> new Coordinate(p[0], p[1])).toList();
+        final var data =
+                modisDataService.getPointData(
+                        coordinates,
+                        products,
+                        Objects.requireNonNullElse(request.fromYear(), Integer.MIN_VALUE),
+                        Objects.requireNonNullElse(request.toYear(), Integer.MAX_VALUE));
+        final var districts = new ArrayList<AdminArea>(coordinates.size());
+        final var regions = new ArrayList<AdminArea>(coordinates.size());
+        for (final var coordinate : coordinates) {
+            districts.add(adminDataService.getDistrict(coordinate));
+            regions.add(adminDataService.getRegion(coordinate));
+        }
+        return data.withAdminAreas(districts, regions);
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, pointDataCache.synchronous(), "point-data");
+    }
 }
@@ -0,0 +1,94 @@
+package ch.sthomas.hack.start.service.tile;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+/**
+ * Maps raster values to ARGB colors. Values below the first stop are transparent. With {@code
+ * interpolate} the colors are blended between the stops, otherwise a value takes the color of the
+ * last stop it reached. {@link Double#NaN} colors nothing.
+ */
+public record ColorRamp(double[] stops, int[] colors, boolean interpolate) {
+    public static final int TRANSPARENT = 0;
+
+    /** Bump when a ramp changes, cached tiles and their ETags depend on it. */
+    public static final int VERSION = 1;
+
+    /** The MODIS land cover classes named by {@link ModisProduct#getLandUseFromKey}. */
+    private static final ColorRamp LAND_COVER =
+            new ColorRamp(
+                    new double[] {7, 8, 10, 11, 12, 13, 14, 16, 17},
+                    new int[] {
+                        0xffdcd159, // Open Shrublands
+                        TRANSPARENT,
+                        0xffb6ff05, // Grasslands
+                        TRANSPARENT,
+                        0xffc24f44, // Croplands
+                        0xffa5a5a5, // Urban and Built-up Lands
+                        TRANSPARENT,
+                        0xfff9ffa4, // Barren
+                        TRANSPARENT
+                    },
+                    false);
+
+    private static final double[] PRODUCTION_STOPS = {1, 100, 200, 500, 1000, 2000, 5000};
+    private static final int[] PRODUCTION_COLORS = {
+        0xfff7fcb9, 0xffd9f0a3, 0xffaddd8e, 0xff78c679, 0xff41ab5d, 0xff238443, 0xff005a32
+    };
+
+    private static final ColorRamp PRODUCTION =
+            new ColorRamp(PRODUCTION_STOPS, PRODUCTION_COLORS, true);
+
+    /** The same classes {@code GridCoverageService.simplifyGrid} rounds to. */
+    private static final ColorRamp PRODUCTION_SIMPLIFIED =
+            new ColorRamp(PRODUCTION_STOPS, PRODUCTION_COLORS, false);
+
+    private static final ColorRamp POPULATION_DENSITY =
+            new ColorRamp(
+                    new double[] {0.1, 1, 10, 50, 100, 500},
+                    new int[] {
+                        0xfffee5d9, 0xfffcbba1, 0xfffc9272, 0xfffb6a4a, 0xffde2d26, 0xffa50f15
+                    },
+                    true);
+
+    private static final ColorRamp PRECIPITATION =
+            new ColorRamp(
+                    new double[] {0, 100, 200, 400, 800, 1600},
+                    new int[] {
+                        0xfffff5eb, 0xffc6dbef, 0xff9ecae1, 0xff6baed6, 0xff3182bd, 0xff08519c
+                    },
+                    true);
+
+    public static ColorRamp of(final ModisProduct product) {
+        return switch (product) {
+            case LCT -> LAND_COVER;
+            case GP -> PRODUCTION;
+            case GP_SIMPLIFIED -> PRODUCTION_SIMPLIFIED;
+            case POPULATION_DENSITY -> POPULATION_DENSITY;
+            case CLIMATE_PRECIPITATION -> PRECIPITATION;
+        };
+    }
+
+    public int argb(final double value) {
+        if (Double.isNaN(value) || value < stops[0]) {
+            return TRANSPARENT;
+        }
+        var i = 0;
+        while (i + 1 < stops.length && value >= stops[i + 1]) {
+            i++;
+        }
+        if (!interpolate || i + 1 == stops.length) {
+            return colors[i];
+        }
+        return blend(colors[i], colors[i + 1], (value - stops[i]) / (stops[i + 1] - stops[i]));
+    }
+
+    private static int blend(final int from, final int to, final double t) {
+        var argb = 0;
+        for (var shift = 0; shift < 32; shift += 8) {
+            final var a = (from >>> shift) & 0xff;
+            final var b = (to >>> shift) & 0xff;
+            argb |= ((int) Math.round(a + (b - a) * t) & 0xff) << shift;
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,294 @@
+package ch.sthomas.hack.start.service.tile;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes features into a Mapbox Vector Tile (version 2). Geometries are expected in tile pixel
+ * coordinates, {@code 0..extent} with y pointing down, and are rounded to integers. Rings that
+ * collapse when rounded are dropped.
+ */
+public class MvtEncoder {
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int CLOSE_PATH = 7;
+
+    private static final int POINT = 1;
+    private static final int LINESTRING = 2;
+    private static final int POLYGON = 3;
+
+    private final int extent;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+    public MvtEncoder(final int extent) {
+        this.extent = extent;
+    }
+
+    private static final class Layer {
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final Map<Object, Integer> values = new LinkedHashMap<>();
+        private final List<byte[]> features = new ArrayList<>();
+    }
+
+    /**
+     * Adds a feature to the layer, {@code false} if nothing of the geometry is left after rounding.
+     * Property values other than strings, numbers and booleans are encoded as strings.
+     */
+    public boolean addFeature(
+            final String layerName, final Geometry geometry, final Map<String, ?> properties) {
+        final var commands = new ArrayList<Integer>();
+        final var type = commands(geometry, commands);
+        if (commands.isEmpty()) {
+            return false;
+        }
+        final var layer = layers.computeIfAbsent(layerName, n -> new Layer());
+        final var tags = new ArrayList<Integer>();
+        properties.forEach(
+                (key, value) -> {
+                    if (value == null) {
+                        return;
+                    }
+                    final var normalized =
+                            value instanceof Number || value instanceof Boolean
+                                    ? value
+                                    : value.toString();
+                    tags.add(layer.keys.computeIfAbsent(key, k -> layer.keys.size()));
+                    tags.add(layer.values.computeIfAbsent(normalized, v -> layer.values.size()));
+                });
+        final var feature = new Writer();
+        feature.packed(2, tags);
+        feature.varint(3, type);
+        feature.packed(4, commands);
+        layer.features.add(feature.toByteArray());
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return layers.isEmpty();
+    }
+
+    public byte[] encode() {
+        final var tile = new Writer();
+        layers.forEach(
+                (name, layer) -> {
+                    final var writer = new Writer();
+                    writer.varint(15, 2);
+                    writer.string(1, name);
+                    layer.features.forEach(feature -> writer.bytes(2, feature));
+                    layer.keys.keySet().forEach(key -> writer.string(3, key));
+                    layer.values.keySet().forEach(value -> writer.bytes(4, value(value)));
+                    writer.varint(5, extent);
+                    tile.bytes(3, writer.toByteArray());
+                });
+        return tile.toByteArray();
+    }
+
+    private static byte[] value(final Object value) {
+        final var writer = new Writer();
+        switch (value) {
+            case final String s -> writer.string(1, s);
+            case final Float f -> writer.fixed32(2, Float.floatToIntBits(f));
+            case final Double d -> writer.fixed64(3, Double.doubleToLongBits(d));
+            case final Boolean b -> writer.varint(7, b ? 1 : 0);
+            case final Number n -> writer.varint(6, zigZag(n.longValue()));
+            default -> writer.string(1, value.toString());
+        }
+        return writer.toByteArray();
+    }
+
+    /** Appends the geometry commands, returns the MVT geometry type. */
+    static int commands(final Geometry geometry, final List<Integer> commands) {
+        final var cursor = new int[2];
+        if (geometry instanceof Point || geometry instanceof MultiPoint) {
+            final var points = new ArrayList<int[]>();
+            for (final var coordinate : geometry.getCoordinates()) {
+                points.add(round(coordinate));
+            }
+            if (!points.isEmpty()) {
+                commands.add(command(MOVE_TO, points.size()));
+                points.forEach(point -> move(point, cursor, commands));
+            }
+            return POINT;
+        }
+        if (geometry instanceof LineString || geometry instanceof MultiLineString) {
+            for (var i = 0; i < geometry.getNumGeometries(); i++) {
+                final var line = dedupe(geometry.getGeometryN(i).getCoordinates());
+                if (line.size() >= 2) {
+                    path(line, false, cursor, commands);
+                }
+            }
+            return LINESTRING;
+        }
+        for (var i = 0; i < geometry.getNumGeometries(); i++) {
+            if (!(geometry.getGeometryN(i) instanceof final Polygon polygon)) {
+                continue;
+            }
+            final var exterior = ring(polygon.getExteriorRing().getCoordinates(), true);
+            if (exterior == null) {
+                continue;
+            }
+            path(exterior, true, cursor, commands);
+            for (var h = 0; h < polygon.getNumInteriorRing(); h++) {
+                final var hole = ring(polygon.getInteriorRingN(h).getCoordinates(), false);
+                if (hole != null) {
+                    path(hole, true, cursor, commands);
+                }
+            }
+        }
+        return POLYGON;
+    }
+
+    /**
+     * The rounded ring without its closing point, oriented clockwise (positive area with y down)
+     * for exteriors and counter clockwise for holes, {@code null} if it collapsed.
+     */
+    private static List<int[]> ring(final Coordinate[] coordinates, final boolean exterior) {
+        final var ring = dedupe(coordinates);
+        if (ring.size() > 1 && sameLocation(ring.getFirst(), ring.getLast())) {
+            ring.removeLast();
+        }
+        if (ring.size() < 3) {
+            return null;
+        }
+        final var area = area(ring);
+        if (area == 0) {
+            return null;
+        }
+        if (area > 0 != exterior) {
+            return ring.reversed();
+        }
+        return ring;
+    }
+
+    private static long area(final List<int[]> ring) {
+        var area = 0L;
+        for (var i = 0; i < ring.size(); i++) {
+            final var a = ring.get(i);
+            final var b = ring.get((i + 1) % ring.size());
+            area += (long) a[0] * b[1] - (long) b[0] * a[1];
+        }
+        return area;
+    }
+
+    private static List<int[]> dedupe(final Coordinate[] coordinates) {
+        final var points = new ArrayList<int[]>(coordinates.length);
+        for (final var coordinate : coordinates) {
+            final var point = round(coordinate);
+            if (points.isEmpty() || !sameLocation(points.getLast(), point)) {
+                points.add(point);
+            }
+        }
+        return points;
+    }
+
+    private static void path(
+            final List<int[]> points,
+            final boolean close,
+            final int[] cursor,
+            final List<Integer> commands) {
+        commands.add(command(MOVE_TO, 1));
+        move(points.getFirst(), cursor, commands);
+        commands.add(command(LINE_TO, points.size() - 1));
+        for (var i = 1; i < points.size(); i++) {
+            move(points.get(i), cursor, commands);
+        }
+        if (close) {
+            commands.add(command(CLOSE_PATH, 1));
+        }
+    }
+
+    private static void move(final int[] point, final int[] cursor, final List<Integer> commands) {
+        commands.add((int) zigZag(point[0] - cursor[0]));
+        commands.add((int) zigZag(point[1] - cursor[1]));
+        cursor[0] = point[0];
+        cursor[1] = point[1];
+    }
+
+    private static boolean sameLocation(final int[] a, final int[] b) {
+        return a[0] == b[0] && a[1] == b[1];
+    }
+
+    private static int[] round(final Coordinate coordinate) {
+        return new int[] {(int) Math.round(coordinate.x), (int) Math.round(coordinate.y)};
+    }
+
+    private static int command(final int id, final int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** The few protobuf wire types the tile format needs. */
+    private static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private void tag(final int field, final int wireType) {
+            raw((long) field << 3 | wireType);
+        }
+
+        private void raw(final long value) {
+            var v = value;
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        private void varint(final int field, final long value) {
+            tag(field, 0);
+            raw(value);
+        }
+
+        private void fixed32(final int field, final int value) {
+            tag(field, 5);
+            for (var i = 0; i < 4; i++) {
+                out.write(value >>> (8 * i));
+            }
+        }
+
+        private void fixed64(final int field, final long value) {
+            tag(field, 1);
+            for (var i = 0; i < 8; i++) {
+                out.write((int) (value >>> (8 * i)));
+            }
+        }
+
+        private void bytes(final int field, final byte[] value) {
+            tag(field, 2);
+            raw(value.length);
+            out.writeBytes(value);
+        }
+
+        private void string(final int field, final String value) {
+            bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void packed(final int field, final List<Integer> values) {
+            if (values.isEmpty()) {
+                return;
+            }
+            final var packed = new Writer();
+            values.forEach(v -> packed.raw(v & 0xFFFFFFFFL));
+            bytes(field, packed.toByteArray());
+        }
+
+        private byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package ch.sthomas.hack.start.service.tile;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.ModisDataService;
+import ch.sthomas.hack.start.service.geo.store.MappedRaster;
+import ch.sthomas.hack.start.service.geo.store.RasterStore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import jakarta.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders XYZ (web mercator) PNG tiles of a product year straight from its {@link MappedRaster},
+ * reading only the raster pixels under the tile. Tiles are kept in a bounded memory cache backed by
+ * a bounded folder, both keyed by the modification time of the tif, which is also the ETag.
+ */
+@Service
+public class RasterTileService implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(RasterTileService.class);
+
+    public static final int TILE_SIZE = 256;
+
+    private final ModisDataService modisDataService;
+    private final RasterStore rasterStore;
+    private final Path folder;
+
+    /** Encoded tiles, weighted by their size in bytes. */
+    private final Cache<TileKey, byte[]> tiles;
+
+    /** The tile files in the folder, weighted by their size in KiB. */
+    private final Cache<Path, Long> files;
+
+    public RasterTileService(
+            final ModisDataService modisDataService,
+            final RasterStore rasterStore,
+            @Value("${ch.sthomas.hack.start.service.raster-store.folder:raster-store}")
+                    final String folder,
+            @Value("${ch.sthomas.hack.start.service.tiles.png-cache.max-size:128MB}")
+                    final DataSize memoryMaxSize,
+            @Value("${ch.sthomas.hack.start.service.tiles.png-disk-cache.max-size:1GB}")
+                    final DataSize diskMaxSize)
+            throws IOException {
+        this.modisDataService = modisDataService;
+        this.rasterStore = rasterStore;
+        this.folder = Path.of(folder).resolve("tiles");
+        this.tiles =
+                Caffeine.newBuilder()
+                        .maximumWeight(memoryMaxSize.toBytes())
+                        .weigher((final TileKey key, final byte[] tile) -> Math.max(1, tile.length))
+                        .recordStats()
+                        .build();
+        this.files =
+                Caffeine.newBuilder()
+                        .maximumWeight(diskMaxSize.toKilobytes())
+                        .weigher(
+                                (final Path path, final Long size) ->
+                                        (int) Math.max(1, Math.min(Integer.MAX_VALUE, size / 1024)))
+                        .removalListener(
+                                (final Path path, final Long size, final RemovalCause cause) -> {
+                                    if (cause.wasEvicted() && path != null) {
+                                        deleteQuietly(path);
+                                    }
+                                })
+                        .executor(Runnable::run)
+                        .build();
+        if (Files.isDirectory(this.folder)) {
+            try (final Stream<Path> existing = Files.walk(this.folder)) {
+                existing.filter(Files::isRegularFile)
+                        .forEach(file -> files.put(file, file.toFile().length()));
+            }
+        }
+    }
+
+    private record TileKey(ModisProduct product, int year, long modified, int z, int x, int y) {}
+
+    /** The tile and its ETag, the tile is empty if no pixel of it has a color. */
+    public record Tile(byte[] png, String etag) {}
+
+    /**
+     * The ETag of the tiles of the product year, without rendering anything, or {@code null} if the
+     * year has no raster.
+     */
+    @Nullable
+    public String etag(final ModisProduct product, final int year) throws IOException {
+        final var raster = rasterStore.get(modisDataService.yearTif(product, year));
+        return raster == null ? null : etag(product, year, raster);
+    }
+
+    private static String etag(
+            final ModisProduct product, final int year, final MappedRaster raster) {
+        return "\"%s-%d-%d-%d\""
+                .formatted(
+                        product.name().toLowerCase(),
+                        year,
+                        raster.getSourceModified().toMillis(),
+                        ColorRamp.VERSION);
+    }
+
+    /**
+     * Returns the tile, or {@code null} if the product year has no raster or the tile does not
+     * exist.
+     */
+    @Nullable
+    public Tile getTile(
+            final ModisProduct product, final int year, final int z, final int x, final int y)
+            throws IOException {
+        if (z < 0 || z > TileService.MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            return null;
+        }
+        final var raster = rasterStore.get(modisDataService.yearTif(product, year));
+        if (raster == null) {
+            return null;
+        }
+        final var key = new TileKey(product, year, raster.getSourceModified().toMillis(), z, x, y);
+        try {
+            return new Tile(
+                    tiles.get(key, k -> readOrRender(k, raster)), etag(product, year, raster));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private byte[] readOrRender(final TileKey key, final MappedRaster raster) {
+        final var file =
+                folder.resolve(key.product().name().toLowerCase())
+                        .resolve(Integer.toString(key.year()))
+                        .resolve(Integer.toString(key.z()))
+                        .resolve(Integer.toString(key.x()))
+                        .resolve(
+                                "%d-%d-%d.png"
+                                        .formatted(key.y(), key.modified(), ColorRamp.VERSION));
+        try {
+            if (files.getIfPresent(file) != null && Files.exists(file)) {
+                return Files.readAllBytes(file);
+            }
+            final var png = render(key.product(), raster, key.z(), key.x(), key.y());
+            Files.createDirectories(file.getParent());
+            final var tmp =
+                    Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, png);
+                Files.move(
+                        tmp,
+                        file,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            files.put(file, (long) png.length);
+            return png;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Renders the tile, an empty array if no pixel of it has a color. */
+    static byte[] render(
+            final ModisProduct product,
+            final MappedRaster raster,
+            final int z,
+            final int x,
+            final int y)
+            throws IOException {
+        final var ramp = ColorRamp.of(product);
+        final var noData = raster.getNoData();
+        final var matrix = new double[6];
+        try {
+            raster.getGridToWorld().createInverse().getMatrix(matrix);
+        } catch (final NoninvertibleTransformException e) {
+            throw new IOException("Grid to world transform is not invertible", e);
+        }
+        final var tiles = (double) (1 << z);
+        final var lons = new double[TILE_SIZE];
+        for (var px = 0; px < TILE_SIZE; px++) {
+            lons[px] = ((x + (px + 0.5) / TILE_SIZE) / tiles) * 360 - 180;
+        }
+        final var argb = new int[TILE_SIZE * TILE_SIZE];
+        var colored = false;
+        for (var py = 0; py < TILE_SIZE; py++) {
+            final var fraction = (y + (py + 0.5) / TILE_SIZE) / tiles;
+            final var lat = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * fraction))));
+            for (var px = 0; px < TILE_SIZE; px++) {
+                // World coordinates of the rasters are (lat, lon) for inverted products.
+                final var w0 = product.invert() ? lat : lons[px];
+                final var w1 = product.invert() ? lons[px] : lat;
+                final var gx = (int) Math.floor(matrix[0] * w0 + matrix[2] * w1 + matrix[4]);
+                final var gy = (int) Math.floor(matrix[1] * w0 + matrix[3] * w1 + matrix[5]);
+                if (!raster.contains(gx, gy)) {
+                    continue;
+                }
+                final var value = raster.getDouble(gx, gy);
+                if (noData != null && value == noData) {
+                    continue;
+                }
+                final var color = ramp.argb(value);
+                argb[py * TILE_SIZE + px] = color;
+                colored |= color != ColorRamp.TRANSPARENT;
+            }
+        }
+        if (!colored) {
+            return new byte[0];
+        }
+        final var image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, argb, 0, TILE_SIZE);
+        final var out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            logger.debug("Could not delete evicted tile {}", file, e);
+        }
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, tiles, "png");
+    }
+}
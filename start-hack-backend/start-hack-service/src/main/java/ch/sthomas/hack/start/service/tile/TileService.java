@@ -0,0 +1,247 @@
+package ch.sthomas.hack.start.service.tile;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.ModisDataService;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import jakarta.annotation.Nullable;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.operation.overlayng.OverlayNG;
+import org.locationtech.jts.operation.overlayng.OverlayNGRobust;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Serves the polygonized product years as Mapbox Vector Tiles. The features of a year are indexed
+ * once in an {@link STRtree}; a tile only clips, simplifies and encodes the features in view.
+ * Encoded tiles are cached by the modification time of their GeoJSON, so re-ingested years are
+ * never served from stale tiles.
+ */
+@Service
+public class TileService implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(TileService.class);
+
+    public static final int MAX_ZOOM = 22;
+    static final int EXTENT = 4096;
+
+    /** Pixels around the tile that are kept, so polygon edges are not drawn at tile borders. */
+    private static final int BUFFER = 64;
+
+    /** Douglas-Peucker tolerance in tile pixels. */
+    private static final double SIMPLIFY_TOLERANCE = 1;
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+
+    private final ModisDataService modisDataService;
+    private final ObjectMapper objectMapper;
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** The spatial index per product year, there is one entry per product year at most. */
+    private final Cache<IndexKey, Index> indices;
+
+    /** Encoded tiles, weighted by their size in bytes. */
+    private final Cache<TileKey, byte[]> tiles;
+
+    public TileService(
+            final ModisDataService modisDataService,
+            final ObjectMapper objectMapper,
+            @Value("${ch.sthomas.hack.start.service.tiles.index-cache.max-entries:8}")
+                    final int indexCacheMaxEntries,
+            @Value("${ch.sthomas.hack.start.service.tiles.cache.max-size:256MB}")
+                    final DataSize tileCacheMaxSize) {
+        this.modisDataService = modisDataService;
+        this.objectMapper = objectMapper;
+        this.indices =
+                Caffeine.newBuilder().maximumSize(indexCacheMaxEntries).recordStats().build();
+        this.tiles =
+                Caffeine.newBuilder()
+                        .maximumWeight(tileCacheMaxSize.toBytes())
+                        .weigher((final TileKey key, final byte[] tile) -> Math.max(1, tile.length))
+                        .recordStats()
+                        .build();
+    }
+
+    private record IndexKey(ModisProduct product, int year) {}
+
+    private record Index(FileTime modified, STRtree tree) {}
+
+    private record TileKey(
+            ModisProduct product, int year, FileTime modified, int z, int x, int y) {}
+
+    private record Entry(Geometry geometry, Map<String, Object> properties) {}
+
+    /**
+     * Returns the encoded tile, empty if there are no features in it, or {@code null} if the
+     * product year was not polygonized or the tile does not exist.
+     */
+    @Nullable
+    public byte[] getTile(
+            final ModisProduct product, final int year, final int z, final int x, final int y)
+            throws IOException {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            return null;
+        }
+        final var file = modisDataService.gridFile(product, year);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        final var index = getIndex(product, year, file);
+        return tiles.get(
+                new TileKey(product, year, index.modified(), z, x, y),
+                key -> render(product, index.tree(), z, x, y));
+    }
+
+    private Index getIndex(final ModisProduct product, final int year, final Path file)
+            throws IOException {
+        final var key = new IndexKey(product, year);
+        final var modified = Files.getLastModifiedTime(file);
+        final var index = indices.getIfPresent(key);
+        if (index != null && index.modified().equals(modified)) {
+            return index;
+        }
+        try {
+            return indices.asMap()
+                    .compute(
+                            key,
+                            (k, current) ->
+                                    current != null && current.modified().equals(modified)
+                                            ? current
+                                            : load(file, modified));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Index load(final Path file, final FileTime modified) {
+        final var start = System.nanoTime();
+        final var tree = new STRtree();
+        try {
+            new FeatureCollectionReader(objectMapper, 1)
+                    .read(
+                            file,
+                            feature -> {
+                                final var geometry = feature.getGeometry();
+                                if (geometry != null && !geometry.isEmpty()) {
+                                    tree.insert(
+                                            geometry.getEnvelopeInternal(),
+                                            new Entry(geometry, feature.getProperties()));
+                                }
+                            });
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tree.build();
+        logger.info(
+                "Indexed {} features of {} in {} ms.",
+                tree.size(),
+                file,
+                (System.nanoTime() - start) / 1_000_000);
+        return new Index(modified, tree);
+    }
+
+    private byte[] render(
+            final ModisProduct product, final STRtree tree, final int z, final int x, final int y) {
+        final var envelope = envelope(z, x, y, BUFFER);
+        final var clip = geometryFactory.toGeometry(envelope);
+        final var encoder = new MvtEncoder(EXTENT);
+        final var layer = product.name().toLowerCase();
+        for (final var item : tree.query(envelope)) {
+            final var entry = (Entry) item;
+            final var bounds = entry.geometry().getEnvelopeInternal();
+            if (!bounds.intersects(envelope)) {
+                continue;
+            }
+            final var clipped =
+                    envelope.contains(bounds)
+                            ? entry.geometry()
+                            : OverlayNGRobust.overlay(
+                                    entry.geometry(), clip, OverlayNG.INTERSECTION);
+            if (clipped.isEmpty()) {
+                continue;
+            }
+            final var pixels = clipped.copy();
+            pixels.apply(new TileTransform(z, x, y));
+            encoder.addFeature(
+                    layer,
+                    DouglasPeuckerSimplifier.simplify(pixels, SIMPLIFY_TOLERANCE),
+                    entry.properties() == null ? Map.of() : entry.properties());
+        }
+        return encoder.isEmpty() ? new byte[0] : encoder.encode();
+    }
+
+    /** The lon/lat envelope of the tile, grown by {@code buffer} pixels on every side. */
+    static Envelope envelope(final int z, final int x, final int y, final int buffer) {
+        final var tiles = (double) (1 << z);
+        final var margin = (double) buffer / EXTENT;
+        return new Envelope(
+                lon((x - margin) / tiles),
+                lon((x + 1 + margin) / tiles),
+                lat(Math.min(1, (y + 1 + margin) / tiles)),
+                lat(Math.max(0, (y - margin) / tiles)));
+    }
+
+    private static double lon(final double fraction) {
+        return fraction * 360 - 180;
+    }
+
+    private static double lat(final double fraction) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * fraction))));
+    }
+
+    /** Projects lon/lat to the web mercator pixels of one tile. */
+    private record TileTransform(int z, int x, int y) implements CoordinateSequenceFilter {
+        @Override
+        public void filter(final CoordinateSequence sequence, final int i) {
+            final var scale = (double) EXTENT * (1 << z);
+            final var lat =
+                    Math.toRadians(Math.clamp(sequence.getY(i), -MAX_LATITUDE, MAX_LATITUDE));
+            final var mercatorY = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+            sequence.setOrdinate(
+                    i,
+                    CoordinateSequence.X,
+                    (sequence.getX(i) + 180) / 360 * scale - (double) x * EXTENT);
+            sequence.setOrdinate(i, CoordinateSequence.Y, mercatorY * scale - (double) y * EXTENT);
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return true;
+        }
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, tiles, "mvt");
+        CaffeineCacheMetrics.monitor(registry, indices, "mvt.index");
+    }
+}
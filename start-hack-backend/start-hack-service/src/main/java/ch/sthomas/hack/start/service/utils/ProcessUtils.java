@@ -3,6 +3,9 @@ package ch.sthomas.hack.start.service.utils;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.pivovarit.function.exception.WrappedException;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
 import jakarta.validation.constraints.NotNull;
 
 import org.slf4j.Logger;
@@ -11,6 +14,7 @@ import org.slf4j.event.Level;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -38,17 +42,23 @@ public final class ProcessUtils {
             implements ProcessResult {}
 
     /**
-     * Executes a process and returns results from the process.
+     * Executes a process and returns results from the process. The wall time is recorded as {@code
+     * process} in the global registry, tagged by the command and its exit status ({@code timeout}
+     * if it did not finish in time, {@code not-started} if it could not be started, {@code failed}
+     * if reading its output failed).
      *
      * @throws IOException If the process could not be started
      */
     @SuppressWarnings("java:S2095")
     public static ProcessResult executeProcess(final ProcessBuilder builder) throws IOException {
+        final var start = System.nanoTime();
+        var status = "not-started";
         try {
             if (logger.isDebugEnabled()) {
                 logger.debug("Running command '{}'", String.join(" ", builder.command()));
             }
             final var process = builder.start();
+            status = "failed";
             final var stdoutFuture =
                     Executors.newSingleThreadExecutor(threadFactory("process-stdout"))
                             .submit(
@@ -67,9 +77,11 @@ public final class ProcessUtils {
             final var stderr = stderrFuture.get().map(String.class::cast).toList();
 
             if (!didProcessFinish) {
+                status = "timeout";
                 return new ProcessDidNotFinishResult(stdout, stderr);
             }
             final var exitValue = process.exitValue();
+            status = Integer.toString(exitValue);
             logger.debug("Process finished with exit value {}", exitValue);
             return new ProcessFinishedResult(stdout, stderr);
         } catch (final InterruptedException e) {
@@ -77,6 +89,13 @@ public final class ProcessUtils {
             throw new WrappedException(e);
         } catch (final ExecutionException e) {
             throw new WrappedException(e);
+        } finally {
+            Timer.builder("process")
+                    .description("Wall time of external processes")
+                    .tag("command", Path.of(builder.command().getFirst()).getFileName().toString())
+                    .tag("status", status)
+                    .register(Metrics.globalRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
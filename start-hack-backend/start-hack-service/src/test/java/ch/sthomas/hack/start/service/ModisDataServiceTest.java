@@ -0,0 +1,192 @@
+package ch.sthomas.hack.start.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.geo.GridCoverageService;
+import ch.sthomas.hack.start.service.geo.store.MappedRaster;
+import ch.sthomas.hack.start.service.geo.store.RasterStore;
+import ch.sthomas.hack.start.service.geo.store.TimeCube;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+class ModisDataServiceTest {
+    private static final AffineTransform GRID_TO_WORLD =
+            new AffineTransform(0.01, 0, 0, -0.01, -12, 17);
+
+    /** In pixel (5, 3) of the cube, GP is evaluated at {@code (y, x)}. */
+    private static final Coordinate PIXEL_5_3 = new Coordinate(17 - 0.035, -12 + 0.055);
+
+    private static final Coordinate SAME_PIXEL = new Coordinate(17 - 0.031, -12 + 0.051);
+    private static final Coordinate PIXEL_6_3 = new Coordinate(17 - 0.035, -12 + 0.065);
+    private static final Coordinate OUTSIDE = new Coordinate(0, 0);
+
+    @TempDir private Path folder;
+    private final RasterStore rasterStore = mock(RasterStore.class);
+    private ModisDataService modisDataService;
+    private TimeCube cube;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        final var gpFolder = Files.createDirectories(folder.resolve("gp"));
+        for (final var year : List.of(2000, 2001, 2002)) {
+            Files.createFile(gpFolder.resolve(year + "_GP.tif"));
+        }
+        final var year2000 = raster("2000", 0);
+        cube = TimeCube.create(folder.resolve("gp.cube"), 2000, 3, year2000);
+        cube.update(2000, year2000);
+        cube.update(2002, raster("2002", 100));
+        cube = spy(cube);
+        when(rasterStore.getCube(eq("gp"), any())).thenReturn(cube);
+
+        final var meterRegistry = new SimpleMeterRegistry();
+        final var missing = folder.resolve("missing").toString();
+        modisDataService =
+                new ModisDataService(
+                        missing,
+                        gpFolder.toString(),
+                        missing,
+                        missing,
+                        folder.resolve("public").toString(),
+                        Duration.ofSeconds(2),
+                        500_000,
+                        mock(GeoService.class),
+                        mock(GridCoverageService.class),
+                        rasterStore,
+                        new IngestPipeline(1, 1),
+                        mock(IngestManifest.class),
+                        new IngestMetrics(meterRegistry),
+                        meterRegistry,
+                        new ObjectMapper());
+    }
+
+    @AfterEach
+    void tearDown() {
+        modisDataService.close();
+    }
+
+    @Test
+    void testColumnsPerProductAndYear() {
+        final var data =
+                modisDataService.getPointData(
+                        List.of(PIXEL_5_3, PIXEL_6_3),
+                        Set.of(ModisProduct.GP, ModisProduct.LCT),
+                        Integer.MIN_VALUE,
+                        Integer.MAX_VALUE);
+
+        assertEquals(List.of(2000, 2001, 2002), data.years());
+        final var gp = data.values().get(ModisProduct.GP);
+        assertArrayEquals(new Object[] {35, 36}, gp[0]);
+        // No tif of 2001 in the cube.
+        assertArrayEquals(new Object[] {null, null}, gp[1]);
+        assertArrayEquals(new Object[] {135, 136}, gp[2]);
+        // LCT has no cube.
+        assertArrayEquals(new Object[3][2], data.values().get(ModisProduct.LCT));
+    }
+
+    @Test
+    void testPointsInTheSamePixelAreReadOnce() {
+        final var data =
+                modisDataService.getPointData(
+                        List.of(PIXEL_5_3, PIXEL_6_3, SAME_PIXEL),
+                        Set.of(ModisProduct.GP),
+                        Integer.MIN_VALUE,
+                        Integer.MAX_VALUE);
+
+        assertArrayEquals(new Object[] {35, 36, 35}, data.values().get(ModisProduct.GP)[0]);
+        // Once per year of the cube, not per point.
+        verify(cube, times(2)).evaluate(eq(5), eq(3), anyInt());
+        verify(rasterStore, times(1)).getCube(eq("gp"), any());
+    }
+
+    @Test
+    void testYearRange() {
+        final var data =
+                modisDataService.getPointData(
+                        List.of(PIXEL_5_3), Set.of(ModisProduct.GP), 2001, 2002);
+
+        assertEquals(List.of(2001, 2002), data.years());
+        final var gp = data.values().get(ModisProduct.GP);
+        assertEquals(2, gp.length);
+        assertArrayEquals(new Object[] {null}, gp[0]);
+        assertArrayEquals(new Object[] {135}, gp[1]);
+    }
+
+    @Test
+    void testPointsOutsideOfTheGridAreNull() {
+        final var data =
+                modisDataService.getPointData(
+                        List.of(OUTSIDE, PIXEL_5_3),
+                        Set.of(ModisProduct.GP),
+                        Integer.MIN_VALUE,
+                        Integer.MAX_VALUE);
+
+        final var gp = data.values().get(ModisProduct.GP);
+        for (final var column : gp) {
+            assertEquals(null, column[0]);
+        }
+        assertEquals(35, gp[0][1]);
+    }
+
+    /** A 20x10 raster with the value {@code offset + 10 * y + x}. */
+    private MappedRaster raster(final String name, final int offset) throws IOException {
+        final var raster =
+                Raster.createWritableRaster(
+                        new BandedSampleModel(DataBuffer.TYPE_INT, 20, 10, 1), null);
+        for (var y = 0; y < raster.getHeight(); y++) {
+            for (var x = 0; x < raster.getWidth(); x++) {
+                raster.setSample(x, y, 0, offset + 10 * y + x);
+            }
+        }
+        final var image =
+                new BufferedImage(
+                        new ComponentColorModel(
+                                ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                                false,
+                                false,
+                                Transparency.OPAQUE,
+                                DataBuffer.TYPE_INT),
+                        raster,
+                        false,
+                        null);
+        final var file = folder.resolve(name + ".raster");
+        MappedRaster.write(file, image, GRID_TO_WORLD, null, FileTime.fromMillis(1));
+        return MappedRaster.open(file);
+    }
+}
@@ -0,0 +1,158 @@
+package ch.sthomas.hack.start.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.analyze.GppLandUsageService;
+import ch.sthomas.hack.start.service.analyze.ZonalStatsService;
+import ch.sthomas.hack.start.service.pipeline.IngestLock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class ModisFolderWatcherTest {
+    private static final Duration SETTLE_TIME = Duration.ofSeconds(5);
+
+    @TempDir private Path folder;
+    private final ModisDataService modisDataService = mock(ModisDataService.class);
+    private final GppLandUsageService gppLandUsageService = mock(GppLandUsageService.class);
+    private final ZonalStatsService zonalStatsService = mock(ZonalStatsService.class);
+    private final IngestLock ingestLock = new IngestLock();
+    private final AtomicLong nanoTime = new AtomicLong();
+    private ModisFolderWatcher watcher;
+    private Path gpFolder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gpFolder = Files.createDirectories(folder.resolve("gp"));
+        when(modisDataService.getPath(any())).thenReturn(folder.resolve("missing"));
+        when(modisDataService.getPath(ModisProduct.LCT))
+                .thenReturn(Files.createDirectories(folder.resolve("lct")));
+        when(modisDataService.getPath(ModisProduct.GP)).thenReturn(gpFolder);
+        when(modisDataService.getPath(ModisProduct.GP_SIMPLIFIED)).thenReturn(gpFolder);
+        watcher =
+                new ModisFolderWatcher(
+                        modisDataService,
+                        gppLandUsageService,
+                        zonalStatsService,
+                        ingestLock,
+                        SETTLE_TIME,
+                        nanoTime::get);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    @Test
+    void testChangesAreIngestedOnceSettled() throws IOException {
+        watcher.changed(gpFolder.resolve("2001_GP.tif"));
+
+        nanoTime.addAndGet(SETTLE_TIME.toNanos() - 1);
+        watcher.poll();
+        verify(modisDataService, never()).reingest(any(), anyInt());
+
+        nanoTime.addAndGet(1);
+        watcher.poll();
+        verify(modisDataService).reingest(ModisProduct.GP, 2001);
+
+        // A file that changes again starts to settle anew.
+        watcher.changed(gpFolder.resolve("2001_GP.tif"));
+        nanoTime.addAndGet(SETTLE_TIME.toNanos() / 2);
+        watcher.changed(gpFolder.resolve("2001_GP.tif"));
+        nanoTime.addAndGet(SETTLE_TIME.toNanos() / 2);
+        watcher.poll();
+        verify(modisDataService, times(1)).reingest(ModisProduct.GP, 2001);
+    }
+
+    @Test
+    void testOnlyTheYearOfTheChangedTifIsIngested() throws IOException {
+        watcher.changed(gpFolder.resolve("2001_GP.tif"));
+        nanoTime.addAndGet(SETTLE_TIME.toNanos());
+        watcher.poll();
+
+        // GP and GP_SIMPLIFIED are read from the same tifs.
+        verify(modisDataService).reingest(ModisProduct.GP, 2001);
+        verify(modisDataService).reingest(ModisProduct.GP_SIMPLIFIED, 2001);
+        verify(modisDataService, times(2)).reingest(any(), anyInt());
+        verify(gppLandUsageService).loadAndSaveUsageRanking();
+        verify(zonalStatsService).loadAndSaveZonalStats(ModisProduct.GP);
+        verify(zonalStatsService).loadAndSaveZonalStats(ModisProduct.GP_SIMPLIFIED);
+        verify(zonalStatsService, times(2)).loadAndSaveZonalStats(any());
+        verify(zonalStatsService, never()).loadAndSaveZonalStats();
+        verify(modisDataService, never()).storeRasters();
+        verify(modisDataService, never()).loadAndSaveData();
+    }
+
+    @Test
+    void testOverflowChecksAllTifs() throws IOException {
+        watcher.changed(gpFolder.resolve("2001_GP.tif"));
+        watcher.overflowed();
+        watcher.poll();
+
+        verify(modisDataService).refreshYears();
+        verify(modisDataService).storeRasters();
+        verify(modisDataService).loadAndSaveData();
+        verify(modisDataService).loadSpacialAggregatedData();
+        verify(gppLandUsageService).loadAndSaveUsageRanking();
+        verify(zonalStatsService).loadAndSaveZonalStats();
+
+        // The pending change is covered by the full check.
+        nanoTime.addAndGet(SETTLE_TIME.toNanos());
+        watcher.poll();
+        verify(modisDataService, never()).reingest(any(), anyInt());
+        verify(modisDataService, times(1)).storeRasters();
+    }
+
+    @Test
+    void testWaitsForOtherIngestJobs() throws Exception {
+        final var running = new CountDownLatch(1);
+        final var done = new CountDownLatch(1);
+        try (final var executor = Executors.newSingleThreadExecutor()) {
+            final var startup =
+                    executor.submit(
+                            () -> {
+                                ingestLock.run(
+                                        () -> {
+                                            running.countDown();
+                                            done.await();
+                                        });
+                                return null;
+                            });
+            running.await(10, TimeUnit.SECONDS);
+
+            watcher.overflowed();
+            watcher.changed(gpFolder.resolve("2001_GP.tif"));
+            nanoTime.addAndGet(SETTLE_TIME.toNanos());
+            watcher.poll();
+            verify(modisDataService, never()).storeRasters();
+            verify(modisDataService, never()).reingest(any(), anyInt());
+
+            done.countDown();
+            startup.get(10, TimeUnit.SECONDS);
+        }
+        watcher.poll();
+        verify(modisDataService).storeRasters();
+        verify(zonalStatsService).loadAndSaveZonalStats();
+        verify(modisDataService, never()).reingest(eq(ModisProduct.GP), anyInt());
+    }
+}
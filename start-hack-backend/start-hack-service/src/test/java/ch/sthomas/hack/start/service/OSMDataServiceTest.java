@@ -0,0 +1,105 @@
+package ch.sthomas.hack.start.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+import ch.sthomas.hack.start.service.geo.fgb.FlatGeobufWriter;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionReader;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionWriter;
+import ch.sthomas.hack.start.service.layer.FeatureLayerService;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.n52.jackson.datatype.jts.JtsModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class OSMDataServiceTest {
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+    private final ObjectMapper objectMapper =
+            JsonMapper.builder().addModule(new JtsModule(geometryFactory)).build();
+
+    @TempDir private Path data;
+    @TempDir private Path output;
+
+    @Test
+    void testEveryFeatureGoesToAllOutputsItMatches() throws IOException {
+        write(
+                "mauritania-points.geojson",
+                properties("man_made", "well"),
+                properties("amenity", "school"),
+                properties("name", null));
+        write(
+                "mauritania-lines.geojson",
+                properties("highway", "track"),
+                properties("waterway", "river"),
+                properties("natural", "water"),
+                properties("barrier", "fence"));
+        final var featureLayerService = new FeatureLayerService();
+
+        new OSMDataService(
+                        data.toString(),
+                        output.toString(),
+                        1,
+                        objectMapper,
+                        featureLayerService,
+                        new IngestMetrics(new SimpleMeterRegistry()))
+                .loadAndSaveData();
+
+        assertEquals(2, read("assaba-all-points.geojson").size());
+        assertEquals(List.of("0"), read("assaba-man-made-points.geojson"));
+        assertEquals(4, read("assaba-lines.geojson").size());
+        assertEquals(List.of("0"), read("assaba-highways.geojson"));
+        assertEquals(List.of("1", "2"), read("assaba-waterways.geojson"));
+        assertTrue(Files.exists(FlatGeobufWriter.of(output.resolve("assaba-waterways.geojson"))));
+        assertEquals(
+                Set.of("all-points", "man-made-points", "lines", "highways", "waterways"),
+                featureLayerService.getLayers());
+    }
+
+    private static Map<String, Object> properties(final String key, final String value) {
+        final var properties = new HashMap<String, Object>();
+        properties.put(key, value);
+        return properties;
+    }
+
+    @SafeVarargs
+    private void write(final String fileName, final Map<String, Object>... properties)
+            throws IOException {
+        try (final var writer = new FeatureCollectionWriter(objectMapper, data.resolve(fileName))) {
+            for (var i = 0; i < properties.length; i++) {
+                writer.write(
+                        new BaseFeature()
+                                .setId(Integer.toString(i))
+                                .setType("Feature")
+                                .setProperties(properties[i])
+                                .setGeometry(geometryFactory.createPoint(new Coordinate(i, i))));
+            }
+        }
+    }
+
+    /** The ids of the features of the output file. */
+    private List<String> read(final String fileName) throws IOException {
+        final var ids = new ArrayList<String>();
+        new FeatureCollectionReader(objectMapper, 1)
+                .read(output.resolve(fileName), f -> ids.add(f.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,66 @@
+package ch.sthomas.hack.start.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+class PublicFileServiceTest {
+    @TempDir private Path folder;
+
+    @Test
+    void testAcceptEncoding() {
+        assertTrue(PublicFileService.accepts("gzip, deflate, br", "br"));
+        assertTrue(PublicFileService.accepts("*", "gzip"));
+        assertFalse(PublicFileService.accepts("gzip;q=0, *", "gzip"));
+        assertFalse(PublicFileService.accepts("br;q=0.8, *;q=0", "gzip"));
+        assertFalse(PublicFileService.accepts(null, "gzip"));
+    }
+
+    @Test
+    void testServesFreshVariants() throws IOException {
+        final var service =
+                new PublicFileService(folder.toString(), false, new IngestPipeline(1, 1));
+        final var content = "{\"type\":\"FeatureCollection\",\"features\":[]}".repeat(100);
+        final var file = Files.writeString(folder.resolve("districts.geojson"), content);
+        Files.writeString(folder.resolve(".ingest-manifest.json"), "{}");
+
+        final var plain = service.get("/districts.geojson", "gzip");
+        assertNull(plain.encoding());
+        assertEquals("application/geo+json", plain.contentType());
+
+        service.precompressAll();
+        final var gzip = service.get("/districts.geojson", "br, gzip");
+        assertEquals(PublicFileService.Encoding.GZIP, gzip.encoding());
+        assertNotEquals(plain.etag(), gzip.etag());
+        try (final var in = new GZIPInputStream(Files.newInputStream(gzip.file()))) {
+            assertArrayEquals(Files.readAllBytes(file), in.readAllBytes());
+        }
+        assertEquals(plain.etag(), service.get("/districts.geojson", null).etag());
+
+        // A rewritten file is served as it is until its variant was written again.
+        Files.writeString(file, content.replace("[]", "[ ]"));
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+        final var rewritten = service.get("/districts.geojson", "gzip");
+        assertNull(rewritten.encoding());
+        assertNotEquals(plain.etag(), rewritten.etag());
+
+        assertNull(service.get("/districts.geojson.gz", null));
+        assertNull(service.get("/.ingest-manifest.json", null));
+        assertNull(service.get("/../districts.geojson", null));
+    }
+}
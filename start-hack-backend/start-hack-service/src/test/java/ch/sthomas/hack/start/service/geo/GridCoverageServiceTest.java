@@ -0,0 +1,173 @@
+package ch.sthomas.hack.start.service.geo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.locationtech.jts.coverage.CoverageValidator;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.n52.jackson.datatype.jts.JtsModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+class GridCoverageServiceTest {
+    private static final Logger logger = LoggerFactory.getLogger(GridCoverageServiceTest.class);
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+    private final GridCoverageService gridCoverageService;
+
+    GridCoverageServiceTest() throws FactoryException {
+        gridCoverageService =
+                new GridCoverageService(
+                        JsonMapper.builder().addModule(new JtsModule(geometryFactory)).build(),
+                        geometryFactory,
+                        "nearest",
+                        false,
+                        new IngestPipeline(1, 1));
+    }
+
+    @Test
+    void testPolygonsWithHolesAndDiagonals() throws IOException {
+        final var coverage =
+                coverage(
+                        new int[][] {
+                            {1, 1, 1, 1, 2},
+                            {1, 2, 2, 1, 2},
+                            {1, 2, 1, 1, 3},
+                            {1, 1, 3, 1, 3},
+                            {3, 1, 1, 1, 3},
+                        });
+
+        final var polygons = gridCoverageService.polygons(coverage);
+
+        assertEquals(6, polygons.getFeatures().size());
+        assertTrue(polygons.getFeatures().stream().allMatch(f -> f.getGeometry().isValid()));
+        assertEquals(Map.of(1, 15.0, 2, 5.0, 3, 5.0), areaPerValue(polygons));
+        assertEquals(
+                2,
+                polygons.getFeatures().stream()
+                        .filter(f -> f.<Integer>getProperty("DN") == 1)
+                        .mapToInt(f -> ((Polygon) f.getGeometry()).getNumInteriorRing())
+                        .sum());
+    }
+
+    @Test
+    void testSimplifyKeepsNeighboursMatching() throws IOException {
+        final var grid = new int[60][80];
+        for (var y = 0; y < grid.length; y++) {
+            for (var x = 0; x < grid[y].length; x++) {
+                grid[y][x] = (int) ((Math.sin(x / 7.0) + Math.cos(y / 5.0)) * 2 + 4);
+            }
+        }
+        final var polygons = gridCoverageService.polygons(coverage(grid));
+
+        final var simplified = GridCoverageService.simplify(polygons, 1.5);
+
+        assertEquals(polygons.getFeatures().size(), simplified.getFeatures().size());
+        assertTrue(simplified.getFeatures().stream().allMatch(f -> f.getGeometry().isValid()));
+        assertTrue(CoverageValidator.isValid(geometries(simplified)));
+        assertTrue(vertices(simplified) < vertices(polygons) / 2);
+    }
+
+    /** Compares against gdal_polygonize.py and logs the timings of both. */
+    @Test
+    @EnabledIf("gdalAvailable")
+    void testPolygonsMatchGdal() throws IOException {
+        final var random = new Random(42);
+        final var grid = new int[400][600];
+        for (var y = 0; y < grid.length; y++) {
+            for (var x = 0; x < grid[y].length; x++) {
+                // Patches of 4x4 pixels with some noise, similar to land cover classes.
+                grid[y][x] = random.nextInt(10) == 0 ? random.nextInt(5) : (x / 4 + y / 4) % 5;
+            }
+        }
+        final var coverage = coverage(grid);
+
+        var start = System.nanoTime();
+        final var inProcess = gridCoverageService.polygons(coverage);
+        final var inProcessMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        final var gdal = gridCoverageService.polygonsWithGdal(coverage);
+        final var gdalMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info(
+                "Polygonized {} features in process in {} ms, {} features with gdal in {} ms",
+                inProcess.getFeatures().size(),
+                inProcessMillis,
+                gdal.getFeatures().size(),
+                gdalMillis);
+
+        assertEquals(gdal.getFeatures().size(), inProcess.getFeatures().size());
+        final var expected = areaPerValue(gdal);
+        final var actual = areaPerValue(inProcess);
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((value, area) -> assertEquals(area, actual.get(value), 1e-6));
+    }
+
+    static boolean gdalAvailable() {
+        try {
+            return new ProcessBuilder("gdal_polygonize.py", "--help").start().waitFor() >= 0;
+        } catch (final IOException e) {
+            return false;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static GridCoverage2D coverage(final int[][] grid) {
+        final var height = grid.length;
+        final var width = grid[0].length;
+        final var raster = Raster.createBandedRaster(DataBuffer.TYPE_INT, width, height, 1, null);
+        for (var y = 0; y < height; y++) {
+            raster.setSamples(0, y, width, 1, 0, grid[y]);
+        }
+        return new GridCoverageFactory()
+                .create(
+                        "test",
+                        raster,
+                        new ReferencedEnvelope(
+                                -12, -12 + width, 16, 16 + height, DefaultGeographicCRS.WGS84));
+    }
+
+    private static Geometry[] geometries(final BaseFeatureCollection polygons) {
+        return polygons.getFeatures().stream()
+                .map(BaseFeature::getGeometry)
+                .toArray(Geometry[]::new);
+    }
+
+    private static int vertices(final BaseFeatureCollection polygons) {
+        return polygons.getFeatures().stream().mapToInt(f -> f.getGeometry().getNumPoints()).sum();
+    }
+
+    private static Map<Integer, Double> areaPerValue(final BaseFeatureCollection polygons) {
+        return polygons.getFeatures().stream()
+                .collect(
+                        Collectors.groupingBy(
+                                (BaseFeature f) -> ((Number) f.getProperty("DN")).intValue(),
+                                TreeMap::new,
+                                Collectors.summingDouble(f -> f.getGeometry().getArea())));
+    }
+}
@@ -0,0 +1,167 @@
+package ch.sthomas.hack.start.service.geo.fgb;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+class FlatGeobufWriterTest {
+    private final GeometryFactory factory = new GeometryFactory();
+
+    @Test
+    void testHilbertCurveVisitsNeighbours() {
+        // The first 4^6 positions of the curve fill the 64 x 64 square at the origin.
+        final var cells = new int[64 * 64][];
+        for (var x = 0; x < 64; x++) {
+            for (var y = 0; y < 64; y++) {
+                final var index = PackedRTree.hilbert(x, y);
+                assertTrue(index >= 0 && index < cells.length, x + "/" + y);
+                cells[index] = new int[] {x, y};
+            }
+        }
+        for (var i = 1; i < cells.length; i++) {
+            assertEquals(
+                    1,
+                    Math.abs(cells[i][0] - cells[i - 1][0])
+                            + Math.abs(cells[i][1] - cells[i - 1][1]));
+        }
+    }
+
+    @Test
+    void testLevelBounds() {
+        final var bounds = PackedRTree.levelBounds(100, 16);
+        assertEquals(3, bounds.size());
+        assertArrayEquals(new long[] {8, 108}, bounds.get(0));
+        assertArrayEquals(new long[] {1, 8}, bounds.get(1));
+        assertArrayEquals(new long[] {0, 1}, bounds.get(2));
+    }
+
+    @Test
+    void testWriteHeaderIndexAndFeatures(@TempDir final Path folder) throws IOException {
+        final var features = new ArrayList<BaseFeature>();
+        for (var i = 0; i < 40; i++) {
+            features.add(
+                    new BaseFeature()
+                            .setGeometry(
+                                    factory.toGeometry(new Envelope(i, i + 1, i % 7, i % 7 + 1)))
+                            .setProperties(new TreeMap<>(Map.of("DN", i, "name", "sq " + i))));
+        }
+        features.add(new BaseFeature().setProperties(Map.of("DN", -1)));
+        final var file = folder.resolve("squares.fgb");
+
+        FlatGeobufWriter.write(JsonMapper.builder().build(), file, features);
+        try (final var files = Files.list(folder)) {
+            assertEquals(List.of(file), files.toList());
+        }
+
+        final var buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x03626766, buffer.getInt(0));
+        final var headerSize = buffer.getInt(8);
+        final var header = table(buffer, 12 + buffer.getInt(12));
+        assertEquals("squares", string(buffer, header.field(0)));
+        assertEquals(3, buffer.get(header.field(2)));
+        assertEquals(40, buffer.getLong(header.field(8)));
+        assertEquals(16, buffer.getShort(header.field(9)));
+        assertEquals(2, buffer.getInt(reference(buffer, header.field(7))));
+        assertEquals(
+                List.of(0.0, 0.0, 40.0, 7.0),
+                doubles(buffer, header.field(1)).stream().map(buffer::getDouble).toList());
+
+        // 40 leaves, 3 nodes and the root.
+        final var index = 12 + headerSize;
+        final var nodes = 40 + 3 + 1;
+        assertEquals(0, buffer.getDouble(index));
+        assertEquals(40, buffer.getDouble(index + 16));
+        assertEquals(7, buffer.getDouble(index + 24));
+        final var featuresStart = index + nodes * PackedRTree.NODE_ITEM_BYTES;
+        final var seen = new HashSet<Integer>();
+        for (var leaf = nodes - 40; leaf < nodes; leaf++) {
+            final var node = index + leaf * PackedRTree.NODE_ITEM_BYTES;
+            final var position = featuresStart + (int) buffer.getLong(node + 32);
+            final var feature = table(buffer, position + 4 + buffer.getInt(position + 4));
+            final var geometry = table(buffer, reference(buffer, feature.field(0)));
+            final var xy = doubles(buffer, geometry.field(1));
+            assertEquals(2 * 5, xy.size());
+            assertEquals(buffer.getDouble(node), minX(buffer, xy));
+            final var properties = reference(buffer, feature.field(1));
+            assertEquals(0, buffer.getShort(properties + 4));
+            seen.add(buffer.getInt(properties + 6));
+        }
+        assertEquals(40, seen.size());
+    }
+
+    @Test
+    void testDiscardKeepsTheLayer(@TempDir final Path folder) throws IOException {
+        final var file = Files.writeString(folder.resolve("squares.fgb"), "previous");
+        try (final var writer = new FlatGeobufWriter(JsonMapper.builder().build(), file)) {
+            writer.write(
+                    new BaseFeature().setGeometry(factory.toGeometry(new Envelope(0, 1, 0, 1))));
+            writer.discard();
+        }
+        try (final var files = Files.list(folder)) {
+            assertEquals(List.of(file), files.toList());
+        }
+        assertEquals("previous", Files.readString(file));
+    }
+
+    private record Table(ByteBuffer buffer, int position, int vtable) {
+        int field(final int slot) {
+            final var offset = buffer.getShort(vtable + 4 + 2 * slot);
+            assertTrue(offset != 0, "No field " + slot);
+            return position + offset;
+        }
+    }
+
+    private static Table table(final ByteBuffer buffer, final int position) {
+        return new Table(buffer, position, position - buffer.getInt(position));
+    }
+
+    private static int reference(final ByteBuffer buffer, final int position) {
+        return position + buffer.getInt(position);
+    }
+
+    private static String string(final ByteBuffer buffer, final int field) {
+        final var position = reference(buffer, field);
+        final var bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The positions of the elements of a {@code [double]} field. */
+    private static List<Integer> doubles(final ByteBuffer buffer, final int field) {
+        final var position = reference(buffer, field);
+        final var elements = new ArrayList<Integer>();
+        for (var i = 0; i < buffer.getInt(position); i++) {
+            elements.add(position + 4 + 8 * i);
+        }
+        return elements;
+    }
+
+    private static double minX(final ByteBuffer buffer, final List<Integer> xy) {
+        var min = Double.POSITIVE_INFINITY;
+        for (var i = 0; i < xy.size(); i += 2) {
+            min = Math.min(min, buffer.getDouble(xy.get(i)));
+        }
+        return min;
+    }
+}
@@ -0,0 +1,64 @@
+package ch.sthomas.hack.start.service.geo.grid;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+class AlignedGridTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private final AlignedGrid grid = new AlignedGrid(16.0, -12.5, 70, 90, 0.004);
+
+    @Test
+    void testLookupMatchesTransform() {
+        // Pixel size 0.005, ordinate 0 along y (rows flipped), ordinate 1 along x.
+        assertLookupMatchesTransform(
+                new AffineTransform(0, -1 / 0.005, 1 / 0.005, 0, 12.5 / 0.005, 16.3 / 0.005));
+        assertLookupMatchesTransform(
+                new AffineTransform(1 / 0.005, 0, 0, -1 / 0.005, -15.95 / 0.005, -12.4 / 0.005));
+        assertLookupMatchesTransform(new AffineTransform(150, 40, -30, 160, -2765, 1365));
+    }
+
+    @Test
+    void testComputeIsRowMajor() {
+        final var values = grid.compute((row, column) -> row * 1000 + column);
+        assertEquals(70 * 90, values.length);
+        assertEquals(0, values[0]);
+        assertEquals(1089, values[1 * 90 + 89]);
+        assertEquals(69089, values[values.length - 1]);
+        assertArrayEquals(new int[0], new AlignedGrid(0, 0, 0, 5, 1).compute((r, c) -> 1));
+    }
+
+    private void assertLookupMatchesTransform(final AffineTransform worldToGrid) {
+        final var samples = new int[WIDTH * HEIGHT];
+        for (var i = 0; i < samples.length; i++) {
+            samples[i] = i;
+        }
+        final var source = grid.source(samples, 3, -2, WIDTH, HEIGHT, worldToGrid);
+        var inside = 0;
+        for (var row = 0; row < grid.getRows(); row++) {
+            for (var column = 0; column < grid.getColumns(); column++) {
+                final var pixel =
+                        worldToGrid.transform(
+                                new Point2D.Double(grid.ordinate0(row), grid.ordinate1(column)),
+                                null);
+                final var x = (int) Math.round(pixel.getX()) - 3;
+                final var y = (int) Math.round(pixel.getY()) + 2;
+                final var expected =
+                        x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT ? y * WIDTH + x : -1;
+                assertEquals(expected, source.index(row, column), row + "/" + column);
+                if (expected >= 0) {
+                    assertEquals(expected, source.sample(expected));
+                    inside++;
+                }
+            }
+        }
+        assertTrue(inside > 0, "No cell inside of the source");
+    }
+}
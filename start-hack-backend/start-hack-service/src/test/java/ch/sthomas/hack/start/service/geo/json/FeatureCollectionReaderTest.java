@@ -0,0 +1,132 @@
+package ch.sthomas.hack.start.service.geo.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.n52.jackson.datatype.jts.JtsModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+class FeatureCollectionReaderTest {
+    private static final Logger logger = LoggerFactory.getLogger(FeatureCollectionReaderTest.class);
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+    private final ObjectMapper objectMapper =
+            JsonMapper.builder().addModule(new JtsModule(geometryFactory)).build();
+
+    @TempDir private Path folder;
+
+    @Test
+    void testParallelReadKeepsOrder() throws IOException {
+        final var file = syntheticExtract(2_500);
+
+        final var sequential = new ArrayList<String>();
+        final var parallel = new ArrayList<String>();
+        new FeatureCollectionReader(objectMapper, 1).read(file, f -> sequential.add(f.getId()));
+        new FeatureCollectionReader(objectMapper, 4).read(file, f -> parallel.add(f.getId()));
+
+        assertEquals(2_500, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    /**
+     * Compares the throughput and allocations of sequential and parallel reading, and the heap a
+     * fully read collection retains. A benchmark, only run with {@code -Dbenchmarks=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void testThroughputOnLargeExtract() throws IOException {
+        final var file = syntheticExtract(200_000);
+        final var size = Files.size(file);
+        final var heapBefore = usedHeap();
+        final var collection = objectMapper.readValue(file.toFile(), BaseFeatureCollection.class);
+        logger.info(
+                "Reading {} features as one collection retains {} MB of heap",
+                collection.getFeatures().size(),
+                (usedHeap() - heapBefore) >> 20);
+        for (final var parallelism : List.of(1, 4)) {
+            final var reader = new FeatureCollectionReader(objectMapper, parallelism);
+            final var manMade = new AtomicLong();
+            final var allocatedBefore = allocatedBytes();
+            final var start = System.nanoTime();
+            final var count =
+                    reader.read(
+                            file,
+                            f -> {
+                                if (f.getProperty("man_made") != null) {
+                                    manMade.incrementAndGet();
+                                }
+                            });
+            final var millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            logger.info(
+                    "Read {} features ({} MB) with parallelism {} in {} ms, {} MB/s,"
+                            + " {} MB allocated on the calling thread",
+                    count,
+                    size >> 20,
+                    parallelism,
+                    millis,
+                    (size >> 20) * 1000 / millis,
+                    (allocatedBytes() - allocatedBefore) >> 20);
+            assertEquals(200_000, count);
+            assertEquals(20_000, manMade.get());
+        }
+    }
+
+    private Path syntheticExtract(final int features) throws IOException {
+        final var random = new Random(42);
+        final var file = folder.resolve("points-" + features + ".geojson");
+        try (final var writer = new FeatureCollectionWriter(objectMapper, file)) {
+            for (var i = 0; i < features; i++) {
+                writer.write(
+                        new BaseFeature()
+                                .setId(Integer.toString(i))
+                                .setType("Feature")
+                                .setProperties(
+                                        Map.of(
+                                                "osm_id",
+                                                i,
+                                                "name",
+                                                "Node \"" + i + "\"",
+                                                i % 10 == 0 ? "man_made" : "amenity",
+                                                "well"))
+                                .setGeometry(
+                                        geometryFactory.createPoint(
+                                                new Coordinate(
+                                                        -12 + random.nextDouble(),
+                                                        16 + random.nextDouble()))));
+            }
+        }
+        return file;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+}
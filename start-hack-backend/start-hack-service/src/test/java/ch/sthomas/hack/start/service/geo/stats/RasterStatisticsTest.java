@@ -0,0 +1,109 @@
+package ch.sthomas.hack.start.service.geo.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.Random;
+
+class RasterStatisticsTest {
+    private static final int TILE_SIZE = 64;
+
+    @Test
+    void testSummaryOverTiles() {
+        final var image = tiledImage(BufferedImage.TYPE_USHORT_GRAY, 300, 200);
+        final var random = new Random(42);
+        final var raster = image.getRaster();
+        final var expected = new double[300 * 200];
+        var valid = 0;
+        for (var y = 0; y < 200; y++) {
+            for (var x = 0; x < 300; x++) {
+                final var value = x == y ? 65535 : random.nextInt(1000);
+                raster.setSample(x, y, 0, value);
+                if (value != 65535) {
+                    expected[valid++] = value;
+                }
+            }
+        }
+        final var values = Arrays.copyOf(expected, valid);
+        Arrays.sort(values);
+        final var mean = Arrays.stream(values).average().orElseThrow();
+        final var stddev =
+                Math.sqrt(
+                        Arrays.stream(values).map(v -> (v - mean) * (v - mean)).sum()
+                                / values.length);
+
+        final var stats = RasterStatistics.summarize(image, 0, 65535d);
+
+        assertEquals(values.length, stats.count());
+        assertEquals(values[0], stats.min());
+        assertEquals(values[values.length - 1], stats.max());
+        assertEquals(mean, stats.mean(), 1e-9);
+        assertEquals(stddev, stats.stddev(), 1e-9);
+        final var binWidth = (stats.max() - stats.min()) / RasterStatistics.PERCENTILE_BINS;
+        assertEquals(values[values.length / 2], stats.percentiles().get("p50"), 1 + binWidth);
+        assertEquals(
+                values[values.length * 95 / 100], stats.percentiles().get("p95"), 1 + binWidth);
+    }
+
+    @Test
+    void testHistogramOfClasses() {
+        final var image = tiledImage(BufferedImage.TYPE_BYTE_GRAY, 130, 70);
+        final var raster = image.getRaster();
+        for (var y = 0; y < 70; y++) {
+            for (var x = 0; x < 130; x++) {
+                raster.setSample(x, y, 0, x < 10 ? 255 : 1 + x % 17);
+            }
+        }
+
+        final var histogram = RasterStatistics.histogram(image, 0, 255d);
+
+        assertEquals(0, histogram[255]);
+        assertEquals(120 * 70, Arrays.stream(histogram).sum());
+        // x = 10 to 129 in 17 classes: 16, 33, ..., 118 land on class 17
+        assertEquals(7 * 70, histogram[17]);
+    }
+
+    /** An image split into {@value #TILE_SIZE} pixel tiles, the edge tiles are partial. */
+    private static BufferedImage tiledImage(final int type, final int width, final int height) {
+        return new BufferedImage(width, height, type) {
+            @Override
+            public int getTileWidth() {
+                return TILE_SIZE;
+            }
+
+            @Override
+            public int getTileHeight() {
+                return TILE_SIZE;
+            }
+
+            @Override
+            public int getNumXTiles() {
+                return Math.ceilDiv(getWidth(), TILE_SIZE);
+            }
+
+            @Override
+            public int getNumYTiles() {
+                return Math.ceilDiv(getHeight(), TILE_SIZE);
+            }
+
+            @Override
+            public Raster getTile(final int tileX, final int tileY) {
+                final var x = tileX * TILE_SIZE;
+                final var y = tileY * TILE_SIZE;
+                return getRaster()
+                        .createChild(
+                                x,
+                                y,
+                                Math.min(TILE_SIZE, getWidth() - x),
+                                Math.min(TILE_SIZE, getHeight() - y),
+                                x,
+                                y,
+                                null);
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package ch.sthomas.hack.start.service.geo.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import ch.sthomas.hack.start.service.geo.store.MappedRaster;
+import ch.sthomas.hack.start.service.geo.store.TimeCube;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+class ZonalStatisticsTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    /** One unit per pixel, world x to the right and y up, like a north up raster. */
+    private static final AffineTransform GRID_TO_WORLD = new AffineTransform(1, 0, 0, -1, 0, 2);
+
+    @TempDir Path folder;
+
+    @Test
+    void testNumericPerZoneAndYear() throws IOException {
+        final var cube =
+                cube(new int[] {1, 2, 3, 4, 5, 6, 7, 8}, new int[] {0, 0, 0, 0, 9, 9, 9, 9});
+        final var stats = ZonalStatistics.numeric(cube, leftAndRight());
+
+        assertEquals(2, stats.size());
+        final var left = stats.get(0).get(2020);
+        assertEquals(4, left.count());
+        assertEquals(1, left.min());
+        assertEquals(6, left.max());
+        assertEquals(3.5, left.avg(), 1e-9);
+        final var right = stats.get(1).get(2020);
+        assertEquals(5.5, right.avg(), 1e-9);
+        // The no data value 0 is left out, only the bottom row counts in 2021.
+        assertEquals(2, stats.get(0).get(2021).count());
+        assertEquals(9, stats.get(0).get(2021).avg(), 1e-9);
+    }
+
+    @Test
+    void testCategoricalSkipsUnlabelled() throws IOException {
+        final var cube =
+                cube(new int[] {1, 1, 2, 2, 1, 3, 2, 2}, new int[] {0, 0, 0, 0, 0, 0, 0, 0});
+        final var stats =
+                ZonalStatistics.categorical(
+                        cube, leftAndRight(), key -> key == 3 ? null : "class " + key);
+
+        assertEquals(Map.of("class 1", 3), stats.get(0).get(2020).lctFrequencies());
+        assertEquals(Map.of("class 2", 4), stats.get(1).get(2020).lctFrequencies());
+        assertNull(stats.get(0).get(2021));
+    }
+
+    private static ZoneMask leftAndRight() {
+        final var factory = new GeometryFactory();
+        return ZoneMask.rasterize(
+                List.of(
+                        factory.toGeometry(new Envelope(0, 2, 0, 2)),
+                        factory.toGeometry(new Envelope(2, 4, 0, 2))),
+                WIDTH,
+                HEIGHT,
+                GRID_TO_WORLD,
+                false);
+    }
+
+    private TimeCube cube(final int[]... years) throws IOException {
+        TimeCube cube = null;
+        for (var i = 0; i < years.length; i++) {
+            final var image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setPixels(0, 0, WIDTH, HEIGHT, years[i]);
+            final var file = folder.resolve(i + ".raster");
+            MappedRaster.write(file, image, GRID_TO_WORLD, 0d, FileTime.fromMillis(1000 + i));
+            final var raster = MappedRaster.open(file);
+            if (cube == null) {
+                cube = TimeCube.create(folder.resolve("test.cube"), 2020, years.length, raster);
+            }
+            cube.update(2020 + i, raster);
+        }
+        return cube;
+    }
+}
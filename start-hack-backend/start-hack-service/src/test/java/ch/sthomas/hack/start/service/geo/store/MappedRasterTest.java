@@ -0,0 +1,107 @@
+package ch.sthomas.hack.start.service.geo.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+class MappedRasterTest {
+    private static final AffineTransform GRID_TO_WORLD =
+            new AffineTransform(0.01, 0, 0, -0.01, -12, 17);
+
+    @TempDir private Path folder;
+
+    @Test
+    void testRoundTripAcrossTiles() throws IOException {
+        final var raster = raster(DataBuffer.TYPE_INT, 600, 300);
+        final var file = folder.resolve("gp.raster");
+
+        MappedRaster.write(file, image(raster), GRID_TO_WORLD, -1.0, FileTime.fromMillis(42));
+        final var mapped = MappedRaster.open(file);
+
+        assertEquals(600, mapped.getWidth());
+        assertEquals(300, mapped.getHeight());
+        assertEquals(-1.0, mapped.getNoData());
+        assertEquals(FileTime.fromMillis(42), mapped.getSourceModified());
+        for (var y = 0; y < raster.getHeight(); y++) {
+            for (var x = 0; x < raster.getWidth(); x++) {
+                assertEquals(raster.getSample(x, y, 0), mapped.getInt(x, y));
+            }
+        }
+        assertArrayEquals(
+                new int[] {raster.getSample(300, 100, 0)},
+                (int[]) mapped.evaluate(-12 + 0.01 * 300.5, 17 - 0.01 * 100.5));
+        assertNull(mapped.evaluate(0, 0));
+    }
+
+    @Test
+    void testFloatSamples() throws IOException {
+        final var raster = raster(DataBuffer.TYPE_FLOAT, 20, 10);
+        raster.setSample(3, 4, 0, 2.5f);
+        final var file = folder.resolve("precipitation.raster");
+
+        MappedRaster.write(file, image(raster), GRID_TO_WORLD, null, FileTime.fromMillis(0));
+        final var mapped = MappedRaster.open(file);
+
+        assertNull(mapped.getNoData());
+        assertEquals(DataBuffer.TYPE_FLOAT, mapped.getDataType());
+        assertEquals(2.5, mapped.getDouble(3, 4));
+        assertArrayEquals(
+                new float[] {2.5f}, (float[]) mapped.evaluate(-12 + 0.035, 17 - 0.045), 0);
+    }
+
+    @Test
+    void testDoubleSamplesAreStoredAsFloats() throws IOException {
+        final var raster = raster(DataBuffer.TYPE_DOUBLE, 20, 10);
+        raster.setSample(3, 4, 0, 0.1);
+        final var file = folder.resolve("density.raster");
+
+        MappedRaster.write(file, image(raster), GRID_TO_WORLD, null, FileTime.fromMillis(0));
+        final var mapped = MappedRaster.open(file);
+
+        assertEquals(DataBuffer.TYPE_FLOAT, mapped.getDataType());
+        assertEquals(0.1f, (float) mapped.getDouble(3, 4));
+        assertEquals(raster.getSample(5, 6, 0), mapped.getInt(5, 6));
+    }
+
+    private static WritableRaster raster(final int dataType, final int width, final int height) {
+        final var raster =
+                Raster.createWritableRaster(
+                        new BandedSampleModel(dataType, width, height, 1), null);
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, (x * 7 + y * 13) % 120);
+            }
+        }
+        return raster;
+    }
+
+    private static RenderedImage image(final WritableRaster raster) {
+        return new BufferedImage(
+                new ComponentColorModel(
+                        ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                        false,
+                        false,
+                        Transparency.OPAQUE,
+                        raster.getDataBuffer().getDataType()),
+                raster,
+                false,
+                null);
+    }
+}
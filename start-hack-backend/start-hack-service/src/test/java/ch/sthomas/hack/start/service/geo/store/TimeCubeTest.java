@@ -0,0 +1,215 @@
+package ch.sthomas.hack.start.service.geo.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+class TimeCubeTest {
+    private static final Logger logger = LoggerFactory.getLogger(TimeCubeTest.class);
+    private static final AffineTransform GRID_TO_WORLD =
+            new AffineTransform(0.01, 0, 0, -0.01, -12, 17);
+
+    @TempDir private Path folder;
+
+    @Test
+    void testYearsOfAPixel() throws IOException {
+        final var year2000 = raster("2000", GRID_TO_WORLD, 0, 1);
+        // Shifted by one pixel to the east, so it has to be resampled on the grid of the cube.
+        final var shifted = new AffineTransform(GRID_TO_WORLD);
+        shifted.translate(1, 0);
+        final var year2002 = raster("2002", shifted, 100, 2);
+
+        final var cube = TimeCube.create(folder.resolve("gp.cube"), 2000, 3, year2000);
+        cube.update(2000, year2000);
+        cube.update(2002, year2002);
+
+        assertTrue(cube.hasYear(2000));
+        assertFalse(cube.hasYear(2001));
+        assertEquals(FileTime.fromMillis(2), cube.getSourceModified(2002));
+        final var pixel = cube.toGrid(-12 + 0.055, 17 - 0.035);
+        assertArrayEquals(new int[] {5, 3}, pixel);
+        assertArrayEquals(new int[] {35}, (int[]) cube.evaluate(5, 3, 2000));
+        assertArrayEquals(new int[] {134}, (int[]) cube.evaluate(5, 3, 2002));
+        assertNull(cube.toGrid(0, 0));
+
+        // A copy is updated without touching the cube it was copied from.
+        final var copy = cube.copyTo(folder.resolve("gp.cube.tmp"));
+        copy.update(2000, null);
+        assertTrue(cube.hasYear(2000));
+        assertArrayEquals(new int[] {35}, (int[]) cube.evaluate(5, 3, 2000));
+
+        cube.update(2000, null);
+        final var reopened = TimeCube.open(folder.resolve("gp.cube"));
+        assertFalse(reopened.hasYear(2000));
+        assertArrayEquals(new int[] {134}, (int[]) reopened.evaluate(5, 3, 2002));
+        assertFalse(copy.hasYear(2000));
+        assertArrayEquals(new int[] {134}, (int[]) copy.evaluate(5, 3, 2002));
+    }
+
+    @Test
+    void testRejectsYearsOfAnotherDataType() throws IOException {
+        final var cube =
+                TimeCube.create(
+                        folder.resolve("gp.cube"), 2000, 2, raster("2000", GRID_TO_WORLD, 0, 1));
+        final var floats = raster("2001", GRID_TO_WORLD, 0, 1, DataBuffer.TYPE_FLOAT, 20, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> cube.update(2001, floats));
+        assertFalse(cube.hasYear(2001));
+    }
+
+    /**
+     * The lookups of a point request: 5 products of 24 years, read from one raster per product and
+     * year as before the time cubes, and from one cube per product. A benchmark, only run with
+     * {@code -Dbenchmarks=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void testPointLatencyAgainstYearlyRasters() throws IOException {
+        final var products = 5;
+        final var years = 24;
+        final var rasters = new MappedRaster[products][years];
+        final var cubes = new TimeCube[products];
+        for (var p = 0; p < products; p++) {
+            cubes[p] =
+                    TimeCube.create(
+                            folder.resolve(p + ".cube"),
+                            2000,
+                            years,
+                            raster(p + "-0", GRID_TO_WORLD, 0, 1, DataBuffer.TYPE_INT, 1000, 800));
+            for (var y = 0; y < years; y++) {
+                rasters[p][y] =
+                        raster(p + "-" + y, GRID_TO_WORLD, y, 1, DataBuffer.TYPE_INT, 1000, 800);
+                cubes[p].update(2000 + y, rasters[p][y]);
+            }
+        }
+        final var random = new Random(42);
+        final var points = new double[40_000][];
+        for (var i = 0; i < points.length; i++) {
+            points[i] = new double[] {-12 + random.nextDouble() * 10, 17 - random.nextDouble() * 8};
+        }
+        final var values = new double[years];
+        final var before =
+                latencies(
+                        points,
+                        point -> {
+                            var sum = 0;
+                            for (final var product : rasters) {
+                                for (final var raster : product) {
+                                    sum += ((int[]) raster.evaluate(point[0], point[1]))[0];
+                                }
+                            }
+                            return sum;
+                        });
+        final var after =
+                latencies(
+                        points,
+                        point -> {
+                            var sum = 0;
+                            for (final var cube : cubes) {
+                                final var pixel = cube.toGrid(point[0], point[1]);
+                                cube.read(pixel[0], pixel[1], values);
+                                for (final var value : values) {
+                                    sum += (int) value;
+                                }
+                            }
+                            return sum;
+                        });
+        logger.info(
+                "Point lookups of {} products x {} years, yearly rasters p50 {} us p99 {} us,"
+                        + " time cubes p50 {} us p99 {} us",
+                products,
+                years,
+                percentile(before, 0.5),
+                percentile(before, 0.99),
+                percentile(after, 0.5),
+                percentile(after, 0.99));
+    }
+
+    /** The nanoseconds of every lookup after the first half of the points warmed up. */
+    private static long[] latencies(final double[][] points, final ToIntFunction<double[]> lookup) {
+        final var latencies = new long[points.length / 2];
+        var blackhole = 0;
+        for (var i = 0; i < points.length; i++) {
+            final var start = System.nanoTime();
+            blackhole += lookup.applyAsInt(points[i]);
+            if (i >= points.length / 2) {
+                latencies[i - points.length / 2] = System.nanoTime() - start;
+            }
+        }
+        assertTrue(blackhole != 1);
+        return latencies;
+    }
+
+    private static double percentile(final long[] latencies, final double percentile) {
+        final var sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (percentile * (sorted.length - 1))] / 1000.0;
+    }
+
+    private MappedRaster raster(
+            final String name,
+            final AffineTransform gridToWorld,
+            final int offset,
+            final long modified)
+            throws IOException {
+        return raster(name, gridToWorld, offset, modified, DataBuffer.TYPE_INT, 20, 10);
+    }
+
+    /** A 20x10 raster with the value {@code offset + 10 * y + x}. */
+    private MappedRaster raster(
+            final String name,
+            final AffineTransform gridToWorld,
+            final int offset,
+            final long modified,
+            final int dataType,
+            final int width,
+            final int height)
+            throws IOException {
+        final var raster =
+                Raster.createWritableRaster(
+                        new BandedSampleModel(dataType, width, height, 1), null);
+        for (var y = 0; y < raster.getHeight(); y++) {
+            for (var x = 0; x < raster.getWidth(); x++) {
+                raster.setSample(x, y, 0, offset + 10 * y + x);
+            }
+        }
+        final var image =
+                new BufferedImage(
+                        new ComponentColorModel(
+                                ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                                false,
+                                false,
+                                Transparency.OPAQUE,
+                                dataType),
+                        raster,
+                        false,
+                        null);
+        final var file = folder.resolve(name + ".raster");
+        MappedRaster.write(file, image, gridToWorld, null, FileTime.fromMillis(modified));
+        return MappedRaster.open(file);
+    }
+}
@@ -0,0 +1,70 @@
+package ch.sthomas.hack.start.service.layer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.sthomas.hack.start.model.feature.BaseFeature;
+import ch.sthomas.hack.start.service.geo.json.FeatureCollectionWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.n52.jackson.datatype.jts.JtsModule;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+class FeatureIndexTest {
+    private final GeometryFactory factory = new GeometryFactory();
+    private final ObjectMapper objectMapper =
+            JsonMapper.builder().addModule(new JtsModule(factory)).build();
+    @TempDir private Path folder;
+
+    @Test
+    void testQueryByBoundingBoxFilterAndLimit() throws IOException {
+        final var file = folder.resolve("wells.geojson");
+        final var builder = FeatureIndex.builder();
+        try (final var writer = new FeatureCollectionWriter(objectMapper, file)) {
+            for (var i = 0; i < 100; i++) {
+                final var feature =
+                        new BaseFeature()
+                                .setGeometry(factory.createPoint(new Coordinate(i, i)))
+                                .setProperties(Map.of("man_made", i % 2 == 0 ? "well" : "tower"));
+                final var start = writer.getPosition();
+                writer.write(feature);
+                builder.add(feature, start, writer.getPosition());
+            }
+            final var empty = new BaseFeature().setProperties(Map.of());
+            final var start = writer.getPosition();
+            writer.write(empty);
+            builder.add(empty, start, writer.getPosition());
+        }
+        final var index = builder.build(objectMapper, file);
+
+        assertEquals(100, index.size());
+        assertEquals(11, index.query(new Envelope(10, 20, 10, 20), f -> true, 100).size());
+        final var wells =
+                index.query(
+                        new Envelope(10, 20, 10, 20),
+                        f -> "well".equals(f.getProperty("man_made")),
+                        100);
+        assertEquals(6, wells.size());
+        assertEquals(
+                new Envelope(10, 10, 10, 10),
+                index.query(new Envelope(9.5, 10.5, 9.5, 10.5), f -> true, 100)
+                        .getFirst()
+                        .getGeometry()
+                        .getEnvelopeInternal());
+        assertEquals(3, index.query(new Envelope(0, 99, 0, 99), f -> true, 3).size());
+
+        // The same ranges are found by scanning the written file.
+        final var scanned = FeatureIndex.of(objectMapper, file);
+        assertEquals(100, scanned.size());
+        assertEquals(11, scanned.query(new Envelope(10, 20, 10, 20), f -> true, 100).size());
+    }
+}
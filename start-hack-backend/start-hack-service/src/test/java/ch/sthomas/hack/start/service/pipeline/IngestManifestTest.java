@@ -0,0 +1,52 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+class IngestManifestTest {
+    private final JsonMapper objectMapper = JsonMapper.builder().build();
+
+    @TempDir private Path folder;
+
+    @Test
+    void testSkipsUnchangedInputs() throws IOException {
+        final var output = folder.resolve("public");
+        final var tif = Files.writeString(folder.resolve("2000_GP.tif"), "pixels");
+        final var artifact = Files.createDirectories(output).resolve("gp-2000.geojson");
+        final var manifest = new IngestManifest(output.toString(), objectMapper);
+
+        final var stamp = manifest.stamp("1", List.of(tif));
+        assertFalse(manifest.isUpToDate(artifact, stamp));
+        Files.writeString(artifact, "{}");
+        manifest.record(artifact, stamp);
+        assertTrue(manifest.isUpToDate(artifact, manifest.stamp("1", List.of(tif))));
+
+        // Records are saved once per batch, a restart reads them again.
+        assertFalse(Files.exists(output.resolve(IngestManifest.FILE_NAME)));
+        manifest.flush();
+        final var restarted = new IngestManifest(output.toString(), objectMapper);
+        assertTrue(restarted.isUpToDate(artifact, restarted.stamp("1", List.of(tif))));
+        assertFalse(restarted.isUpToDate(artifact, restarted.stamp("2", List.of(tif))));
+
+        // Touched without changing the content.
+        Files.setLastModifiedTime(tif, FileTime.fromMillis(1_000_000));
+        assertTrue(restarted.isUpToDate(artifact, restarted.stamp("1", List.of(tif))));
+
+        Files.writeString(tif, "other pixels");
+        assertFalse(restarted.isUpToDate(artifact, restarted.stamp("1", List.of(tif))));
+
+        Files.delete(artifact);
+        assertFalse(restarted.isUpToDate(artifact, restarted.stamp("1", List.of())));
+    }
+}
@@ -0,0 +1,52 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+class IngestMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final IngestMetrics metrics = new IngestMetrics(registry);
+
+    @Test
+    void testStagesAndFeatures() {
+        final var tags = IngestMetrics.tags(ModisProduct.LCT, 2010);
+        assertEquals(4, (int) metrics.time("parse", tags, () -> 4));
+        assertThrows(
+                IOException.class,
+                () ->
+                        metrics.time(
+                                "parse",
+                                tags,
+                                () -> {
+                                    throw new IOException("broken tif");
+                                }));
+        metrics.time("serialize", Tags.empty(), () -> null);
+
+        assertEquals(
+                2,
+                registry.get("ingest.stage")
+                        .tags("stage", "parse", "product", "LCT", "year", "2010")
+                        .timer()
+                        .count());
+        // Stages without a product year get the same tag keys.
+        assertEquals(
+                1,
+                registry.get("ingest.stage")
+                        .tags("stage", "serialize", "product", "none", "year", "none")
+                        .timer()
+                        .count());
+
+        metrics.features("districts", Tags.empty(), 12);
+        metrics.features("districts", Tags.empty(), 13);
+        assertEquals(13, registry.get("layer.features").tags("layer", "districts").gauge().value());
+    }
+}
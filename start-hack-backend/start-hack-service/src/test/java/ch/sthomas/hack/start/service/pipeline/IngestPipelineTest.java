@@ -0,0 +1,59 @@
+package ch.sthomas.hack.start.service.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+class IngestPipelineTest {
+
+    @Test
+    void testLimitsAndFailures() {
+        final var pipeline = new IngestPipeline(2, 1);
+        final var cpuRunning = new AtomicInteger();
+        final var cpuMax = new AtomicInteger();
+        final var processRunning = new AtomicInteger();
+        final var processMax = new AtomicInteger();
+        final var units =
+                IntStream.range(0, 20)
+                        .mapToObj(
+                                i ->
+                                        new IngestPipeline.Unit(
+                                                "unit " + i,
+                                                () -> {
+                                                    pipeline.cpu(() -> work(cpuRunning, cpuMax));
+                                                    pipeline.process(
+                                                            () -> work(processRunning, processMax));
+                                                    if (i % 5 == 0) {
+                                                        throw new IOException("unit " + i);
+                                                    }
+                                                }))
+                        .toList();
+
+        final var report = pipeline.run("test", units);
+
+        assertEquals(20, report.units());
+        assertEquals(16, report.succeeded());
+        assertEquals(
+                List.of("unit 0", "unit 5", "unit 10", "unit 15"),
+                report.failures().stream().map(IngestPipeline.Failure::unit).toList());
+        assertTrue(cpuMax.get() <= 2, "cpu stages " + cpuMax.get());
+        assertEquals(1, processMax.get());
+    }
+
+    private static Void work(final AtomicInteger running, final AtomicInteger max) {
+        max.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        return null;
+    }
+}
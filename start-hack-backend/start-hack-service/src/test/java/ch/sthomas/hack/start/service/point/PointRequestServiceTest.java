@@ -0,0 +1,78 @@
+package ch.sthomas.hack.start.service.point;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ch.sthomas.hack.start.model.points.PointDataResult;
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.AdminDataService;
+import ch.sthomas.hack.start.service.ModisDataService;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+class PointRequestServiceTest {
+    private final ModisDataService modisDataService = mock(ModisDataService.class);
+    private final PointRequestService service =
+            new PointRequestService(
+                    modisDataService,
+                    mock(AdminDataService.class),
+                    new ObjectMapper(),
+                    DataSize.ofMegabytes(1));
+
+    @Test
+    void testCachedByPixelsAndDataVersion() throws IOException {
+        final var first = new Coordinate(1, 1);
+        final var samePixels = new Coordinate(1.1, 1.1);
+        final var otherPixels = new Coordinate(5, 5);
+        when(modisDataService.getDataVersion()).thenReturn(1L);
+        when(modisDataService.getPixels(first)).thenReturn(new long[] {3, -1});
+        when(modisDataService.getPixels(samePixels)).thenReturn(new long[] {3, -1});
+        when(modisDataService.getPixels(otherPixels)).thenReturn(new long[] {4, -1});
+        when(modisDataService.getPointData(any(Coordinate.class)))
+                .thenReturn(new PointDataResult(List.of(), Set.of()));
+
+        service.getPointDataJson(first);
+        service.getPointDataJson(samePixels);
+        verify(modisDataService, times(1)).getPointData(any(Coordinate.class));
+        service.getPointDataJson(otherPixels);
+        verify(modisDataService, times(2)).getPointData(any(Coordinate.class));
+
+        // A new data version, e.g. an updated cube, is never answered from the old entries.
+        when(modisDataService.getDataVersion()).thenReturn(2L);
+        service.getPointDataJson(first);
+        verify(modisDataService, times(3)).getPointData(any(Coordinate.class));
+    }
+
+    @Test
+    void testPartialAndUnknownPixelsAreNotCached() throws IOException {
+        final var coordinate = new Coordinate(1, 1);
+        when(modisDataService.getDataVersion()).thenReturn(1L);
+        when(modisDataService.getPixels(coordinate)).thenReturn(new long[] {3, -1});
+        when(modisDataService.getPointData(any(Coordinate.class)))
+                .thenReturn(new PointDataResult(List.of(), Set.of(ModisProduct.LCT)));
+
+        assertEquals(Set.of(ModisProduct.LCT), service.getPointDataJson(coordinate).missing());
+        service.getPointDataJson(coordinate);
+        verify(modisDataService, times(2)).getPointData(any(Coordinate.class));
+
+        // A cube that was not built yet has no pixels to key the entry by.
+        when(modisDataService.getPixels(coordinate)).thenReturn(null);
+        when(modisDataService.getPointData(any(Coordinate.class)))
+                .thenReturn(new PointDataResult(List.of(), Set.of()));
+        service.getPointDataJson(coordinate);
+        service.getPointDataJson(coordinate);
+        verify(modisDataService, times(4)).getPointData(any(Coordinate.class));
+    }
+}
@@ -0,0 +1,53 @@
+package ch.sthomas.hack.start.service.tile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+class MvtEncoderTest {
+    private final GeometryFactory factory = new GeometryFactory();
+
+    @Test
+    void testPolygonIsWrittenClockwise() {
+        // Counter clockwise with y down, the exterior has to be reversed.
+        final var polygon =
+                factory.createPolygon(
+                        new Coordinate[] {
+                            new Coordinate(2, 2),
+                            new Coordinate(2, 10),
+                            new Coordinate(10, 10),
+                            new Coordinate(10, 2),
+                            new Coordinate(2, 2)
+                        });
+        final var commands = new ArrayList<Integer>();
+
+        assertEquals(3, MvtEncoder.commands(polygon, commands));
+        // MoveTo(1) 10,2, LineTo(3) 0,+8 -8,0 0,-8, ClosePath(1), deltas zig-zag encoded
+        assertArrayEquals(
+                new int[] {9, 20, 4, 26, 0, 16, 15, 0, 0, 15, 15},
+                commands.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Test
+    void testCollapsedPolygonIsDropped() {
+        final var encoder = new MvtEncoder(4096);
+        final var tiny =
+                factory.createPolygon(
+                        new Coordinate[] {
+                            new Coordinate(1, 1),
+                            new Coordinate(1.2, 1),
+                            new Coordinate(1.2, 1.2),
+                            new Coordinate(1, 1)
+                        });
+
+        assertFalse(encoder.addFeature("lct", tiny, Map.of("landUse", "Forest")));
+        assertEquals(0, encoder.encode().length);
+    }
+}
@@ -0,0 +1,57 @@
+package ch.sthomas.hack.start.service.tile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.geo.store.MappedRaster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.imageio.ImageIO;
+
+class RasterTileServiceTest {
+    @TempDir Path folder;
+
+    @Test
+    void testRendersLandCoverClasses() throws IOException {
+        // 2x2 land cover classes over the world, world coordinates are (lat, lon).
+        final var image = new BufferedImage(2, 2, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setPixels(0, 0, 2, 2, new int[] {7, 10, 12, 16});
+        final var file = folder.resolve("lct.raster");
+        MappedRaster.write(
+                file,
+                image,
+                new AffineTransform(0, 180, -85, 0, 85, -180),
+                255d,
+                FileTime.fromMillis(1000));
+
+        final var png =
+                RasterTileService.render(ModisProduct.LCT, MappedRaster.open(file), 0, 0, 0);
+        final var tile = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertEquals(RasterTileService.TILE_SIZE, tile.getWidth());
+        final var ramp = ColorRamp.of(ModisProduct.LCT);
+        assertEquals(ramp.argb(7), tile.getRGB(10, 10));
+        assertEquals(ramp.argb(10), tile.getRGB(245, 10));
+        assertEquals(ramp.argb(12), tile.getRGB(10, 245));
+        assertEquals(ramp.argb(16), tile.getRGB(245, 245));
+    }
+
+    @Test
+    void testInterpolatesBetweenStops() {
+        final var ramp =
+                new ColorRamp(new double[] {0, 10}, new int[] {0xff000000, 0xff0000ff}, true);
+
+        assertEquals(ColorRamp.TRANSPARENT, ramp.argb(-1));
+        assertEquals(0xff000080, ramp.argb(5));
+        assertEquals(0xff0000ff, ramp.argb(20));
+    }
+}
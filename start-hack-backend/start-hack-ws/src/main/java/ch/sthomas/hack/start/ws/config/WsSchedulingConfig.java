@@ -2,8 +2,12 @@ package ch.sthomas.hack.start.ws.config;
 
 import ch.sthomas.hack.start.service.AdminDataService;
 import ch.sthomas.hack.start.service.ModisDataService;
+import ch.sthomas.hack.start.service.ModisFolderWatcher;
 import ch.sthomas.hack.start.service.OSMDataService;
+import ch.sthomas.hack.start.service.PublicFileService;
 import ch.sthomas.hack.start.service.analyze.GppLandUsageService;
+import ch.sthomas.hack.start.service.analyze.ZonalStatsService;
+import ch.sthomas.hack.start.service.pipeline.IngestLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,16 +26,28 @@ public class WsSchedulingConfig {
     private final ModisDataService modisDataService;
     private final OSMDataService osmDataService;
     private final GppLandUsageService gppLandUsageService;
+    private final ModisFolderWatcher modisFolderWatcher;
+    private final ZonalStatsService zonalStatsService;
+    private final PublicFileService publicFileService;
+    private final IngestLock ingestLock;
 
     public WsSchedulingConfig(
             final AdminDataService adminDataService,
             final ModisDataService modisDataService,
             final OSMDataService osmDataService,
-            GppLandUsageService gppLandUsageService) {
+            GppLandUsageService gppLandUsageService,
+            final ModisFolderWatcher modisFolderWatcher,
+            final ZonalStatsService zonalStatsService,
+            final PublicFileService publicFileService,
+            final IngestLock ingestLock) {
         this.adminDataService = adminDataService;
         this.modisDataService = modisDataService;
         this.osmDataService = osmDataService;
         this.gppLandUsageService = gppLandUsageService;
+        this.modisFolderWatcher = modisFolderWatcher;
+        this.zonalStatsService = zonalStatsService;
+        this.publicFileService = publicFileService;
+        this.ingestLock = ingestLock;
     }
 
     @Scheduled(initialDelay = 10, timeUnit = TimeUnit.SECONDS)
@@ -42,10 +58,23 @@ public class WsSchedulingConfig {
 
     @Scheduled(initialDelay = 1, timeUnit = TimeUnit.SECONDS)
     public void loadGrids() {
-        modisDataService.loadAndSaveData();
+        ingestLock.run(modisDataService::loadAndSaveData);
         logger.info("MODIS Data Grids Loaded");
     }
 
+    /** Picks up changed tifs, only the changed years of the time cubes are rewritten. */
+    @Scheduled(initialDelay = 0, fixedDelay = 600, timeUnit = TimeUnit.SECONDS)
+    public void storeRasters() {
+        ingestLock.run(modisDataService::storeRasters);
+        logger.info("MODIS rasters stored");
+    }
+
+    /** Re-ingests the product years whose tif was added, changed or removed. */
+    @Scheduled(initialDelay = 0, fixedDelay = 5, timeUnit = TimeUnit.SECONDS)
+    public void watchTifs() throws IOException {
+        modisFolderWatcher.poll();
+    }
+
     @Scheduled(initialDelay = 10, timeUnit = TimeUnit.SECONDS)
     public void loadOSM() throws IOException {
         osmDataService.loadAndSaveData();
@@ -53,14 +82,26 @@ public class WsSchedulingConfig {
     }
 
     @Scheduled(initialDelay = 2, timeUnit = TimeUnit.SECONDS)
-    public void loadAnalyze() {
-        gppLandUsageService.loadAndSaveUsageRanking();
+    public void loadAnalyze() throws IOException {
+        ingestLock.run(gppLandUsageService::loadAndSaveUsageRanking);
         logger.info("Analysis ranking loaded");
     }
 
+    @Scheduled(initialDelay = 3, timeUnit = TimeUnit.SECONDS)
+    public void loadZonalStats() throws IOException {
+        ingestLock.run(zonalStatsService::loadAndSaveZonalStats);
+        logger.info("District statistics loaded");
+    }
+
     @Scheduled(initialDelay = 0, timeUnit = TimeUnit.SECONDS)
     public void loadSpacialAggregated() throws IOException {
-        modisDataService.loadSpacialAggregatedData();
+        ingestLock.run(modisDataService::loadSpacialAggregatedData);
         logger.info("Spacial aggregated data loaded");
     }
+
+    /** Writes the gzip and brotli variants of the JSON files written since the last run. */
+    @Scheduled(initialDelay = 15, fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
+    public void precompressPublicFiles() throws IOException {
+        publicFileService.precompressAll();
+    }
 }
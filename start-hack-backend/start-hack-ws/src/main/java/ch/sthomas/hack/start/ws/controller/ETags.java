@@ -0,0 +1,22 @@
+package ch.sthomas.hack.start.ws.controller;
+
+import java.util.Arrays;
+
+/** The ETag comparison of conditional requests, shared by the controllers that send ETags. */
+final class ETags {
+    private ETags() {}
+
+    /**
+     * Whether the {@code If-None-Match} header matches the ETag: any tag of the list, compared
+     * weakly, or {@code *}.
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals("*") || tag.equals(etag));
+    }
+}
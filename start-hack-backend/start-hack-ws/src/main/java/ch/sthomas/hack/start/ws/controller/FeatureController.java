@@ -0,0 +1,80 @@
+package ch.sthomas.hack.start.ws.controller;
+
+import ch.sthomas.hack.start.model.feature.BaseFeatureCollection;
+import ch.sthomas.hack.start.service.layer.FeatureLayerService;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Size;
+
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SortedSet;
+
+@RestController
+@RequestMapping("/v1/features")
+@Validated
+public class FeatureController {
+    private final FeatureLayerService featureLayerService;
+
+    public FeatureController(final FeatureLayerService featureLayerService) {
+        this.featureLayerService = featureLayerService;
+    }
+
+    @Operation(summary = "Get the Names of the Layers that can be queried")
+    @GetMapping(path = "/layers")
+    @CrossOrigin
+    public SortedSet<String> getLayers() {
+        return featureLayerService.getLayers();
+    }
+
+    @Operation(summary = "Get the Features of a Layer in a Bounding Box")
+    @GetMapping(path = "")
+    @CrossOrigin
+    public BaseFeatureCollection getFeatures(
+            @RequestParam final String layer,
+            @Parameter(description = "minX,minY,maxX,maxY") @RequestParam @Size(min = 4, max = 4)
+                    final List<Double> bbox,
+            @Parameter(description = "key=value, or key to only require the property")
+                    @RequestParam(required = false, defaultValue = "")
+                    final List<String> filter,
+            @RequestParam(defaultValue = "1000") @Min(1) @Max(10_000) final int limit)
+            throws IOException {
+        if (bbox.get(0) > bbox.get(2) || bbox.get(1) > bbox.get(3)) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST, "bbox has to be minX,minY,maxX,maxY");
+        }
+        final var filters = new HashMap<String, String>();
+        for (final var f : filter) {
+            if (f.isBlank()) {
+                continue;
+            }
+            final var separator = f.indexOf('=');
+            if (separator < 0) {
+                filters.put(f, null);
+            } else {
+                filters.put(f.substring(0, separator), f.substring(separator + 1));
+            }
+        }
+        final var features =
+                featureLayerService.query(
+                        layer,
+                        new Envelope(bbox.get(0), bbox.get(2), bbox.get(1), bbox.get(3)),
+                        filters,
+                        limit);
+        if (features == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown layer " + layer);
+        }
+        return new BaseFeatureCollection().setFeatures(features);
+    }
+}
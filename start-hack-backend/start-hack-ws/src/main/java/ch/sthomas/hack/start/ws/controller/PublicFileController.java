@@ -0,0 +1,122 @@
+package ch.sthomas.hack.start.ws.controller;
+
+import ch.sthomas.hack.start.service.PublicFileService;
+
+import io.swagger.v3.oas.annotations.Operation;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.regex.Pattern;
+
+@RestController
+@RequestMapping("/v1/public")
+@Validated
+public class PublicFileController {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final String SENDFILE = "org.apache.tomcat.sendfile";
+
+    private final PublicFileService publicFileService;
+
+    public PublicFileController(final PublicFileService publicFileService) {
+        this.publicFileService = publicFileService;
+    }
+
+    /**
+     * Serves a file of the public folder. JSON is sent precompressed when the client accepts gzip
+     * or brotli. Every response carries a strong ETag, so a repeated visit with {@code
+     * If-None-Match} is answered with 304 and no body. {@code Range} requests (a single range, on
+     * the identity encoding) are answered with the requested bytes only, which lets clients read
+     * the index and the features of their viewport from a FlatGeobuf layer.
+     */
+    @Operation(summary = "Get a File of the Public Folder, supports ETags and Range Requests")
+    @GetMapping(path = "/{*path}")
+    @CrossOrigin(
+            exposedHeaders = {
+                HttpHeaders.ACCEPT_RANGES,
+                HttpHeaders.CONTENT_RANGE,
+                HttpHeaders.CONTENT_ENCODING,
+                HttpHeaders.ETAG
+            })
+    public void getPublicFile(
+            @PathVariable final String path,
+            final HttpServletRequest request,
+            final HttpServletResponse response)
+            throws IOException {
+        final var range = request.getHeader(HttpHeaders.RANGE);
+        // Ranges address the bytes of the file itself, never those of a compressed variant.
+        final var acceptEncoding =
+                range == null ? request.getHeader(HttpHeaders.ACCEPT_ENCODING) : null;
+        final var file = publicFileService.get(path, acceptEncoding);
+        if (file == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, file.etag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (file.compressible()) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (ETags.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), file.etag())) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        response.setContentType(file.contentType());
+        if (file.encoding() != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, file.encoding().getToken());
+        }
+
+        var start = 0L;
+        var end = file.length();
+        final var ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(file.etag()))) {
+            final var matcher = RANGE.matcher(range.trim());
+            if (matcher.matches() && !(matcher.group(1) + matcher.group(2)).isEmpty()) {
+                if (matcher.group(1).isEmpty()) {
+                    start = Math.max(0, end - Long.parseLong(matcher.group(2)));
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)) + 1);
+                    }
+                }
+                if (start >= end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.length());
+                    response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(
+                        HttpHeaders.CONTENT_RANGE,
+                        "bytes " + start + "-" + (end - 1) + "/" + file.length());
+            }
+        }
+        response.setContentLengthLong(end - start);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE + ".support"))) {
+            // Tomcat writes the file with sendfile after the handler returned.
+            request.setAttribute(SENDFILE + ".filename", file.file().toRealPath().toString());
+            request.setAttribute(SENDFILE + ".start", start);
+            request.setAttribute(SENDFILE + ".end", end);
+            return;
+        }
+        try (final var channel = FileChannel.open(file.file());
+                final var out = Channels.newChannel(response.getOutputStream())) {
+            var position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+}
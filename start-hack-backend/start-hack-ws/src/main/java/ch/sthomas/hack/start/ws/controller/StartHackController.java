@@ -1,7 +1,13 @@
 package ch.sthomas.hack.start.ws.controller;
 
-import ch.sthomas.hack.start.model.points.PointData;
+import ch.sthomas.hack.start.model.points.DistrictStatData;
+import ch.sthomas.hack.start.model.points.PointAdminAreas;
+import ch.sthomas.hack.start.model.points.PointBatchData;
+import ch.sthomas.hack.start.model.points.PointBatchRequest;
+import ch.sthomas.hack.start.model.product.ModisProduct;
 import ch.sthomas.hack.start.service.AdminDataService;
+import ch.sthomas.hack.start.service.ModisDataService;
+import ch.sthomas.hack.start.service.analyze.ZonalStatsService;
 import ch.sthomas.hack.start.service.point.PointRequestService;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -11,11 +17,18 @@ import jakarta.validation.Valid;
 import org.locationtech.jts.geom.Coordinate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/v1")
@@ -23,14 +36,23 @@ import java.util.List;
 public class StartHackController {
 
     private static final Logger logger = LoggerFactory.getLogger(StartHackController.class);
+    private static final MediaType GEO_JSON = MediaType.parseMediaType("application/geo+json");
+    private static final String MISSING_PRODUCTS = "X-Missing-Products";
 
     private final AdminDataService todoService;
     private final PointRequestService pointRequestService;
+    private final ZonalStatsService zonalStatsService;
+    private final ModisDataService modisDataService;
 
     public StartHackController(
-            final AdminDataService todoService, PointRequestService pointRequestService) {
+            final AdminDataService todoService,
+            PointRequestService pointRequestService,
+            final ZonalStatsService zonalStatsService,
+            final ModisDataService modisDataService) {
         this.todoService = todoService;
         this.pointRequestService = pointRequestService;
+        this.zonalStatsService = zonalStatsService;
+        this.modisDataService = modisDataService;
     }
 
     @Operation(summary = "Hello Endpoint")
@@ -39,12 +61,67 @@ public class StartHackController {
         return new Hello("Hello from start-hack WS", Instant.now());
     }
 
+    /**
+     * The data of every product at the point. Products that are not evaluated by the deadline are
+     * left out and listed in the {@value #MISSING_PRODUCTS} header.
+     */
     @Operation(summary = "Get Data for a Point")
     @GetMapping(path = "/point-data")
+    @CrossOrigin(exposedHeaders = MISSING_PRODUCTS)
+    public ResponseEntity<byte[]> getPointData(
+            @RequestParam @Valid final double x, @RequestParam @Valid final double y)
+            throws IOException {
+        // Served pre-serialized from the point cache, the body is a List<PointData<Object>>.
+        final var data = pointRequestService.getPointDataJson(new Coordinate(x, y));
+        final var response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (!data.missing().isEmpty()) {
+            response.header(
+                    MISSING_PRODUCTS,
+                    data.missing().stream().map(Enum::name).collect(Collectors.joining(",")));
+        }
+        return response.body(data.json());
+    }
+
+    @Operation(summary = "Get Data for many Points")
+    @PostMapping(path = "/point-data")
+    @CrossOrigin
+    public PointBatchData getPointData(@RequestBody @Valid final PointBatchRequest request)
+            throws IOException {
+        return pointRequestService.getPointData(request);
+    }
+
+    @Operation(summary = "Get the District and Region of a Point")
+    @GetMapping(path = "/point-data/admin-areas")
+    @CrossOrigin
+    public PointAdminAreas getAdminAreas(
+            @RequestParam @Valid final double x, @RequestParam @Valid final double y)
+            throws IOException {
+        return pointRequestService.getAdminAreas(new Coordinate(x, y));
+    }
+
+    @Operation(summary = "Get the Statistics of a Product per District and Year")
+    @GetMapping(path = "/zonal-stats")
+    @CrossOrigin
+    public List<DistrictStatData> getZonalStats(@RequestParam final ModisProduct product)
+            throws IOException {
+        return zonalStatsService.getZonalStats(product);
+    }
+
+    @Operation(summary = "Get the Polygons of a Product Year, simplified for a Zoom Level")
+    @GetMapping(path = "/grids/{product}/{year}")
     @CrossOrigin
-    public List<PointData<Object>> getPointData(
-            @RequestParam @Valid final double x, @RequestParam @Valid final double y) {
-        return pointRequestService.getPointData(new Coordinate(x, y));
+    public ResponseEntity<Resource> getGrid(
+            @PathVariable final ModisProduct product,
+            @PathVariable final int year,
+            @RequestParam(required = false) final Integer zoom) {
+        final var file =
+                zoom == null
+                        ? modisDataService.gridFile(product, year)
+                        : modisDataService.gridFile(product, year, zoom);
+        if (!Files.exists(file)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().contentType(GEO_JSON).body(new FileSystemResource(file));
     }
 
     public record Hello(String msg, Instant time) {}
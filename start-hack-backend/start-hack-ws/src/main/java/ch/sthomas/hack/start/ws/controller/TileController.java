@@ -0,0 +1,91 @@
+package ch.sthomas.hack.start.ws.controller;
+
+import ch.sthomas.hack.start.model.product.ModisProduct;
+import ch.sthomas.hack.start.service.tile.RasterTileService;
+import ch.sthomas.hack.start.service.tile.TileService;
+
+import io.swagger.v3.oas.annotations.Operation;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/v1/tiles")
+@Validated
+public class TileController {
+    private static final MediaType MVT =
+            MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final TileService tileService;
+    private final RasterTileService rasterTileService;
+
+    public TileController(
+            final TileService tileService, final RasterTileService rasterTileService) {
+        this.tileService = tileService;
+        this.rasterTileService = rasterTileService;
+    }
+
+    @Operation(summary = "Get a Vector Tile of the Polygons of a Product Year")
+    @GetMapping(path = "/{product}/{year}/{z}/{x}/{y}.mvt")
+    @CrossOrigin
+    public ResponseEntity<byte[]> getVectorTile(
+            @PathVariable final ModisProduct product,
+            @PathVariable final int year,
+            @PathVariable final int z,
+            @PathVariable final int x,
+            @PathVariable final int y)
+            throws IOException {
+        final var tile = tileService.getTile(product, year, z, x, y);
+        if (tile == null) {
+            return ResponseEntity.notFound().build();
+        }
+        final var cacheControl = CacheControl.maxAge(Duration.ofHours(1));
+        if (tile.length == 0) {
+            return ResponseEntity.noContent().cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok().contentType(MVT).cacheControl(cacheControl).body(tile);
+    }
+
+    @Operation(summary = "Get a Map Tile rendered from the Raster of a Product Year")
+    @GetMapping(path = "/{product}/{year}/{z}/{x}/{y}.png")
+    @CrossOrigin
+    public ResponseEntity<byte[]> getRasterTile(
+            @PathVariable final ModisProduct product,
+            @PathVariable final int year,
+            @PathVariable final int z,
+            @PathVariable final int x,
+            @PathVariable final int y,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                    final String ifNoneMatch)
+            throws IOException {
+        final var cacheControl = CacheControl.maxAge(Duration.ofHours(1));
+        // The ETag only depends on the tif, a revalidation does not render the tile.
+        final var etag = rasterTileService.etag(product, year);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        final var tile = rasterTileService.getTile(product, year, z, x, y);
+        if (tile == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (tile.png().length == 0) {
+            return ResponseEntity.noContent().eTag(tile.etag()).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .eTag(tile.etag())
+                .cacheControl(cacheControl)
+                .body(tile.png());
+    }
+}
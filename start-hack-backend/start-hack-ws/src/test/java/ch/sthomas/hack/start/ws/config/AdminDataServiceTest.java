@@ -2,14 +2,23 @@ package ch.sthomas.hack.start.ws.config;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import ch.sthomas.hack.start.service.AdminDataService;
 import ch.sthomas.hack.start.service.GeoService;
 import ch.sthomas.hack.start.service.geo.GridCoverageService;
+import ch.sthomas.hack.start.service.layer.FeatureLayerService;
+import ch.sthomas.hack.start.service.pipeline.IngestManifest;
+import ch.sthomas.hack.start.service.pipeline.IngestMetrics;
+import ch.sthomas.hack.start.service.pipeline.IngestPipeline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import jakarta.persistence.EntityManagerFactory;
 
 import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
@@ -20,8 +29,13 @@ import java.io.IOException;
 @SpringBootTest(
         classes = {
             AdminDataService.class,
+            FeatureLayerService.class,
             GeoService.class,
             GridCoverageService.class,
+            IngestManifest.class,
+            IngestMetrics.class,
+            IngestPipeline.class,
+            SimpleMeterRegistry.class,
             WsBaseConfig.class
         })
 @ActiveProfiles("test")
@@ -46,4 +60,17 @@ class AdminDataServiceTest {
         assertEquals(5, regions.size());
         assertNotNull(regions.stream().map(geoService::toFeature).toList());
     }
+
+    @Test
+    void testDistrictOfPoint() throws IOException {
+        final var district = adminDataService.getDistricts().iterator().next();
+        final var inside =
+                ((Geometry) district.getDefaultGeometry()).getInteriorPoint().getCoordinate();
+
+        final var found = adminDataService.getDistrict(inside);
+        assertNotNull(found);
+        assertEquals(district.getAttribute("ADM3_PCODE"), found.code());
+        assertNotNull(adminDataService.getRegion(inside));
+        assertNull(adminDataService.getDistrict(new Coordinate(0, 0)));
+    }
 }
@@ -0,0 +1,24 @@
+package ch.sthomas.hack.start.ws.controller;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ETagsTest {
+    private static final String ETAG = "\"gp-2001-1700000000000-1\"";
+
+    @Test
+    void testMatches() {
+        assertTrue(ETags.matches(ETAG, ETAG));
+        assertTrue(ETags.matches("W/" + ETAG, ETAG));
+        assertTrue(ETags.matches("\"other\", " + ETAG, ETAG));
+        assertTrue(ETags.matches("*", ETAG));
+
+        assertFalse(ETags.matches(null, ETAG));
+        assertFalse(ETags.matches("\"other\"", ETAG));
+        assertFalse(ETags.matches("gp-2001-1700000000000-1", ETAG));
+        // Nothing matches a resource that does not exist.
+        assertFalse(ETags.matches("*", null));
+    }
+}